@@ -25,7 +25,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
@@ -33,11 +36,12 @@ import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
 import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 import org.hotswap.agent.util.AppClassLoaderExecutor;
 import org.hotswap.agent.util.HaClassFileTransformer;
+import org.hotswap.agent.util.classloader.SharedClassPools;
 import org.hotswap.agent.versions.DeploymentInfo;
 
 public class PluginClassFileTransformer implements HaClassFileTransformer {
@@ -52,6 +56,10 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
 
     private final PluginManager pluginManager;
 
+    // memoized version check per classloader, valid for the deployment info it was evaluated against
+    private final Map<ClassLoader, VersionMatch> versionMatches =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, VersionMatch>());
+
     public PluginClassFileTransformer(PluginManager pluginManager, PluginAnnotation<OnClassLoadEvent> pluginAnnotation) {
         this.pluginManager = pluginManager;
         this.pluginAnnotation = pluginAnnotation;
@@ -86,15 +94,30 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
 
     public boolean versionMatches(ClassLoader loader){
         if (pluginAnnotation.shouldCheckVersion()) {
-            DeploymentInfo info = DeploymentInfo.fromClassLoader(loader);
-            if (!pluginAnnotation.matches(info)) {
-                LOGGER.debug("SKIPPING METHOD: {}, Deployment info: {}\n did not match with {}\n or {}", pluginAnnotation.method, info, pluginAnnotation.methodMatcher, pluginAnnotation.pluginMatcher);
-                return false;
+            DeploymentInfo info = DeploymentInfo.cachedFromClassLoader(loader);
+            VersionMatch versionMatch = versionMatches.get(loader);
+            if (versionMatch == null || versionMatch.deploymentInfo != info) {
+                versionMatch = new VersionMatch(info, pluginAnnotation.matches(info));
+                versionMatches.put(loader, versionMatch);
+                if (!versionMatch.matches) {
+                    LOGGER.debug("SKIPPING METHOD: {}, Deployment info: {}\n did not match with {}\n or {}", pluginAnnotation.method, info, pluginAnnotation.methodMatcher, pluginAnnotation.pluginMatcher);
+                }
             }
+            return versionMatch.matches;
         }
         return true;
     }
 
+    private static class VersionMatch {
+        final DeploymentInfo deploymentInfo;
+        final boolean matches;
+
+        VersionMatch(DeploymentInfo deploymentInfo, boolean matches) {
+            this.deploymentInfo = deploymentInfo;
+            this.matches = matches;
+        }
+    }
+
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
         if ((classBeingRedefined == null) ? !events.contains(LoadEvent.DEFINE) : !events.contains(LoadEvent.REDEFINE)) {
@@ -109,7 +132,13 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
             return classfileBuffer;
         }
 
-        return transform(pluginManager, pluginAnnotation, loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+        long start = System.nanoTime();
+        try {
+            return transform(pluginManager, pluginAnnotation, loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+        } finally {
+            ReloadMetrics.getInstance().recordPlugin(ReloadMetrics.getPluginName(pluginAnnotation.getPluginClass().getName()),
+                    ReloadMetrics.TRANSFORM, System.nanoTime() - start);
+        }
     }
 
 
@@ -128,9 +157,8 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
      * @throws NotFoundException
      */
     private static CtClass createCtClass(byte[] bytes, ClassLoader classLoader) throws IOException {
-        ClassPool cp = new ClassPool();
+        ClassPool cp = SharedClassPools.createScopedPool(classLoader);
         cp.appendSystemPath();
-        cp.appendClassPath(new LoaderClassPath(classLoader));
 
         return cp.makeClass(new ByteArrayInputStream(bytes));
     }
@@ -166,9 +194,10 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
             }
         }
 
-        // ensure classloader initiated
+        // ensure classloader initiated and plugin classes available in the classloader
         if (classLoader != null) {
             pluginManager.initClassLoader(classLoader, protectionDomain);
+            pluginManager.initPluginClasses(classLoader, pluginAnnotation.getPluginClass().getName());
         }
 
         // default result
@@ -191,10 +220,9 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
             } else if (type.isAssignableFrom(byte[].class)) {
                 args.add(bytes);
             } else if (type.isAssignableFrom(ClassPool.class)) {
-                ClassPool classPool = new ClassPool();
+                LOGGER.trace("Using shared classpool of " + classLoader);
+                ClassPool classPool = SharedClassPools.createScopedPool(classLoader);
                 classPool.appendSystemPath();
-                LOGGER.trace("Adding loader classpath " + classLoader);
-                classPool.appendClassPath(new LoaderClassPath(classLoader));
                 args.add(classPool);
             } else if (type.isAssignableFrom(CtClass.class)) {
                 try {
@@ -252,6 +280,11 @@ public class PluginClassFileTransformer implements HaClassFileTransformer {
             LOGGER.error("IOException in transform method on plugin '" + pluginAnnotation.getPluginClass() + "' class '" + className + "'.", e);
         }
 
+        // transformed class may call plugin classes
+        if (classLoader != null && result != bytes) {
+            pluginManager.initReferencedPluginClasses(classLoader, result);
+        }
+
         return result;
     }
 
@@ -27,16 +27,19 @@ import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
-import org.hotswap.agent.javassist.NotFoundException;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassFileHeader;
 import org.hotswap.agent.util.IOUtils;
+import org.hotswap.agent.util.classloader.SharedClassPools;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
@@ -49,6 +52,10 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(WatchEventCommand.class);
 
+    // class file read once per file event and shared by all handlers of the event
+    private static final Map<WatchFileEvent, ClassFileEventData> classFileEvents =
+            Collections.synchronizedMap(new WeakHashMap<WatchFileEvent, ClassFileEventData>());
+
     private final PluginAnnotation<T> pluginAnnotation;
     private final WatchEventDTO watchEventDTO;
     private final WatchFileEvent event;
@@ -92,6 +99,10 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
         this.watchEventDTO = watchEventDTO;
     }
 
+    public PluginAnnotation<T> getPluginAnnotation() {
+        return pluginAnnotation;
+    }
+
     @Override
     public void executeCommand() {
         LOGGER.trace("Executing for pluginAnnotation={}, event={} at classloader {}", pluginAnnotation, event, classLoader);
@@ -140,18 +151,20 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
         //we may need to crate CtClass on behalf of the client and close it after invocation.
         CtClass ctClass = null;
 
-        // class file regexp
+        // class file regexp - check only class name from the header, CtClass is created only if needed
+        ClassFileEventData classFile = null;
         if (watchEventDTO.isClassFileEvent()) {
             try {
-                // TODO creating class only to check name may slow down if lot of handlers is in use.
-                ctClass = createCtClass(event.getURI(), classLoader);
+                classFile = getClassFileEventData(event);
             } catch (Exception e) {
-                LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
+                LOGGER.error("Unable read class file header for URI '{}'.", e, event.getURI());
                 return;
             }
+            // cached class file of the classloader is no longer valid
+            SharedClassPools.evictClass(classLoader, classFile.header.getClassName());
 
-            // unable to create CtClass or it's name does not match
-            if (ctClass == null || !ctClass.getName().matches(watchEventDTO.getClassNameRegexp()))
+            // it's name does not match
+            if (!classFile.header.getClassName().matches(watchEventDTO.getClassNameRegexp()))
                 return;
         }
 
@@ -177,9 +190,15 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
             } else if (type.isAssignableFrom(FileEvent.class)) {
                 args.add(event.getEventType());
             } else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(CtClass.class)) {
+                try {
+                    ctClass = createCtClass(classFile.bytes, classLoader);
+                } catch (Exception e) {
+                    LOGGER.error("Unable create CtClass for URI '{}'.", e, event.getURI());
+                    return;
+                }
                 args.add(ctClass);
             } else if (watchEventDTO.isClassFileEvent() && type.isAssignableFrom(String.class)) {
-                args.add(ctClass != null ? ctClass.getName() : null);
+                args.add(classFile.header.getClassName());
             } else {
                 LOGGER.error("Unable to call method {} on plugin {}. Method parameter type {} is not recognized.",
                         pluginAnnotation.getMethod().getName(), plugin.getClass().getName(), type);
@@ -206,15 +225,34 @@ public class WatchEventCommand<T extends Annotation> extends MergeableCommand {
     /**
      * Creats javaassist CtClass for bytecode manipulation. Add default classloader.
      *
-     * @param uri         uri
+     * @param bytes       class file bytes
      * @param classLoader loader
      * @return created class
-     * @throws org.hotswap.agent.javassist.NotFoundException
      */
-    private CtClass createCtClass(URI uri, ClassLoader classLoader) throws NotFoundException, IOException {
-        ClassPool cp = new ClassPool();
-        cp.appendClassPath(new LoaderClassPath(classLoader));
+    private CtClass createCtClass(byte[] bytes, ClassLoader classLoader) throws IOException {
+        ClassPool cp = SharedClassPools.createScopedPool(classLoader);
 
-        return cp.makeClass(new ByteArrayInputStream(IOUtils.toByteArray(uri)));
+        return cp.makeClass(new ByteArrayInputStream(bytes));
+    }
+
+    private static ClassFileEventData getClassFileEventData(WatchFileEvent event) throws IOException {
+        ClassFileEventData classFile = classFileEvents.get(event);
+        if (classFile == null) {
+            byte[] bytes = IOUtils.toByteArray(event.getURI());
+            classFile = new ClassFileEventData(bytes, ClassFileHeader.read(bytes));
+            classFileEvents.put(event, classFile);
+        }
+        return classFile;
+    }
+
+    // class file content and parsed header
+    private static class ClassFileEventData {
+        final byte[] bytes;
+        final ClassFileHeader header;
+
+        ClassFileEventData(byte[] bytes, ClassFileHeader header) {
+            this.bytes = bytes;
+            this.header = header;
+        }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.command;
+
+/**
+ * Ordering key of {@link OrderedCommand} - classloader and plugin (or another lane name).
+ * <p/>
+ * Classloader is compared by identity.
+ */
+public final class CommandOrderingKey {
+
+    private final ClassLoader classLoader;
+    private final String lane;
+
+    public CommandOrderingKey(ClassLoader classLoader, String lane) {
+        this.classLoader = classLoader;
+        this.lane = lane;
+    }
+
+    public CommandOrderingKey(ClassLoader classLoader, Class<?> pluginClass) {
+        this(classLoader, pluginClass.getName());
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CommandOrderingKey)) return false;
+
+        CommandOrderingKey that = (CommandOrderingKey) o;
+
+        if (classLoader != that.classLoader) return false;
+        return lane != null ? lane.equals(that.lane) : that.lane == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = System.identityHashCode(classLoader);
+        result = 31 * result + (lane != null ? lane.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandOrderingKey{" +
+                "classLoader=" + classLoader +
+                ", lane='" + lane + '\'' +
+                '}';
+    }
+}
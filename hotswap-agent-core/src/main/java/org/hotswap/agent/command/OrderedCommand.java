@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.command;
+
+/**
+ * Command which must not run concurrently with other commands of the same ordering key.
+ * <p/>
+ * Scheduler executes commands with equal ordering key one after another (in the order their timeout
+ * expired) on a single lane. Commands with different keys (or commands without key) still run in parallel.
+ * Typical key is the application classloader plus the plugin, see {@link CommandOrderingKey}.
+ *
+ * @see org.hotswap.agent.command.Scheduler
+ */
+public interface OrderedCommand extends Command {
+
+    /**
+     * Ordering key of this command.
+     *
+     * @return key with correct equals/hashCode, or null if the command does not need ordering
+     */
+    Object getOrderingKey();
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.command;
+
+import org.hotswap.agent.command.impl.PooledSchedulerImpl;
+import org.hotswap.agent.command.impl.SchedulerImpl;
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Resolve scheduler implementation from agent configuration.
+ * <ul>
+ * <li>scheduler=default - polling {@link SchedulerImpl}, each command in a new thread</li>
+ * <li>scheduler=pooled - event driven {@link PooledSchedulerImpl} with bounded worker pool
+ * (size set by scheduler.poolSize)</li>
+ * </ul>
+ */
+public class SchedulerFactory {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(SchedulerFactory.class);
+
+    public static final String SCHEDULER_PROPERTY = "scheduler";
+    public static final String POOL_SIZE_PROPERTY = "scheduler.poolSize";
+
+    public static final String DEFAULT_SCHEDULER = "default";
+    public static final String POOLED_SCHEDULER = "pooled";
+
+    public Scheduler getScheduler(PluginConfiguration configuration) {
+        String type = configuration == null ? null : configuration.getProperty(SCHEDULER_PROPERTY);
+
+        if (type == null || type.trim().isEmpty() || DEFAULT_SCHEDULER.equalsIgnoreCase(type.trim())) {
+            return new SchedulerImpl();
+        } else if (POOLED_SCHEDULER.equalsIgnoreCase(type.trim())) {
+            return new PooledSchedulerImpl(getPoolSize(configuration));
+        } else {
+            LOGGER.warning("Unknown scheduler '{}', using default scheduler.", type);
+            return new SchedulerImpl();
+        }
+    }
+
+    private int getPoolSize(PluginConfiguration configuration) {
+        String poolSize = configuration.getProperty(POOL_SIZE_PROPERTY);
+        if (poolSize != null && !poolSize.trim().isEmpty()) {
+            try {
+                int size = Integer.parseInt(poolSize.trim());
+                if (size > 0)
+                    return size;
+            } catch (NumberFormatException e) {
+                // fall through to warning
+            }
+            LOGGER.warning("Invalid {} value '{}', using default {}.", POOL_SIZE_PROPERTY, poolSize,
+                    PooledSchedulerImpl.DEFAULT_POOL_SIZE);
+        }
+        return PooledSchedulerImpl.DEFAULT_POOL_SIZE;
+    }
+}
@@ -20,6 +20,7 @@ package org.hotswap.agent.command.impl;
 
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 
 /**
  * Execute a command in a separate thread.
@@ -40,7 +41,12 @@ public class CommandExecutor extends Thread {
     public void run() {
         try {
             LOGGER.trace("Executing command {}", command);
-            command.executeCommand();
+            long start = System.nanoTime();
+            try {
+                command.executeCommand();
+            } finally {
+                ReloadMetrics.getInstance().recordCommand(command, System.nanoTime() - start);
+            }
         } finally {
             finished();
         }
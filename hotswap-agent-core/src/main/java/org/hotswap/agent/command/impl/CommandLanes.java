@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.command.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.OrderedCommand;
+
+/**
+ * Per ordering key FIFO lanes of {@link OrderedCommand}s.
+ * <p/>
+ * A lane exists while one of its commands is executing. Commands submitted to an active lane
+ * are queued and handed over one by one as the previous command finishes.
+ */
+class CommandLanes {
+
+    // active lanes - commands queued behind the executing command
+    private final Map<Object, Deque<Command>> lanes = new HashMap<>();
+
+    /**
+     * Resolve ordering key of a command.
+     *
+     * @return the key or null if the command is not ordered
+     */
+    static Object getOrderingKey(Command command) {
+        if (command instanceof OrderedCommand)
+            return ((OrderedCommand) command).getOrderingKey();
+        return null;
+    }
+
+    /**
+     * Enter the lane.
+     *
+     * @param key     ordering key (not null)
+     * @param command command to execute
+     * @return true if the lane was idle and the command should be executed now, false if it was queued
+     */
+    synchronized boolean enter(Object key, Command command) {
+        Deque<Command> lane = lanes.get(key);
+        if (lane == null) {
+            lanes.put(key, new ArrayDeque<Command>());
+            return true;
+        }
+        lane.add(command);
+        return false;
+    }
+
+    /**
+     * Command of the lane finished, return next command to execute.
+     *
+     * @param key ordering key (not null)
+     * @return next queued command or null if the lane is idle (and was released)
+     */
+    synchronized Command next(Object key) {
+        Deque<Command> lane = lanes.get(key);
+        if (lane == null)
+            return null;
+
+        Command next = lane.poll();
+        if (next == null)
+            lanes.remove(key);
+        return next;
+    }
+}
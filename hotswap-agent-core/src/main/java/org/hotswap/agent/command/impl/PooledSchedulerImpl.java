@@ -0,0 +1,347 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.command.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hotswap.agent.annotation.handler.WatchEventCommand;
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
+
+/**
+ * Event driven command scheduler.
+ * <p/>
+ * Unlike {@link SchedulerImpl}, which polls scheduled commands every 100ms and starts a new thread
+ * for each command, this scheduler keeps commands in a {@link DelayQueue} - the dispatcher thread wakes
+ * up exactly when the earliest command is due. Commands are executed on a bounded pool of reusable
+ * daemon worker threads.
+ * <p/>
+ * Duplicate command semantics (replace/merge and restart timer on schedule, {@link DuplicateSheduleBehaviour}
+ * on timeout) are the same as in {@link SchedulerImpl}.
+ */
+public class PooledSchedulerImpl implements Scheduler {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PooledSchedulerImpl.class);
+
+    /**
+     * Default number of worker threads.
+     */
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    int DEFAULT_SCHEDULING_TIMEOUT = 100;
+
+    // commands waiting for timeout or for running duplicate to finish, key is the (merged) command instance
+    final Map<Command, ScheduledCommand> scheduledCommands = new HashMap<>();
+    // number of running instances of equal commands (RUN_DUPLICATE may run an equal command concurrently)
+    final Map<Command, Integer> runningCommands = new HashMap<>();
+
+    // lock for scheduledCommands and runningCommands state transitions
+    private final Object lock = new Object();
+
+    final DelayQueue<ScheduledCommand> queue = new DelayQueue<>();
+
+    // ordered commands are executed one after another in their lane
+    final CommandLanes lanes = new CommandLanes();
+
+    final int poolSize;
+    ThreadPoolExecutor executor;
+
+    Thread runner;
+    volatile boolean stopped;
+
+    public PooledSchedulerImpl() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Create the scheduler.
+     *
+     * @param poolSize maximum number of concurrently executed commands
+     */
+    public PooledSchedulerImpl(int poolSize) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("Scheduler pool size must be positive, got " + poolSize);
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    public void scheduleCommand(Command command) {
+        scheduleCommand(command, DEFAULT_SCHEDULING_TIMEOUT);
+    }
+
+    @Override
+    public void scheduleCommand(Command command, int timeout) {
+        scheduleCommand(command, timeout, DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
+    }
+
+    @Override
+    public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour) {
+        ScheduledCommand scheduledCommand;
+        synchronized (lock) {
+            Command targetCommand = command;
+            ScheduledCommand existing = scheduledCommands.remove(command);
+            if (existing != null) {
+                // equals command is replaced (or merged) and timer is restarted
+                existing.cancelled = true;
+                if (command instanceof MergeableCommand && existing.command instanceof MergeableCommand) {
+                    targetCommand = ((MergeableCommand) existing.command).merge(command);
+                }
+            }
+
+            scheduledCommand = new ScheduledCommand(targetCommand, System.currentTimeMillis() + timeout, behaviour);
+            scheduledCommands.put(targetCommand, scheduledCommand);
+        }
+        queue.add(scheduledCommand);
+        LOGGER.trace("{} scheduled for execution in {}ms", scheduledCommand.command, timeout);
+    }
+
+    /**
+     * Process a command whose timeout expired.
+     *
+     * @param scheduledCommand the command taken from the delay queue
+     */
+    private void processCommand(ScheduledCommand scheduledCommand) {
+        synchronized (lock) {
+            // replaced by newer schedule of the same command
+            if (scheduledCommand.cancelled || stopped)
+                return;
+
+            Command command = scheduledCommand.command;
+
+            if (runningCommands.containsKey(command)) {
+                if (scheduledCommand.behaviour.equals(DuplicateSheduleBehaviour.SKIP)) {
+                    LOGGER.debug("Skipping duplicate running command {}", command);
+                    scheduledCommands.remove(command);
+                } else if (scheduledCommand.behaviour.equals(DuplicateSheduleBehaviour.RUN_DUPLICATE)) {
+                    scheduledCommands.remove(command);
+                    executeCommand(command);
+                } else {
+                    // WAIT_AND_RUN_AFTER - keep it scheduled, it is executed after the running command finishes
+                    scheduledCommand.waiting = true;
+                }
+            } else {
+                scheduledCommands.remove(command);
+                ReloadMetrics.getInstance().recordPhase(ReloadMetrics.SCHEDULER_DELAY,
+                        (System.currentTimeMillis() - scheduledCommand.time) * 1000000);
+                executeCommand(command);
+            }
+        }
+    }
+
+    /**
+     * Submit the command to the worker pool. Ordered command is queued if another command
+     * of the same lane is in progress. Must be called under lock.
+     *
+     * @param command the command to execute
+     */
+    private void executeCommand(final Command command) {
+        Integer running = runningCommands.get(command);
+        runningCommands.put(command, running == null ? 1 : running + 1);
+
+        Object orderingKey = CommandLanes.getOrderingKey(command);
+        if (orderingKey != null && !lanes.enter(orderingKey, command)) {
+            LOGGER.trace("{} queued in lane {}", command, orderingKey);
+            return;
+        }
+
+        startCommand(command, orderingKey);
+    }
+
+    private void startCommand(final Command command, final Object orderingKey) {
+        if (command instanceof WatchEventCommand)
+            LOGGER.trace("Executing {}", command); // too much output for debug
+        else
+            LOGGER.debug("Executing {}", command);
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Thread thread = Thread.currentThread();
+                ClassLoader contextClassLoader = thread.getContextClassLoader();
+                try {
+                    LOGGER.trace("Executing command {}", command);
+                    long start = System.nanoTime();
+                    try {
+                        command.executeCommand();
+                    } finally {
+                        ReloadMetrics.getInstance().recordCommand(command, System.nanoTime() - start);
+                    }
+                } catch (Throwable e) {
+                    LOGGER.error("Error executing command {}", e, command);
+                } finally {
+                    // commands may replace context classloader, do not leak it to the next command
+                    thread.setContextClassLoader(contextClassLoader);
+                    finished(command, orderingKey);
+                }
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the scheduler was stopped meanwhile
+            LOGGER.debug("Scheduler stopped, command {} not executed.", command);
+            removeRunning(command);
+        }
+    }
+
+    // must be called under lock
+    private void removeRunning(Command command) {
+        Integer running = runningCommands.get(command);
+        if (running == null || running <= 1) {
+            runningCommands.remove(command);
+        } else {
+            runningCommands.put(command, running - 1);
+        }
+    }
+
+    /**
+     * Command execution finished - continue with the next command of the lane and run
+     * waiting duplicate (if any).
+     */
+    private void finished(Command command, Object orderingKey) {
+        synchronized (lock) {
+            removeRunning(command);
+
+            if (orderingKey != null) {
+                Command next = lanes.next(orderingKey);
+                if (next != null && !stopped)
+                    startCommand(next, orderingKey);
+            }
+
+            ScheduledCommand waiting = scheduledCommands.get(command);
+            if (waiting != null && waiting.waiting && !stopped && !runningCommands.containsKey(command)) {
+                scheduledCommands.remove(command);
+                executeCommand(waiting.command);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        ReloadMetrics.getInstance().setSchedulerQueueDepth(() -> {
+            synchronized (lock) {
+                return scheduledCommands.size();
+            }
+        });
+
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("HotswapAgent-Command"));
+        executor.allowCoreThreadTimeOut(true);
+
+        runner = new Thread("HotswapAgent-Scheduler") {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    try {
+                        processCommand(queue.take());
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        };
+
+        runner.setDaemon(true);
+        runner.start();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (runner != null)
+            runner.interrupt();
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Scheduled command entry in the delay queue.
+     */
+    private static class ScheduledCommand implements Delayed {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final Command command;
+
+        // time when to run
+        final long time;
+
+        // behaviour in case of conflict (running same command in progress)
+        final DuplicateSheduleBehaviour behaviour;
+
+        // FIFO order of commands with the same time
+        final long sequence = SEQUENCE.getAndIncrement();
+
+        // replaced by another schedule of equal command (guarded by scheduler lock)
+        boolean cancelled;
+
+        // timeout expired, but equal command is still running (guarded by scheduler lock)
+        boolean waiting;
+
+        private ScheduledCommand(Command command, long time, DuplicateSheduleBehaviour behaviour) {
+            this.command = command;
+            this.time = time;
+            this.behaviour = behaviour;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            ScheduledCommand other = (ScheduledCommand) o;
+            if (time != other.time)
+                return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Named daemon threads for the worker pool.
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -18,18 +18,20 @@
  */
 package org.hotswap.agent.command.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.hotswap.agent.annotation.handler.WatchEventCommand;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.command.MergeableCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 
 /**
  * Default command scheduler implementation.
@@ -41,15 +43,29 @@ public class SchedulerImpl implements Scheduler {
 
     int DEFAULT_SCHEDULING_TIMEOUT = 100;
 
-    // TODO : Some commands must be executed in the order in which they are put to scheduler. Therefore
-    //        there could be a LinkedHashMap and CommandExecutor should be singleton for commands that
-    //        must be executed in order. There is an issue related to this problem
-    //        https://github.com/HotswapProjects/HotswapAgent/issues/39  which requires concurrent using
-    final Map<Command, DuplicateScheduleConfig> scheduledCommands = new ConcurrentHashMap<>();
-    final Set<Command> runningCommands = Collections.synchronizedSet(new HashSet<Command>());
+    // Commands which must be executed in order implement OrderedCommand and are executed one after
+    // another in their lane (https://github.com/HotswapProjects/HotswapAgent/issues/39)
+    final CommandLanes lanes = new CommandLanes();
+
+    // scheduled commands, config holds the canonical (merged) command instance. Watcher threads schedule
+    // and the scheduler thread processes commands concurrently without a global lock.
+    final ConcurrentHashMap<Command, DuplicateScheduleConfig> scheduledCommands = new ConcurrentHashMap<>();
+    final Set<Command> runningCommands = Collections.newSetFromMap(new ConcurrentHashMap<Command, Boolean>());
+
+    // schedule order of commands with the same time
+    final AtomicLong sequence = new AtomicLong();
 
     Thread runner;
-    boolean stopped;
+    volatile boolean stopped;
+
+    private static final Comparator<DuplicateScheduleConfig> DUE_ORDER = new Comparator<DuplicateScheduleConfig>() {
+        @Override
+        public int compare(DuplicateScheduleConfig c1, DuplicateScheduleConfig c2) {
+            if (c1.time != c2.time)
+                return c1.time < c2.time ? -1 : 1;
+            return c1.sequence < c2.sequence ? -1 : (c1.sequence == c2.sequence ? 0 : 1);
+        }
+    };
 
     @Override
     public void scheduleCommand(Command command) {
@@ -63,22 +79,16 @@ public class SchedulerImpl implements Scheduler {
 
     @Override
     public void scheduleCommand(Command command, int timeout, DuplicateSheduleBehaviour behaviour) {
-        synchronized (scheduledCommands) {
+        // atomic per key - replace existing equals command (or merge with it) and reset timer
+        DuplicateScheduleConfig config = scheduledCommands.compute(command, (key, existing) -> {
             Command targetCommand = command;
-            if (scheduledCommands.containsKey(command) && (command instanceof MergeableCommand)) {
-                // get existing equals command and merge it
-                for (Command scheduledCommand : scheduledCommands.keySet()) {
-                    if (command.equals(scheduledCommand)) {
-                        targetCommand = ((MergeableCommand) scheduledCommand).merge(command);
-                        break;
-                    }
-                }
+            if (existing != null && command instanceof MergeableCommand && existing.getCommand() instanceof MergeableCommand) {
+                targetCommand = ((MergeableCommand) existing.getCommand()).merge(command);
             }
-
-            // map may already contain equals command, put will replace it and reset timer
-            scheduledCommands.put(targetCommand, new DuplicateScheduleConfig(System.currentTimeMillis() + timeout, behaviour));
-            LOGGER.trace("{} scheduled for execution in {}ms", targetCommand, timeout);
-        }
+            return new DuplicateScheduleConfig(targetCommand, System.currentTimeMillis() + timeout, behaviour,
+                    sequence.getAndIncrement());
+        });
+        LOGGER.trace("{} scheduled for execution in {}ms", config.getCommand(), timeout);
     }
 
     /**
@@ -88,29 +98,34 @@ public class SchedulerImpl implements Scheduler {
      * @return true if the agent should continue (false for fatal error)
      */
     private boolean processCommands() {
-        Long currentTime = System.currentTimeMillis();
-        synchronized (scheduledCommands) {
-            for (Iterator<Map.Entry<Command, DuplicateScheduleConfig>> it = scheduledCommands.entrySet().iterator(); it.hasNext(); ) {
-                Map.Entry<Command, DuplicateScheduleConfig> entry = it.next();
-                DuplicateScheduleConfig config = entry.getValue();
-                Command command = entry.getKey();
-
-                // if timeout
-                if (config.getTime() < currentTime) {
-                    // command is currently running
-                    if (runningCommands.contains(command)) {
-                        if (config.getBehaviour().equals(DuplicateSheduleBehaviour.SKIP)) {
-                            LOGGER.debug("Skipping duplicate running command {}", command);
-                            it.remove();
-                        } else if (config.getBehaviour().equals(DuplicateSheduleBehaviour.RUN_DUPLICATE)) {
-                            executeCommand(command);
-                            it.remove();
-                        }
-                    } else {
+        long currentTime = System.currentTimeMillis();
+
+        List<DuplicateScheduleConfig> dueCommands = new ArrayList<>();
+        for (DuplicateScheduleConfig config : scheduledCommands.values()) {
+            // if timeout
+            if (config.getTime() < currentTime)
+                dueCommands.add(config);
+        }
+
+        // execute in order of timeout (and schedule), ordered commands depend on it
+        Collections.sort(dueCommands, DUE_ORDER);
+
+        for (DuplicateScheduleConfig config : dueCommands) {
+            Command command = config.getCommand();
+
+            // command is currently running
+            if (runningCommands.contains(command)) {
+                if (config.getBehaviour().equals(DuplicateSheduleBehaviour.SKIP)) {
+                    if (scheduledCommands.remove(command, config))
+                        LOGGER.debug("Skipping duplicate running command {}", command);
+                } else if (config.getBehaviour().equals(DuplicateSheduleBehaviour.RUN_DUPLICATE)) {
+                    if (scheduledCommands.remove(command, config))
                         executeCommand(command);
-                        it.remove();
-                    }
                 }
+            } else if (scheduledCommands.remove(command, config)) {
+                // removal fails if the command was rescheduled meanwhile - it waits for the new timeout
+                ReloadMetrics.getInstance().recordPhase(ReloadMetrics.SCHEDULER_DELAY, (currentTime - config.getTime()) * 1000000);
+                executeCommand(command);
             }
         }
 
@@ -118,27 +133,48 @@ public class SchedulerImpl implements Scheduler {
     }
 
     /**
-     * Execute this command in a separate thread.
+     * Execute this command in a separate thread. Ordered command is queued if another command
+     * of the same lane is in progress.
      *
      * @param command the command to execute
      */
     private void executeCommand(Command command) {
+        runningCommands.add(command);
+
+        Object orderingKey = CommandLanes.getOrderingKey(command);
+        if (orderingKey != null && !lanes.enter(orderingKey, command)) {
+            LOGGER.trace("{} queued in lane {}", command, orderingKey);
+            return;
+        }
+
+        startCommand(command, orderingKey);
+    }
+
+    private void startCommand(final Command command, final Object orderingKey) {
         if (command instanceof WatchEventCommand)
             LOGGER.trace("Executing {}", command); // too much output for debug
         else
             LOGGER.debug("Executing {}", command);
 
-        runningCommands.add(command);
         new CommandExecutor(command) {
             @Override
             public void finished() {
                 runningCommands.remove(command);
+
+                // continue with the next command of the lane
+                if (orderingKey != null) {
+                    Command next = lanes.next(orderingKey);
+                    if (next != null)
+                        startCommand(next, orderingKey);
+                }
             }
         }.start();
     }
 
     @Override
     public void run() {
+        ReloadMetrics.getInstance().setSchedulerQueueDepth(scheduledCommands::size);
+
         runner = new Thread() {
             @Override
             public void run() {
@@ -167,15 +203,27 @@ public class SchedulerImpl implements Scheduler {
     }
 
     private static class DuplicateScheduleConfig {
+        // the canonical command instance (result of merge)
+        Command command;
+
         // time when to run
         long time;
 
         // behaviour in case of conflict (running same command in progress)
         DuplicateSheduleBehaviour behaviour;
 
-        private DuplicateScheduleConfig(long time, DuplicateSheduleBehaviour behaviour) {
+        // order of schedule
+        long sequence;
+
+        private DuplicateScheduleConfig(Command command, long time, DuplicateSheduleBehaviour behaviour, long sequence) {
+            this.command = command;
             this.time = time;
             this.behaviour = behaviour;
+            this.sequence = sequence;
+        }
+
+        public Command getCommand() {
+            return command;
         }
 
         public long getTime() {
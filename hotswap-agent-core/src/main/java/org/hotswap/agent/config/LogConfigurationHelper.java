@@ -37,6 +37,7 @@ public class LogConfigurationHelper {
 
     public static final String LOGGER_PREFIX = "LOGGER";
     public static final String DATETIME_FORMAT = "LOGGER_DATETIME_FORMAT";
+    public static final String ASYNC = "LOGGER_ASYNC";
     private static final String LOGFILE = "LOGFILE";
     private static final String LOGFILE_APPEND = "LOGFILE.append";
 
@@ -54,6 +55,8 @@ public class LogConfigurationHelper {
                     if (dateTimeFormat != null && !dateTimeFormat.isEmpty()) {
                         AgentLogger.setDateTimeFormat(dateTimeFormat);
                     }
+                } else if (property.equals(ASYNC)) {
+                    AgentLogger.getHandler().setAsync(parseBoolean(properties.getProperty(ASYNC)));
                 } else {
                     String classPrefix = getClassPrefix(property);
                     AgentLogger.Level level = getLevel(property, properties.getProperty(property));
@@ -20,6 +20,7 @@ package org.hotswap.agent.config;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -37,6 +38,7 @@ import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.HotswapProperties;
 import org.hotswap.agent.util.classloader.HotswapAgentClassLoaderExt;
 import org.hotswap.agent.util.classloader.URLClassLoaderHelper;
+import org.hotswap.agent.versions.DeploymentInfo;
 
 /**
  * Plugin configuration.
@@ -58,8 +60,8 @@ public class PluginConfiguration {
     // if the property is not defined in this classloader, look for parent classloader and it's configuration
     PluginConfiguration parent;
 
-    // this configuration adheres to this classloader
-    ClassLoader classLoader;
+    // this configuration adheres to this classloader (weak - the configuration must not keep the classloader alive)
+    WeakReference<ClassLoader> classLoader;
 
     // the hotswap-agent.properties file (or null if not defined for this classloader)
     URL configurationURL;
@@ -74,13 +76,14 @@ public class PluginConfiguration {
 
     public PluginConfiguration(PluginConfiguration parent, ClassLoader classLoader) {
         this.parent = parent;
-        this.classLoader = classLoader;
+        this.classLoader = new WeakReference<>(classLoader);
 
         loadConfigurationFile();
         init();
     }
 
     private void loadConfigurationFile() {
+        ClassLoader classLoader = getClassLoader();
 
         try {
             String externalPropertiesFile = HotswapAgent.getExternalPropertiesFile();
@@ -194,6 +197,7 @@ public class PluginConfiguration {
     }
 
     private void initExtraClassPath() {
+        ClassLoader classLoader = getClassLoader();
         URL[] extraClassPath = getExtraClasspath();
         if (extraClassPath.length > 0) {
             if (classLoader instanceof URLClassLoader) {
@@ -205,6 +209,8 @@ public class PluginConfiguration {
                         "Only URLClassLoader is supported.\n" +
                         "*** extraClasspath configuration property will not be handled on JVM level ***", Arrays.toString(extraClassPath), classLoader);
             }
+            // resolve deployment info again with extra classpath
+            DeploymentInfo.evictClassLoader(classLoader);
         }
     }
 
@@ -362,7 +368,7 @@ public class PluginConfiguration {
      * @return the classloader
      */
     public ClassLoader getClassLoader() {
-        return classLoader;
+        return classLoader.get();
     }
 
     /**
@@ -19,20 +19,25 @@
 package org.hotswap.agent.config;
 
 import java.io.IOException;
-import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.hotswap.agent.command.Scheduler;
-import org.hotswap.agent.command.impl.SchedulerImpl;
+import org.hotswap.agent.command.SchedulerFactory;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 import org.hotswap.agent.util.HotswapTransformer;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
+import org.hotswap.agent.util.classloader.SharedClassPools;
+import org.hotswap.agent.util.classloader.WeakClassLoaderMap;
+import org.hotswap.agent.versions.DeploymentInfo;
 import org.hotswap.agent.watch.Watcher;
 import org.hotswap.agent.watch.WatcherFactory;
 
@@ -46,6 +51,8 @@ public class PluginManager {
 
     public static final String PLUGIN_PACKAGE = "org.hotswap.agent.plugin";
 
+    private static final String PLUGIN_PATH = PLUGIN_PACKAGE.replace(".", "/");
+
     //////////////////////////   MANAGER SINGLETON /////////////////////////////////////
 
     // singleton instance
@@ -127,10 +134,11 @@ public class PluginManager {
         // create default configuration from this classloader
         ClassLoader classLoader = getClass().getClassLoader();
         classLoaderConfigurations.put(classLoader, new PluginConfiguration(classLoader));
+        resolvedConfigurations = new WeakClassLoaderMap<>();
 
         if (watcher == null) {
             try {
-                watcher = new WatcherFactory().getWatcher();
+                watcher = new WatcherFactory().getWatcher(getPluginConfiguration(classLoader));
             } catch (IOException e) {
                 LOGGER.debug("Unable to create default watcher.", e);
             }
@@ -138,10 +146,12 @@ public class PluginManager {
         watcher.run();
 
         if (scheduler == null) {
-            scheduler = new SchedulerImpl();
+            scheduler = new SchedulerFactory().getScheduler(getPluginConfiguration(classLoader));
         }
         scheduler.run();
 
+        ReloadMetrics.getInstance().registerMBean(getPluginConfiguration(classLoader));
+
         pluginRegistry.scanPlugins(getClass().getClassLoader(), PLUGIN_PACKAGE);
 
         LOGGER.debug("Registering transformer ");
@@ -149,7 +159,10 @@ public class PluginManager {
     }
 
     ClassLoaderDefineClassPatcher classLoaderPatcher = new ClassLoaderDefineClassPatcher();
-    Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new HashMap<>();
+    Map<ClassLoader, PluginConfiguration> classLoaderConfigurations = new WeakClassLoaderMap<>();
+    Map<ClassLoader, WeakReference<ProtectionDomain>> classLoaderProtectionDomains = new WeakClassLoaderMap<>();
+    // classloader -> configuration of the classloader or its nearest parent, replaced when configurations change
+    private volatile Map<ClassLoader, PluginConfiguration> resolvedConfigurations = new WeakClassLoaderMap<>();
     Set<ClassLoaderInitListener> classLoaderInitListeners = new HashSet<>();
 
     public void registerClassLoaderInitListener(ClassLoaderInitListener classLoaderInitListener) {
@@ -181,15 +194,15 @@ public class PluginManager {
             if (classLoaderConfigurations.containsKey(classLoader))
                 return;
 
-            // transformation
-            if (classLoader != null && classLoaderPatcher.isPatchAvailable(classLoader)) {
-                classLoaderPatcher.patch(getClass().getClassLoader(), PLUGIN_PACKAGE.replace(".", "/"),
-                        classLoader, protectionDomain);
+            // plugin classes are defined on demand, see initPluginClasses()
+            if (classLoader != null && protectionDomain != null) {
+                classLoaderProtectionDomains.put(classLoader, new WeakReference<>(protectionDomain));
             }
 
             // create new configuration for the classloader
             PluginConfiguration configuration = new PluginConfiguration(getPluginConfiguration(getClass().getClassLoader()), classLoader);
             classLoaderConfigurations.put(classLoader, configuration);
+            resolvedConfigurations = new WeakClassLoaderMap<>();
         }
 
         // call listeners
@@ -197,6 +210,51 @@ public class PluginManager {
             classLoaderInitListener.onInit(classLoader);
     }
 
+    /**
+     * Define classes of a plugin package in the application classloader (with other plugin classes they reference).
+     * <p/>
+     * Plugin classes are not copied to every classloader, but only to classloaders where a plugin
+     * is initialized or its transformer is used, and only classes of that plugin.
+     *
+     * @param classLoader     the application classloader
+     * @param pluginClassName any class of the plugin package (typically the plugin class)
+     */
+    public void initPluginClasses(ClassLoader classLoader, String pluginClassName) {
+        int lastDot = pluginClassName.lastIndexOf('.');
+        if (lastDot > 0 && isPluginClassesPatchAvailable(classLoader)) {
+            classLoaderPatcher.patchPackage(getClass().getClassLoader(), PLUGIN_PATH, pluginClassName.substring(0, lastDot),
+                    classLoader, getProtectionDomain(classLoader));
+        }
+    }
+
+    /**
+     * Define plugin classes referenced by a class in the application classloader, typically by a class enhanced
+     * by a plugin transformer to call plugin code.
+     *
+     * @param classLoader the application classloader
+     * @param bytecode    bytecode of the class
+     */
+    public void initReferencedPluginClasses(ClassLoader classLoader, byte[] bytecode) {
+        if (isPluginClassesPatchAvailable(classLoader)) {
+            classLoaderPatcher.patchReferencedClasses(getClass().getClassLoader(), PLUGIN_PATH, bytecode,
+                    classLoader, getProtectionDomain(classLoader));
+        }
+    }
+
+    private boolean isPluginClassesPatchAvailable(ClassLoader classLoader) {
+        ClassLoader agentClassLoader = getClass().getClassLoader();
+        return classLoader != null && classLoaderPatcher.isPatchAvailable(classLoader)
+                && !classLoader.equals(agentClassLoader)
+                && (agentClassLoader == null || !classLoader.equals(agentClassLoader.getParent()));
+    }
+
+    private ProtectionDomain getProtectionDomain(ClassLoader classLoader) {
+        WeakReference<ProtectionDomain> protectionDomain = classLoaderProtectionDomains.get(classLoader);
+        ProtectionDomain ret = protectionDomain != null ? protectionDomain.get() : null;
+        // use default protection domain
+        return ret != null ? ret : classLoader.getClass().getProtectionDomain();
+    }
+
     /**
      * Remove any classloader reference and close all plugin instances associated with classloader.
      * This method is called typically after webapp undeploy.
@@ -206,17 +264,29 @@ public class PluginManager {
     public void closeClassLoader(ClassLoader classLoader) {
         pluginRegistry.closeClassLoader(classLoader);
         classLoaderConfigurations.remove(classLoader);
+        resolvedConfigurations = new WeakClassLoaderMap<>();
+        classLoaderProtectionDomains.remove(classLoader);
         hotswapTransformer.closeClassLoader(classLoader);
+        DeploymentInfo.evictClassLoader(classLoader);
+        SharedClassPools.closeClassLoader(classLoader);
     }
 
 
     public PluginConfiguration getPluginConfiguration(ClassLoader classLoader) {
+        Map<ClassLoader, PluginConfiguration> resolved = resolvedConfigurations;
+        PluginConfiguration configuration = resolved.get(classLoader);
+        if (configuration != null)
+            return configuration;
+
         // if needed, iterate to first parent loader with a known configuration
         ClassLoader loader = classLoader;
         while (loader != null && !classLoaderConfigurations.containsKey(loader))
             loader = loader.getParent();
 
-        return classLoaderConfigurations.get(loader);
+        configuration = classLoaderConfigurations.get(loader);
+        if (configuration != null)
+            resolved.put(classLoader, configuration);
+        return configuration;
     }
 
     //////////////////////////   AGENT SERVICES /////////////////////////////////////
@@ -269,8 +339,12 @@ public class PluginManager {
      *
      * This method operates on a set in order to allow interdependent changes to more than one class at the same time
      * (a redefinition of class A can require a redefinition of class B).
+     * <p/>
+     * If redefinition of the whole set fails, classes are redefined in dependency consistent batches
+     * (see {@link RedefinitionPipeline}) and only the failing batches remain in reloadMap.
      *
-     * @param reloadMap class -> new bytecode
+     * @param reloadMap class -> new bytecode, successfully reloaded classes are removed
+     * @throws IllegalStateException if any class could not be redefined
      * @see java.lang.instrument.Instrumentation#redefineClasses(java.lang.instrument.ClassDefinition...)
      */
     public void hotswap(Map<Class<?>, byte[]> reloadMap) {
@@ -279,23 +353,32 @@ public class PluginManager {
         }
 
         synchronized (reloadMap) {
-            ClassDefinition[] definitions = new ClassDefinition[reloadMap.size()];
+            if (reloadMap.isEmpty())
+                return;
+
             String[] classNames = new String[reloadMap.size()];
             int i = 0;
-            for (Map.Entry<Class<?>, byte[]> entry : reloadMap.entrySet()) {
-                classNames[i] = entry.getKey().getName();
-                definitions[i++] = new ClassDefinition(entry.getKey(), entry.getValue());
+            for (Class<?> clazz : reloadMap.keySet()) {
+                classNames[i++] = clazz.getName();
             }
-            try {
-                LOGGER.reload("Reloading classes {} (autoHotswap)", Arrays.toString(classNames));
-                synchronized (hotswapLock) {
-                    instrumentation.redefineClasses(definitions);
+            LOGGER.reload("Reloading classes {} (autoHotswap)", Arrays.toString(classNames));
+
+            RedefinitionPipeline.Result result = new RedefinitionPipeline(instrumentation, hotswapLock).redefine(reloadMap);
+            for (Class<?> clazz : result.getReloaded()) {
+                reloadMap.remove(clazz);
+            }
+
+            if (!result.getFailed().isEmpty()) {
+                List<String> failedClassNames = new ArrayList<>();
+                for (Class<?> clazz : result.getFailed().keySet()) {
+                    failedClassNames.add(clazz.getName());
                 }
-                LOGGER.debug("... reloaded classes {} (autoHotswap)", Arrays.toString(classNames));
-            } catch (Exception e) {
-                throw new IllegalStateException("Unable to redefine classes", e);
+                LOGGER.debug("... reloaded {} classes in {} batches ({}ms)", result.getReloaded().size(),
+                        result.getBatchCount(), result.getRedefinitionMillis());
+                throw new IllegalStateException("Unable to redefine classes " + failedClassNames,
+                        result.getFailed().values().iterator().next());
             }
-            reloadMap.clear();
+            LOGGER.debug("... reloaded classes {} (autoHotswap) in {}ms", Arrays.toString(classNames), result.getRedefinitionMillis());
         }
     }
 
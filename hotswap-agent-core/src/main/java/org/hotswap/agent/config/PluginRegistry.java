@@ -18,20 +18,29 @@
  */
 package org.hotswap.agent.config;
 
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hotswap.agent.HotswapAgent;
 import org.hotswap.agent.annotation.Plugin;
 import org.hotswap.agent.annotation.handler.AnnotationProcessor;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.PluginCallSite;
 import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
+import org.hotswap.agent.util.classloader.WeakClassLoaderMap;
 import org.hotswap.agent.util.scanner.ClassPathAnnotationScanner;
 import org.hotswap.agent.util.scanner.ClassPathScanner;
+import org.hotswap.agent.util.scanner.PluginIndex;
 
 /**
  * Registry to support plugin manager.
@@ -42,8 +51,12 @@ public class PluginRegistry {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(PluginRegistry.class);
 
-    // plugin class -> Map (ClassLoader -> Plugin instance)
-    protected Map<Class, Map<ClassLoader, Object>> registeredPlugins = Collections.synchronizedMap(new HashMap<Class, Map<ClassLoader, Object>>());
+    // plugin class -> Map (ClassLoader -> Plugin instance), classloaders are weak keys
+    protected Map<Class, Map<ClassLoader, Object>> registeredPlugins = new ConcurrentHashMap<>();
+
+    // plugin class -> Map (ClassLoader -> Plugin instance of the classloader or its nearest parent),
+    // replaced whenever a plugin instance is added or removed
+    private volatile Map<Class, Map<ClassLoader, Object>> resolvedPlugins = new ConcurrentHashMap<>();
 
     /**
      * Returns map of all registered plugins.
@@ -90,6 +103,9 @@ public class PluginRegistry {
 
     /**
      * Scan for plugins by @Plugin annotation on PLUGIN_PATH and process plugin annotations.
+     * <p/>
+     * Plugins of a jar listed in its build time {@link PluginIndex} are used, other locations of the package
+     * (class directories, jars without index) are scanned.
      *
      * @param classLoader   classloader to resolve plugin package. This will be used by annotation scanner.
      * @param pluginPackage the package to be searched (e.g. org.agent.hotswap.plugin)
@@ -99,7 +115,7 @@ public class PluginRegistry {
         ClassLoader agentClassLoader = getClass().getClassLoader();
 
         try {
-            List<String> discoveredPlugins = annotationScanner.scanPlugins(classLoader, pluginPath);
+            List<String> discoveredPlugins = findPlugins(classLoader, pluginPackage);
             List<String> discoveredPluginNames = new ArrayList<>();
 
             // Plugin class must be always defined directly in the agent classloader, otherwise it will not be available
@@ -128,7 +144,7 @@ public class PluginRegistry {
                 if (registeredPlugins.containsKey(pluginClass))
                     continue;
 
-                registeredPlugins.put(pluginClass, Collections.synchronizedMap(new HashMap<ClassLoader, Object>()));
+                registeredPlugins.put(pluginClass, new WeakClassLoaderMap<>());
 
                 if (annotationProcessor.processAnnotations(pluginClass, pluginClass)) {
                     LOGGER.debug("Plugin registered {}.", pluginClass);
@@ -147,6 +163,44 @@ public class PluginRegistry {
         }
     }
 
+    // plugins from the index of each jar, locations without index are scanned
+    private List<String> findPlugins(ClassLoader classLoader, String pluginPackage) throws IOException {
+        String pluginPath = pluginPackage.replace(".", "/");
+        Set<String> plugins = new LinkedHashSet<>();
+        List<URL> scanRoots = new ArrayList<>();
+
+        Enumeration<URL> locations = classLoader == null ? ClassLoader.getSystemResources(pluginPath) : classLoader.getResources(pluginPath);
+        while (locations.hasMoreElements()) {
+            URL location = locations.nextElement();
+            String locationName = location.toExternalForm();
+            if (locationName.endsWith("/")) {
+                locationName = locationName.substring(0, locationName.length() - 1);
+            }
+            if (!locationName.endsWith(pluginPath)) {
+                LOGGER.debug("Unable to resolve classpath root of {}, scanning all locations of package {}.", location, pluginPackage);
+                plugins.addAll(annotationScanner.scanPlugins(classLoader, pluginPath));
+                return new ArrayList<>(plugins);
+            }
+            URL root = new URL(locationName.substring(0, locationName.length() - pluginPath.length()));
+
+            // class directory index may be stale (or missing), scan directories always
+            List<String> indexed = "file".equals(root.getProtocol()) ? null : PluginIndex.getPlugins(root, pluginPackage);
+            if (indexed != null) {
+                LOGGER.debug("Plugins of package {} in {} resolved from plugin index.", pluginPackage, root);
+                plugins.addAll(indexed);
+            } else {
+                scanRoots.add(root);
+            }
+        }
+
+        if (!scanRoots.isEmpty()) {
+            try (URLClassLoader scanClassLoader = new URLClassLoader(scanRoots.toArray(new URL[scanRoots.size()]), null)) {
+                plugins.addAll(annotationScanner.scanPlugins(scanClassLoader, pluginPath));
+            }
+        }
+        return new ArrayList<>(plugins);
+    }
+
     /**
      * Init a plugin (create new plugin instance) in a application classloader.
      * Each classloader may contain only one instance of a plugin.
@@ -170,6 +224,8 @@ public class PluginRegistry {
             return null;
         }
 
+        pluginManager.initPluginClasses(appClassLoader, pluginClass);
+
         // already initialized in this or parent classloader
         if (doHasPlugin(clazz, appClassLoader, false, true)) {
             LOGGER.debug("Plugin {} already initialized in parent classloader of {}.", clazz, appClassLoader );
@@ -177,12 +233,16 @@ public class PluginRegistry {
         }
 
         Object pluginInstance = registeredPlugins.get(clazz).get(appClassLoader);
+        if (pluginInstance == null) {
+            return null;
+        }
 
         if (annotationProcessor.processAnnotations(pluginInstance)) {
             LOGGER.info("Plugin '{}' initialized in ClassLoader '{}'.", pluginClass, appClassLoader);
         } else {
             LOGGER.error("Plugin '{}' NOT initialized in ClassLoader '{}', error while processing annotations.", pluginClass, appClassLoader);
             registeredPlugins.get(clazz).remove(appClassLoader);
+            invalidateResolvedPlugins();
         }
 
         return pluginInstance;
@@ -191,6 +251,7 @@ public class PluginRegistry {
     public void initializePluginInstance(Object pluginInstance) {
         registeredPlugins.put(pluginInstance.getClass(),
                 Collections.singletonMap(pluginInstance.getClass().getClassLoader(), pluginInstance));
+        invalidateResolvedPlugins();
         if (!annotationProcessor.processAnnotations(pluginInstance)) {
             throw new IllegalStateException("Unable to initialize plugin");
         }
@@ -216,14 +277,10 @@ public class PluginRegistry {
         if (!registeredPlugins.containsKey(pluginClass))
             throw new IllegalArgumentException(String.format("Plugin %s is not known to the registry.", pluginClass));
 
-        Map<ClassLoader, Object> pluginInstances = registeredPlugins.get(pluginClass);
-        synchronized(pluginInstances) {
-            for (Map.Entry<ClassLoader, Object> registeredClassLoaderEntry : pluginInstances.entrySet()) {
-                if (isParentClassLoader(registeredClassLoaderEntry.getKey(), classLoader)) {
-                    //noinspection unchecked
-                    return (T) registeredClassLoaderEntry.getValue();
-                }
-            }
+        Object pluginInstance = resolvePlugin(pluginClass, registeredPlugins.get(pluginClass), classLoader);
+        if (pluginInstance != null) {
+            //noinspection unchecked
+            return (T) pluginInstance;
         }
 
         // not found
@@ -243,26 +300,70 @@ public class PluginRegistry {
     }
 
     public boolean doHasPlugin(Class<?> pluginClass, ClassLoader classLoader, boolean checkParent, boolean createIfMissing) {
-        if (!registeredPlugins.containsKey(pluginClass))
+        Map<ClassLoader, Object> pluginInstances = registeredPlugins.get(pluginClass);
+        if (pluginInstances == null)
             return false;
 
-        Map<ClassLoader, Object> pluginInstances = registeredPlugins.get(pluginClass);
-        synchronized (pluginInstances) {
-            for (Map.Entry<ClassLoader, Object> registeredClassLoaderEntry : pluginInstances.entrySet()) {
-                if (checkParent && isParentClassLoader(registeredClassLoaderEntry.getKey(), classLoader)) {
-                    return true;
-                } else if (registeredClassLoaderEntry.getKey().equals(classLoader)) {
+        if (hasPluginInstance(pluginClass, pluginInstances, classLoader, checkParent))
+            return true;
+
+        if (createIfMissing) {
+            // lock only to create the instance, lookups are lock free
+            synchronized (pluginInstances) {
+                if (hasPluginInstance(pluginClass, pluginInstances, classLoader, checkParent))
                     return true;
-                }
-            }
-            if (createIfMissing) {
                 Object pluginInstance = instantiate((Class<Object>) pluginClass);
-                pluginInstances.put(classLoader, pluginInstance);
+                if (pluginInstance != null) {
+                    pluginInstances.put(classLoader, pluginInstance);
+                    invalidateResolvedPlugins();
+                }
             }
         }
         return false;
     }
 
+    private boolean hasPluginInstance(Class<?> pluginClass, Map<ClassLoader, Object> pluginInstances, ClassLoader classLoader, boolean checkParent) {
+        if (pluginInstances.containsKey(classLoader))
+            return true;
+        return checkParent && classLoader != null && resolvePlugin(pluginClass, pluginInstances, classLoader) != null;
+    }
+
+    /**
+     * Find plugin instance of the classloader or its nearest parent. Resolved instances are cached.
+     *
+     * @param pluginClass     type of the plugin
+     * @param pluginInstances registered instances of the plugin
+     * @param classLoader     classloader to resolve
+     * @return the instance or null if not initialized in the classloader or its parents
+     */
+    private Object resolvePlugin(Class<?> pluginClass, Map<ClassLoader, Object> pluginInstances, ClassLoader classLoader) {
+        Map<Class, Map<ClassLoader, Object>> resolved = resolvedPlugins;
+        Map<ClassLoader, Object> resolvedInstances = resolved.get(pluginClass);
+        Object pluginInstance = resolvedInstances != null ? resolvedInstances.get(classLoader) : null;
+        if (pluginInstance != null)
+            return pluginInstance;
+
+        for (ClassLoader loader = classLoader; loader != null && pluginInstance == null; loader = loader.getParent()) {
+            pluginInstance = pluginInstances.get(loader);
+        }
+
+        if (pluginInstance != null) {
+            if (resolvedInstances == null) {
+                resolvedInstances = new WeakClassLoaderMap<>();
+                Map<ClassLoader, Object> previous = resolved.putIfAbsent(pluginClass, resolvedInstances);
+                if (previous != null)
+                    resolvedInstances = previous;
+            }
+            resolvedInstances.put(classLoader, pluginInstance);
+        }
+        return pluginInstance;
+    }
+
+    private void invalidateResolvedPlugins() {
+        resolvedPlugins = new ConcurrentHashMap<>();
+        PluginCallSite.invalidate();
+    }
+
     /**
      * Search for the plugin in the registry and return associated classloader.
      *
@@ -274,11 +375,9 @@ public class PluginRegistry {
         Class<Object> clazz = getPluginClass(plugin.getClass().getName());
         Map<ClassLoader, Object> pluginInstances = registeredPlugins.get(clazz);
         if (pluginInstances != null) {
-            synchronized(pluginInstances) {
-                for (Map.Entry<ClassLoader, Object> entry : pluginInstances.entrySet()) {
-                    if (entry.getValue().equals(plugin))
-                        return entry.getKey();
-                }
+            for (Map.Entry<ClassLoader, Object> entry : pluginInstances.entrySet()) {
+                if (entry.getValue().equals(plugin))
+                    return entry.getKey();
             }
         }
         throw new IllegalArgumentException("Plugin not found in the registry " + plugin);
@@ -299,16 +398,6 @@ public class PluginRegistry {
         }
     }
 
-    // check if parentClassLoader is parent of classLoader
-    private boolean isParentClassLoader(ClassLoader parentClassLoader, ClassLoader classLoader) {
-        if (parentClassLoader.equals(classLoader))
-            return true;
-        else if (classLoader.getParent() != null)
-            return isParentClassLoader(parentClassLoader, classLoader.getParent());
-        else
-            return false;
-    }
-
     /**
      * Create a new instance of the plugin.
      *
@@ -333,10 +422,9 @@ public class PluginRegistry {
      */
     public void closeClassLoader(ClassLoader classLoader) {
         LOGGER.debug("Closing classloader {}.", classLoader);
-        synchronized (registeredPlugins) {
-            for (Map<ClassLoader, Object> plugins : registeredPlugins.values()) {
-                plugins.remove(classLoader);
-            }
+        for (Map<ClassLoader, Object> plugins : registeredPlugins.values()) {
+            plugins.remove(classLoader);
         }
+        invalidateResolvedPlugins();
     }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.javassist.bytecode.ClassFile;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
+
+/**
+ * Redefine a set of classes with the least number of redefineClasses calls while isolating failing classes.
+ * <p/>
+ * All classes are redefined by a single call first (single safepoint pause). Only if it fails, classes are
+ * grouped into dependency consistent batches - classes referencing each other in the constant pool
+ * (directly or transitively) are always redefined together. Batches are then redefined by bisection: a failing
+ * half is split again until the failing batch is isolated, so one bad class does not block reload of the others.
+ */
+class RedefinitionPipeline {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(RedefinitionPipeline.class);
+
+    private final Instrumentation instrumentation;
+
+    private final Object hotswapLock;
+
+    RedefinitionPipeline(Instrumentation instrumentation, Object hotswapLock) {
+        this.instrumentation = instrumentation;
+        this.hotswapLock = hotswapLock;
+    }
+
+    /**
+     * Redefine classes.
+     *
+     * @param reloadMap class -> new bytecode
+     * @return result with reloaded and failed classes
+     */
+    Result redefine(Map<Class<?>, byte[]> reloadMap) {
+        Result result = new Result();
+        List<Class<?>> classes = new ArrayList<>(reloadMap.keySet());
+        if (classes.isEmpty())
+            return result;
+
+        Throwable error = redefineBatch(classes, reloadMap, result);
+        if (error == null)
+            return result;
+
+        List<List<Class<?>>> batches = groupByDependency(classes, reloadMap);
+        if (batches.size() == 1) {
+            result.addFailed(classes, error);
+        } else {
+            LOGGER.debug("Redefinition of {} classes failed, retrying in {} dependency batches.", classes.size(), batches.size());
+            int mid = batches.size() / 2;
+            bisect(batches.subList(0, mid), reloadMap, result);
+            bisect(batches.subList(mid, batches.size()), reloadMap, result);
+        }
+        return result;
+    }
+
+    // redefine all batches in single call, on failure split them in halves
+    private void bisect(List<List<Class<?>>> batches, Map<Class<?>, byte[]> reloadMap, Result result) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (List<Class<?>> batch : batches)
+            classes.addAll(batch);
+
+        Throwable error = redefineBatch(classes, reloadMap, result);
+        if (error == null)
+            return;
+
+        if (batches.size() == 1) {
+            result.addFailed(classes, error);
+        } else {
+            int mid = batches.size() / 2;
+            bisect(batches.subList(0, mid), reloadMap, result);
+            bisect(batches.subList(mid, batches.size()), reloadMap, result);
+        }
+    }
+
+    /**
+     * Redefine single batch.
+     *
+     * @return null on success, the error otherwise
+     */
+    private Throwable redefineBatch(List<Class<?>> classes, Map<Class<?>, byte[]> reloadMap, Result result) {
+        ClassDefinition[] definitions = new ClassDefinition[classes.size()];
+        int i = 0;
+        for (Class<?> clazz : classes) {
+            definitions[i++] = new ClassDefinition(clazz, reloadMap.get(clazz));
+        }
+
+        long start = System.nanoTime();
+        try {
+            synchronized (hotswapLock) {
+                doRedefine(definitions);
+            }
+        } catch (Exception | LinkageError e) {
+            LOGGER.debug("Redefinition of batch of {} classes failed in {}ms - {}", classes.size(), elapsedMillis(start), e);
+            return e;
+        }
+
+        ReloadMetrics.getInstance().recordPhase(ReloadMetrics.REDEFINE, System.nanoTime() - start);
+        long elapsed = elapsedMillis(start);
+        LOGGER.debug("Redefined batch of {} classes in {}ms", classes.size(), elapsed);
+        result.addReloaded(classes, elapsed);
+        return null;
+    }
+
+    /**
+     * The actual redefinition (one safepoint).
+     */
+    protected void doRedefine(ClassDefinition[] definitions) throws Exception {
+        instrumentation.redefineClasses(definitions);
+    }
+
+    /**
+     * Split classes into connected components by constant pool class references among the classes.
+     */
+    List<List<Class<?>>> groupByDependency(List<Class<?>> classes, Map<Class<?>, byte[]> reloadMap) {
+        int[] parent = new int[classes.size()];
+        Map<String, Integer> indexByName = new HashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            parent[i] = i;
+            String name = classes.get(i).getName();
+            Integer sameName = indexByName.get(name);
+            if (sameName != null) {
+                // same class in different classloaders - keep together
+                union(parent, i, sameName);
+            } else {
+                indexByName.put(name, i);
+            }
+        }
+
+        for (int i = 0; i < classes.size(); i++) {
+            try {
+                ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(reloadMap.get(classes.get(i)))));
+                for (String referenced : classFile.getConstPool().getClassNames()) {
+                    Integer index = indexByName.get(toClassName(referenced));
+                    if (index != null)
+                        union(parent, i, index);
+                }
+            } catch (Exception e) {
+                LOGGER.trace("Unable to read class references of {}, redefining it in separate batch.", e, classes.get(i).getName());
+            }
+        }
+
+        Map<Integer, List<Class<?>>> components = new LinkedHashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            int root = find(parent, i);
+            List<Class<?>> component = components.get(root);
+            if (component == null) {
+                component = new ArrayList<>();
+                components.put(root, component);
+            }
+            component.add(classes.get(i));
+        }
+        return new ArrayList<>(components.values());
+    }
+
+    // constant pool class name in internal form (possibly array descriptor) to class name
+    private static String toClassName(String internalName) {
+        String name = internalName;
+        if (name.startsWith("[")) {
+            int start = name.lastIndexOf('[') + 1;
+            if (name.charAt(start) != 'L')
+                return name; // primitive array
+            name = name.substring(start + 1, name.length() - 1);
+        }
+        return name.replace('/', '.');
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        parent[find(parent, i)] = find(parent, j);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * Result of the redefinition.
+     */
+    static class Result {
+        private final List<Class<?>> reloaded = new ArrayList<>();
+        private final Map<Class<?>, Throwable> failed = new LinkedHashMap<>();
+        private int batchCount;
+        private long redefinitionMillis;
+
+        void addReloaded(List<Class<?>> classes, long millis) {
+            reloaded.addAll(classes);
+            batchCount++;
+            redefinitionMillis += millis;
+        }
+
+        void addFailed(List<Class<?>> classes, Throwable error) {
+            for (Class<?> clazz : classes)
+                failed.put(clazz, error);
+        }
+
+        /**
+         * Successfully redefined classes.
+         */
+        List<Class<?>> getReloaded() {
+            return reloaded;
+        }
+
+        /**
+         * Classes which failed to redefine with the error of their batch.
+         */
+        Map<Class<?>, Throwable> getFailed() {
+            return failed;
+        }
+
+        /**
+         * Number of successful redefineClasses calls.
+         */
+        int getBatchCount() {
+            return batchCount;
+        }
+
+        /**
+         * Total time spent in successful redefineClasses calls.
+         */
+        long getRedefinitionMillis() {
+            return redefinitionMillis;
+        }
+    }
+}
@@ -18,8 +18,9 @@
  */
 package org.hotswap.agent.logging;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Create custom simple logging mechanism.
@@ -40,22 +41,36 @@ public class AgentLogger {
         return new AgentLogger(clazz);
     }
 
-    private static Map<String, Level> currentLevels = new HashMap<>();
+    private static Map<String, Level> currentLevels = new ConcurrentHashMap<>();
+
+    // incremented on any level change, loggers resolve their level again
+    private static final AtomicInteger levelsVersion = new AtomicInteger();
 
     public static void setLevel(String classPrefix, Level level) {
         currentLevels.put(classPrefix, level);
+        levelsVersion.incrementAndGet();
     }
 
-    private static Level rootLevel = Level.INFO;
+    private static volatile Level rootLevel = Level.INFO;
 
     public static void setLevel(Level level) {
         rootLevel = level;
+        levelsVersion.incrementAndGet();
     }
 
-    private static AgentLoggerHandler handler = new AgentLoggerHandler();
+    private static volatile AgentLoggerHandler handler = createDefaultHandler();
+
+    private static AgentLoggerHandler createDefaultHandler() {
+        return new AgentLoggerHandler();
+    }
 
     public static void setHandler(AgentLoggerHandler handler) {
+        AgentLoggerHandler previous = AgentLogger.handler;
         AgentLogger.handler = handler;
+        // stop writer thread of replaced asynchronous handler
+        if (previous != null && previous != handler) {
+            previous.setAsync(false);
+        }
     }
 
     public static AgentLoggerHandler getHandler() {
@@ -80,12 +95,26 @@ public class AgentLogger {
 
     private Class clazz;
 
+    // level resolved for the class, valid for levelsVersion
+    private volatile ResolvedLevel resolvedLevel;
+
     private AgentLogger(Class clazz) {
         this.clazz = clazz;
     }
 
 
     public boolean isLevelEnabled(Level level) {
+        int version = levelsVersion.get();
+        ResolvedLevel resolved = resolvedLevel;
+        if (resolved == null || resolved.version != version) {
+            resolved = new ResolvedLevel(version, resolveClassLevel());
+            resolvedLevel = resolved;
+        }
+        // levels are ordered from most serious, classLevel enables itself and all more serious levels
+        return level.ordinal() <= resolved.level.ordinal();
+    }
+
+    private Level resolveClassLevel() {
         Level classLevel = rootLevel;
 
         String className = clazz.getName();
@@ -99,15 +128,17 @@ public class AgentLogger {
             }
         }
 
-        // iterate levels in order from most serious. If classLevel is first, it preciedes required level and log is disabled
-        for (Level l : Level.values()) {
-            if (l == level)
-                return true;
-            if (l == classLevel)
-                return false;
-        }
+        return classLevel;
+    }
+
+    private static class ResolvedLevel {
+        final int version;
+        final Level level;
 
-        throw new IllegalArgumentException("Should not happen.");
+        ResolvedLevel(int version, Level level) {
+            this.version = version;
+            this.level = level;
+        }
     }
 
     public void log(Level level, String message, Throwable throwable, Object... args) {
@@ -21,20 +21,58 @@ package org.hotswap.agent.logging;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Simple handler to log to output stream (default is system.out).
+ * <p/>
+ * In asynchronous mode messages are queued into a bounded buffer and written by a background thread. If the buffer
+ * is full, DEBUG and TRACE messages are dropped (and the count reported later), the calling thread waits
+ * for free space with more serious messages to keep the log in order.
  *
  * @author Jiri Bubnik
  */
 public class AgentLoggerHandler {
 
+    /**
+     * Default capacity of the asynchronous buffer (messages).
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 8192;
+
     // stream to receive the log
     PrintStream outputStream;
 
-    SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+    // immutable, safe to use from any thread
+    volatile DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private volatile boolean async;
+
+    private final BlockingQueue<LogRecord> buffer;
+
+    // low priority messages dropped since last report
+    private final AtomicLong dropped = new AtomicLong();
+
+    Thread writer;
+
+    private Thread shutdownHook;
+
+    public AgentLoggerHandler() {
+        this(DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * @param bufferCapacity capacity of the asynchronous buffer (messages)
+     */
+    public AgentLoggerHandler(int bufferCapacity) {
+        buffer = new ArrayBlockingQueue<>(bufferCapacity);
+    }
 
     /**
      * Setup custom stream (default is System.out).
@@ -45,38 +83,175 @@ public class AgentLoggerHandler {
         this.outputStream = outputStream;
     }
 
+    /**
+     * Write messages in background thread (true) or directly by the logging thread (false, default).
+     * <p/>
+     * Switching to synchronous mode stops the background thread and writes out buffered messages.
+     */
+    public synchronized void setAsync(boolean async) {
+        this.async = async;
+        if (async && writer == null) {
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeBuffered();
+                }
+            }, "HotSwap Logger");
+            writer.setDaemon(true);
+            writer.start();
+            shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, "HotSwap Logger Flush");
+            try {
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM is shutting down
+                shutdownHook = null;
+            }
+        } else if (!async && writer != null) {
+            stopWriter();
+        }
+    }
+
+    // must be called under handler lock
+    private void stopWriter() {
+        writer.interrupt();
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM is shutting down, the hook is running or already finished
+            }
+            shutdownHook = null;
+        }
+        flush();
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
     // print a message to System.out and optionally to custom stream
     protected void printMessage(String message) {
-        String log = "HOTSWAP AGENT: " + sdf.format(new Date()) +  " " + message;
+        printMessage(System.currentTimeMillis(), message);
+    }
+
+    // print a message logged at the time to System.out and optionally to custom stream
+    protected void printMessage(long timestamp, String message) {
+        String log = "HOTSWAP AGENT: " + dateTimeFormatter.format(Instant.ofEpochMilli(timestamp)) + " " + message;
         System.out.println(log);
         if (outputStream != null)
             outputStream.println(log);
     }
 
     public void print(Class clazz, AgentLogger.Level level, String message, Throwable throwable, Object... args) {
+        LogRecord record = new LogRecord(System.currentTimeMillis(), clazz, level, formatMessage(message, args), throwable);
 
-        // replace {} in string with actual parameters
-        String messageWithArgs = message;
-        for (Object arg : args) {
-            int index = messageWithArgs.indexOf("{}");
-            if (index >= 0) {
-                messageWithArgs = messageWithArgs.substring(0, index) + String.valueOf(arg) + messageWithArgs.substring(index + 2);
+        if (!async) {
+            write(record);
+        } else if (!buffer.offer(record)) {
+            if (level == AgentLogger.Level.DEBUG || level == AgentLogger.Level.TRACE) {
+                dropped.incrementAndGet();
+            } else if (Thread.currentThread() == writer) {
+                // logged while writing, waiting for free space would never end
+                write(record);
+            } else {
+                try {
+                    buffer.put(record);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    write(record);
+                    return;
+                }
+                // switched to synchronous mode meanwhile, the writer will not take the record
+                if (!async) {
+                    flush();
+                }
             }
         }
+    }
 
-        StringBuffer stringBuffer = new StringBuffer();
-        stringBuffer.append(level);
-        stringBuffer.append(" (");
-        stringBuffer.append(clazz.getName());
-        stringBuffer.append(") - ");
-        stringBuffer.append(messageWithArgs);
+    /**
+     * Write all buffered messages by the calling thread.
+     */
+    public void flush() {
+        List<LogRecord> records = new ArrayList<>();
+        buffer.drainTo(records);
+        reportDropped();
+        for (LogRecord record : records) {
+            write(record);
+        }
+    }
 
-        if (throwable != null) {
-            stringBuffer.append("\n");
-            stringBuffer.append(formatErrorTrace(throwable));
+    private void writeBuffered() {
+        try {
+            while (true) {
+                LogRecord record = buffer.take();
+                reportDropped();
+                write(record);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        printMessage(stringBuffer.toString());
+    private void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0) {
+            write(new LogRecord(System.currentTimeMillis(), AgentLoggerHandler.class, AgentLogger.Level.WARNING,
+                    count + " debug/trace messages dropped, logging buffer is full.", null));
+        }
+    }
+
+    private void write(LogRecord record) {
+        try {
+            StringBuilder sb = new StringBuilder(record.message.length() + 64);
+            sb.append(record.level);
+            sb.append(" (");
+            sb.append(record.clazz.getName());
+            sb.append(") - ");
+            sb.append(record.message);
+
+            if (record.throwable != null) {
+                sb.append("\n");
+                sb.append(formatErrorTrace(record.throwable));
+            }
+
+            printMessage(record.timestamp, sb.toString());
+        } catch (RuntimeException e) {
+            // never fail the logging (or writer) thread
+            e.printStackTrace();
+        }
+    }
+
+    // replace {} in string with actual parameters
+    static String formatMessage(String message, Object... args) {
+        if (args == null || args.length == 0 || message == null) {
+            return String.valueOf(message);
+        }
+        StringBuilder sb = new StringBuilder(message.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = message.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(message, start, index);
+            sb.append(String.valueOf(arg));
+            start = index + 2;
+        }
+        sb.append(message, start, message.length());
+        return sb.toString();
     }
 
     private String formatErrorTrace(Throwable throwable) {
@@ -85,7 +260,32 @@ public class AgentLoggerHandler {
         return errors.toString();
     }
 
+    /**
+     * Set format of the message time (DateTimeFormatter pattern). Invalid pattern is reported and the current
+     * format is kept.
+     */
     public void setDateTimeFormat(String dateTimeFormat) {
-        sdf = new SimpleDateFormat(dateTimeFormat);
+        try {
+            dateTimeFormatter = DateTimeFormatter.ofPattern(dateTimeFormat).withZone(ZoneId.systemDefault());
+        } catch (IllegalArgumentException e) {
+            write(new LogRecord(System.currentTimeMillis(), AgentLoggerHandler.class, AgentLogger.Level.WARNING,
+                    "Invalid date time format '" + dateTimeFormat + "', format not changed. " + e.getMessage(), null));
+        }
+    }
+
+    private static class LogRecord {
+        final long timestamp;
+        final Class clazz;
+        final AgentLogger.Level level;
+        final String message;
+        final Throwable throwable;
+
+        LogRecord(long timestamp, Class clazz, AgentLogger.Level level, String message, Throwable throwable) {
+            this.timestamp = timestamp;
+            this.clazz = clazz;
+            this.level = level;
+            this.message = message;
+            this.throwable = throwable;
+        }
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with exponential buckets.
+ * <p/>
+ * Bucket 0 counts values under 1us, bucket i values in [2^(i-1), 2^i) us. Microsecond resolution keeps
+ * sub-millisecond phases (e.g. class transformation) distinguishable. Percentiles are estimated by the upper
+ * bound of the bucket.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record one value.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        // 64 - numberOfLeadingZeros = number of bits, i.e. 0 for 0us, 1 for 1us, 2 for 2-3us ...
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    // upper bound of the bucket in us
+    static long bucketLimit(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * @return current statistics
+     */
+    public LatencyStatistics getStatistics() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long sum = count.sum();
+        long mean = sum > 0 ? totalNanos.sum() / sum / 1000 : 0;
+        return new LatencyStatistics(sum, totalNanos.sum() / 1000, mean, maxNanos.get() / 1000,
+                percentile(counts, total, 0.5), percentile(counts, total, 0.9), percentile(counts, total, 0.99));
+    }
+
+    private static long percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile);
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= threshold) {
+                return bucketLimit(i);
+            }
+        }
+        return bucketLimit(counts.length - 1);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.metrics;
+
+import java.util.Locale;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Snapshot of a {@link LatencyHistogram}, all times in microseconds.
+ * <p/>
+ * Exposed over JMX as composite data.
+ */
+public class LatencyStatistics {
+
+    private final long count;
+    private final long totalMicros;
+    private final long meanMicros;
+    private final long maxMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+
+    public LatencyStatistics(long count, long totalMicros, long meanMicros, long maxMicros,
+                             long p50Micros, long p90Micros, long p99Micros) {
+        this.count = count;
+        this.totalMicros = totalMicros;
+        this.meanMicros = meanMicros;
+        this.maxMicros = maxMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+    }
+
+    /**
+     * Reconstruct from JMX composite data (MXBean proxies).
+     */
+    public static LatencyStatistics from(CompositeData data) {
+        return new LatencyStatistics((Long) data.get("count"), (Long) data.get("totalMicros"),
+                (Long) data.get("meanMicros"), (Long) data.get("maxMicros"), (Long) data.get("p50Micros"),
+                (Long) data.get("p90Micros"), (Long) data.get("p99Micros"));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * @return upper bound estimate of the median
+     */
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    /**
+     * @return upper bound estimate of the 90th percentile
+     */
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    /**
+     * @return upper bound estimate of the 99th percentile
+     */
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", total=" + format(totalMicros) + ", mean=" + format(meanMicros)
+                + ", max=" + format(maxMicros) + ", p50<=" + format(p50Micros) + ", p90<=" + format(p90Micros)
+                + ", p99<=" + format(p99Micros);
+    }
+
+    // milliseconds with microsecond precision
+    private static String format(long micros) {
+        return String.format(Locale.ROOT, "%.3fms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hotswap.agent.annotation.handler.WatchEventCommand;
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.ReflectionCommand;
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Reload latency metrics.
+ * <p/>
+ * A reload goes through several phases - watcher scan, dispatcher queue and listeners, scheduler delay, command
+ * execution, class transformation and redefinition. Each phase records latency into a histogram, commands
+ * and transformers are recorded per plugin as well ("plugin/phase"). Recording is lock free and cheap,
+ * the metrics are always collected.
+ * <p/>
+ * Metrics are exposed as platform MXBean {@link #OBJECT_NAME} if enabled by property metrics.jmx=true. The MBean
+ * is not registered by default - obtaining the platform MBean server at agent startup initializes JUL LogManager
+ * before the application server configures it (e.g. JBoss/WildFly fail to boot).
+ */
+public class ReloadMetrics implements ReloadMetricsMXBean {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ReloadMetrics.class);
+
+    public static final String OBJECT_NAME = "org.hotswap.agent:type=ReloadMetrics";
+
+    public static final String JMX_PROPERTY = "metrics.jmx";
+
+    /** Polling watcher - scan of all watched directory trees. */
+    public static final String WATCHER_SCAN = "watcherScan";
+
+    /** Time a watch event waited in the dispatcher queue (including coalesce window). */
+    public static final String DISPATCH_QUEUE = "dispatchQueue";
+
+    /** Watch event listeners. */
+    public static final String DISPATCH = "dispatch";
+
+    /** Time a command waited in the scheduler after its timeout expired. */
+    public static final String SCHEDULER_DELAY = "schedulerDelay";
+
+    /** Command execution. */
+    public static final String COMMAND = "command";
+
+    /** Class transformation (all transformers of a class). */
+    public static final String TRANSFORM = "transform";
+
+    /** Instrumentation.redefineClasses() call. */
+    public static final String REDEFINE = "redefine";
+
+    private static final String PLUGIN_PACKAGE_PREFIX = PluginManager.PLUGIN_PACKAGE + ".";
+
+    private static final ReloadMetrics INSTANCE = new ReloadMetrics();
+
+    /**
+     * Get the singleton instance.
+     */
+    public static ReloadMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> plugins = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LongAdder> transformerInvocations = new ConcurrentHashMap<>();
+
+    private volatile IntSupplier schedulerQueueDepth;
+
+    private boolean registered;
+
+    /**
+     * Record latency of a phase.
+     *
+     * @param phase phase name
+     * @param nanos latency in nanoseconds
+     */
+    public void recordPhase(String phase, long nanos) {
+        histogram(phases, phase).record(nanos);
+    }
+
+    /**
+     * Record latency of a plugin in a phase.
+     *
+     * @param plugin plugin name, see {@link #getPluginName(String)}
+     * @param phase  phase name
+     * @param nanos  latency in nanoseconds
+     */
+    public void recordPlugin(String plugin, String phase, long nanos) {
+        histogram(plugins, plugin + "/" + phase).record(nanos);
+    }
+
+    /**
+     * Record command execution, the command is attributed to a plugin by its class.
+     *
+     * @param command the command
+     * @param nanos   execution time in nanoseconds
+     */
+    public void recordCommand(Command command, long nanos) {
+        recordPhase(COMMAND, nanos);
+        recordPlugin(getPluginName(command), COMMAND, nanos);
+    }
+
+    /**
+     * Count invocation of transformers registered for a class name pattern.
+     *
+     * @param classNamePattern the (normalized) regexp
+     */
+    public void recordTransformerInvocation(String classNamePattern) {
+        LongAdder counter = transformerInvocations.get(classNamePattern);
+        if (counter == null) {
+            LongAdder newCounter = new LongAdder();
+            counter = transformerInvocations.putIfAbsent(classNamePattern, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.increment();
+    }
+
+    /**
+     * Register source of the scheduler queue depth.
+     */
+    public void setSchedulerQueueDepth(IntSupplier schedulerQueueDepth) {
+        this.schedulerQueueDepth = schedulerQueueDepth;
+    }
+
+    private static LatencyHistogram histogram(ConcurrentHashMap<String, LatencyHistogram> histograms, String name) {
+        // get first - computeIfAbsent locks even if the value exists
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Plugin name of a class - package of the plugin (e.g. "spring" for org.hotswap.agent.plugin.spring.*),
+     * "core" for other agent classes, otherwise the package name.
+     *
+     * @param className fully qualified class name
+     * @return the plugin name
+     */
+    public static String getPluginName(String className) {
+        if (className == null) {
+            return "unknown";
+        }
+        if (className.startsWith(PLUGIN_PACKAGE_PREFIX)) {
+            int end = className.indexOf('.', PLUGIN_PACKAGE_PREFIX.length());
+            return end > 0 ? className.substring(PLUGIN_PACKAGE_PREFIX.length(), end) : "core";
+        }
+        if (className.startsWith("org.hotswap.agent.")) {
+            return "core";
+        }
+        int lastDot = className.lastIndexOf('.');
+        return lastDot > 0 ? className.substring(0, lastDot) : className;
+    }
+
+    static String getPluginName(Command command) {
+        if (command instanceof ReflectionCommand) {
+            return getPluginName(((ReflectionCommand) command).getClassName());
+        } else if (command instanceof WatchEventCommand) {
+            return getPluginName(((WatchEventCommand<?>) command).getPluginAnnotation().getPluginClass().getName());
+        }
+        return getPluginName(command.getClass().getName());
+    }
+
+    @Override
+    public Map<String, LatencyStatistics> getPhases() {
+        return statistics(phases);
+    }
+
+    @Override
+    public Map<String, LatencyStatistics> getPlugins() {
+        return statistics(plugins);
+    }
+
+    private static Map<String, LatencyStatistics> statistics(Map<String, LatencyHistogram> histograms) {
+        Map<String, LatencyStatistics> ret = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().getStatistics());
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<String, Long> getTransformerInvocations() {
+        Map<String, Long> ret = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : transformerInvocations.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().sum());
+        }
+        return ret;
+    }
+
+    @Override
+    public int getSchedulerQueueDepth() {
+        IntSupplier supplier = schedulerQueueDepth;
+        return supplier != null ? supplier.getAsInt() : 0;
+    }
+
+    @Override
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Phases:\n");
+        appendStatistics(sb, getPhases());
+        sb.append("Plugins (slowest total first):\n");
+        List<Map.Entry<String, LatencyStatistics>> pluginStatistics = new ArrayList<>(getPlugins().entrySet());
+        Collections.sort(pluginStatistics, (e1, e2) -> Long.compare(e2.getValue().getTotalMicros(), e1.getValue().getTotalMicros()));
+        for (Map.Entry<String, LatencyStatistics> entry : pluginStatistics) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        sb.append("Transformer invocations:\n");
+        for (Map.Entry<String, Long> entry : getTransformerInvocations().entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        sb.append("Scheduler queue depth: ").append(getSchedulerQueueDepth()).append("\n");
+        return sb.toString();
+    }
+
+    private static void appendStatistics(StringBuilder sb, Map<String, LatencyStatistics> statistics) {
+        for (Map.Entry<String, LatencyStatistics> entry : statistics.entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+    }
+
+    @Override
+    public void reset() {
+        phases.clear();
+        plugins.clear();
+        transformerInvocations.clear();
+    }
+
+    /**
+     * Register the MXBean in platform MBean server (if enabled by configuration).
+     *
+     * @param pluginConfiguration agent configuration
+     */
+    public synchronized void registerMBean(PluginConfiguration pluginConfiguration) {
+        if (registered || !"true".equalsIgnoreCase(pluginConfiguration.getProperty(JMX_PROPERTY, "false").trim())) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+            registered = true;
+            LOGGER.debug("Reload metrics registered as MBean {}.", OBJECT_NAME);
+        } catch (Exception e) {
+            LOGGER.warning("Unable to register reload metrics MBean {}.", e, OBJECT_NAME);
+        }
+    }
+}
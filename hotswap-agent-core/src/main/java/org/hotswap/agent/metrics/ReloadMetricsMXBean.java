@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ReloadMetrics}, registered as {@link ReloadMetrics#OBJECT_NAME}.
+ */
+public interface ReloadMetricsMXBean {
+
+    /**
+     * @return phase name -> latency statistics
+     */
+    Map<String, LatencyStatistics> getPhases();
+
+    /**
+     * @return "plugin/phase" -> latency statistics
+     */
+    Map<String, LatencyStatistics> getPlugins();
+
+    /**
+     * @return transformer class name pattern -> number of invocations
+     */
+    Map<String, Long> getTransformerInvocations();
+
+    /**
+     * @return number of commands waiting in the scheduler
+     */
+    int getSchedulerQueueDepth();
+
+    /**
+     * @return human readable report of all metrics
+     */
+    String report();
+
+    /**
+     * Clear all recorded values.
+     */
+    void reset();
+}
@@ -22,6 +22,7 @@ import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.ClassPool;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.util.classloader.SharedClassPools;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -44,9 +45,8 @@ public class HotSwapper {
      * @throws Exception swap exception
      */
     public static void swapClasses(Class original, String swap) throws Exception {
-        // need to recreate classpool on each swap to avoid stale class definition
-        ClassPool classPool = new ClassPool();
-        classPool.appendClassPath(new LoaderClassPath(original.getClassLoader()));
+        // renamed class is kept only in the scoped pool, original definition is evicted from the shared pool on redefinition
+        ClassPool classPool = SharedClassPools.createScopedPool(original.getClassLoader());
 
         CtClass ctClass = classPool.getAndRename(swap, original.getName());
 
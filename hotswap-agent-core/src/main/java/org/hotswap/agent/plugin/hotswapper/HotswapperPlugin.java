@@ -33,10 +33,13 @@ import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.classloader.*;
+import org.hotswap.agent.watch.BuildQuietPeriod;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -54,6 +57,9 @@ import java.util.Map;
 public class HotswapperPlugin {
     private static AgentLogger LOGGER = AgentLogger.getLogger(HotswapperPlugin.class);
 
+    // delay (ms) of the hotswap after a change, postponed further only while the build is active
+    private static final int HOTSWAP_DELAY = 100;
+
     @Init
     Scheduler scheduler;
 
@@ -63,14 +69,23 @@ public class HotswapperPlugin {
     // synchronize on this map to wait for previous processing
     final Map<Class<?>, byte[]> reloadMap = new HashMap<>();
 
+    // time of the first change since the last hotswap attempt (0 if none), guarded by reloadMap.
+    // Classes failed to redefine stay in reloadMap, but do not count as pending changes.
+    long pendingSince;
+
     // command to do actual hotswap. Single command to merge possible multiple reload actions.
     Command hotswapCommand;
 
+    // postpone the hotswap until the build settles
+    BuildQuietPeriod buildQuietPeriod = new BuildQuietPeriod(BuildQuietPeriod.DEFAULT_QUIET_PERIOD,
+            Collections.<Path>emptyList());
+
     /**
      * For each changed class create a reload command.
      */
     @OnClassFileEvent(classNameRegexp = ".*", events = {FileEvent.MODIFY, FileEvent.CREATE})
     public void watchReload(CtClass ctClass, ClassLoader appClassLoader, URL url) throws IOException, CannotCompileException {
+        buildQuietPeriod.recordActivity();
         if (!ClassLoaderHelper.isClassLoaded(appClassLoader, ctClass.getName())) {
             LOGGER.trace("Class {} not loaded yet, no need for autoHotswap, skipped URL {}", ctClass.getName(), url);
             return;
@@ -89,9 +104,12 @@ public class HotswapperPlugin {
         }
 
         synchronized (reloadMap) {
+            if (pendingSince == 0) {
+                pendingSince = System.currentTimeMillis();
+            }
             reloadMap.put(clazz, ctClass.toBytecode());
         }
-        scheduler.scheduleCommand(hotswapCommand, 100, Scheduler.DuplicateSheduleBehaviour.SKIP);
+        scheduler.scheduleCommand(hotswapCommand, HOTSWAP_DELAY, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
     }
 
     /**
@@ -102,11 +120,12 @@ public class HotswapperPlugin {
      * @param port           attach the hotswapper
      */
     public void initHotswapCommand(ClassLoader appClassLoader, String port) {
+        final Command command;
         if (port != null && port.length() > 0) {
-            hotswapCommand = new ReflectionCommand(this, HotswapperCommand.class.getName(), "hotswap", appClassLoader,
+            command = new ReflectionCommand(this, HotswapperCommand.class.getName(), "hotswap", appClassLoader,
                     port, reloadMap);
         } else {
-            hotswapCommand = new Command() {
+            command = new Command() {
                 @Override
                 public void executeCommand() {
                     pluginManager.hotswap(reloadMap);
@@ -118,6 +137,38 @@ public class HotswapperPlugin {
                 }
             };
         }
+
+        // run the command only after the build settles, all changes are reloaded at once
+        hotswapCommand = new Command() {
+            @Override
+            public void executeCommand() {
+                long since;
+                synchronized (reloadMap) {
+                    since = pendingSince;
+                }
+                long delay = buildQuietPeriod.getRemainingDelay(since != 0 ? since : System.currentTimeMillis());
+                if (delay > 0) {
+                    LOGGER.trace("Build in progress, hotswap postponed by {}ms.", delay);
+                    scheduler.scheduleCommand(this, (int) delay, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
+                    return;
+                }
+                try {
+                    command.executeCommand();
+                } finally {
+                    synchronized (reloadMap) {
+                        // changes arrived during the hotswap wait for their own quiet period
+                        if (pendingSince == since) {
+                            pendingSince = 0;
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public String toString() {
+                return command.toString();
+            }
+        };
     }
 
     /**
@@ -150,6 +201,7 @@ public class HotswapperPlugin {
 
         HotswapperPlugin plugin = PluginManagerInvoker.callInitializePlugin(HotswapperPlugin.class, appClassLoader);
         if (plugin != null) {
+            plugin.buildQuietPeriod = BuildQuietPeriod.fromConfiguration(pluginConfiguration);
             plugin.initHotswapCommand(appClassLoader, port);
         } else {
             LOGGER.debug("Hotswapper is disabled in {}", appClassLoader);
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class name, super class and interfaces read from class file bytes.
+ * <p/>
+ * Only the constant pool is scanned (entry offsets are recorded, just the referenced UTF8 entries are decoded),
+ * fields, methods and attributes are not parsed at all. Use it instead of a javassist CtClass when only the class
+ * name is needed.
+ */
+public class ClassFileHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private final String className;
+    private final String superClassName;
+    private final List<String> interfaceNames;
+
+    private ClassFileHeader(String className, String superClassName, List<String> interfaceNames) {
+        this.className = className;
+        this.superClassName = superClassName;
+        this.interfaceNames = interfaceNames;
+    }
+
+    /**
+     * Read the header.
+     *
+     * @param bytes class file bytes
+     * @return the header
+     * @throws IOException not a class file or the file is truncated
+     */
+    public static ClassFileHeader read(byte[] bytes) throws IOException {
+        try {
+            return new Reader(bytes).read();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file.", e);
+        }
+    }
+
+    /**
+     * Find classes of a package referenced by the class - in class constants, field/method descriptors
+     * and signatures.
+     *
+     * @param bytes         class file bytes
+     * @param packagePrefix package prefix in internal form (e.g. "org/hotswap/agent/plugin/")
+     * @return referenced class names (java.lang.String form)
+     * @throws IOException not a class file or the file is truncated
+     */
+    public static Set<String> findReferencedClasses(byte[] bytes, String packagePrefix) throws IOException {
+        try {
+            return new Reader(bytes).findReferencedClasses(packagePrefix);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file.", e);
+        }
+    }
+
+    /**
+     * @return fully qualified class name (java.lang.String form)
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return fully qualified super class name or null (java.lang.Object, module-info)
+     */
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    /**
+     * @return fully qualified names of directly implemented interfaces
+     */
+    public List<String> getInterfaceNames() {
+        return interfaceNames;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassFileHeader{" +
+                "className='" + className + '\'' +
+                ", superClassName='" + superClassName + '\'' +
+                ", interfaceNames=" + interfaceNames +
+                '}';
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int[] offsets;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        ClassFileHeader read() throws IOException {
+            readConstantPool();
+
+            position += 2; // access flags
+            String className = readClassName(readUnsignedShort());
+            String superClassName = readClassName(readUnsignedShort());
+
+            int interfaceCount = readUnsignedShort();
+            String[] interfaceNames = new String[interfaceCount];
+            for (int i = 0; i < interfaceCount; i++) {
+                interfaceNames[i] = readClassName(readUnsignedShort());
+            }
+
+            return new ClassFileHeader(className, superClassName,
+                    Collections.unmodifiableList(Arrays.asList(interfaceNames)));
+        }
+
+        Set<String> findReferencedClasses(String packagePrefix) throws IOException {
+            readConstantPool();
+
+            Set<String> result = new LinkedHashSet<>();
+            for (int i = 1; i < offsets.length; i++) {
+                if (offsets[i] == 0 || bytes[offsets[i]] != 1) {
+                    continue;
+                }
+                String value = readUtf8(i);
+                for (int start = value.indexOf(packagePrefix); start >= 0; start = value.indexOf(packagePrefix, start + 1)) {
+                    int end = start + packagePrefix.length();
+                    while (end < value.length() && ";<>[()".indexOf(value.charAt(end)) < 0) {
+                        end++;
+                    }
+                    result.add(value.substring(start, end).replace('/', '.'));
+                }
+            }
+            return result;
+        }
+
+        private void readConstantPool() throws IOException {
+            if (readInt() != MAGIC) {
+                throw new IOException("Not a class file (bad magic number).");
+            }
+            position += 4; // minor, major version
+
+            int constantPoolCount = readUnsignedShort();
+            offsets = new int[constantPoolCount];
+            for (int i = 1; i < constantPoolCount; i++) {
+                offsets[i] = position;
+                int tag = bytes[position++];
+                switch (tag) {
+                    case 1: // Utf8
+                        position += 2 + readUnsignedShort(position);
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        position += 2;
+                        break;
+                    case 15: // MethodHandle
+                        position += 3;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        position += 4;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        position += 8;
+                        i++; // takes two entries
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag + " at entry " + i + ".");
+                }
+            }
+        }
+
+        // constant pool class entry -> java.lang.String form, 0 -> null
+        private String readClassName(int classIndex) throws IOException {
+            if (classIndex == 0) {
+                return null;
+            }
+            if (classIndex >= offsets.length || bytes[offsets[classIndex]] != 7) {
+                throw new IOException("Invalid class constant pool entry " + classIndex + ".");
+            }
+            int nameIndex = readUnsignedShort(offsets[classIndex] + 1);
+            if (nameIndex >= offsets.length || bytes[offsets[nameIndex]] != 1) {
+                throw new IOException("Invalid UTF8 constant pool entry " + nameIndex + ".");
+            }
+            return readUtf8(nameIndex).replace('/', '.');
+        }
+
+        // modified UTF-8 with length prefix, same format as DataInput.readUTF()
+        private String readUtf8(int index) throws IOException {
+            int offset = offsets[index] + 1;
+            int length = 2 + readUnsignedShort(offset);
+            return new DataInputStream(new ByteArrayInputStream(bytes, offset, length)).readUTF();
+        }
+
+        private int readUnsignedShort() {
+            int value = readUnsignedShort(position);
+            position += 2;
+            return value;
+        }
+
+        private int readUnsignedShort(int offset) {
+            return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+        }
+
+        private int readInt() {
+            int value = (readUnsignedShort(position) << 16) | readUnsignedShort(position + 2);
+            position += 4;
+            return value;
+        }
+    }
+}
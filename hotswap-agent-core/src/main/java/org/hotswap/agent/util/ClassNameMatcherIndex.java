@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable index of values registered by class name regexp.
+ * <p/>
+ * Registered regexps are sorted into exact class names (e.g. "org.example.Foo"), package/name prefixes
+ * (e.g. "org.example.*", ".*") and true regular expressions. Exact names and prefixes are stored in a character
+ * trie - lookup walks the class name once without allocation. Only the remaining regular expressions
+ * are evaluated with {@link Pattern}.
+ * <p/>
+ * Unescaped "." in exact names and prefixes matches package separator in both forms ("java.lang.String" and
+ * "java/lang/String") and nested class separator "$" ("org.example.Foo.Inner" matches "org/example/Foo$Inner"),
+ * same as the regexp matches these names passed to the class file transformer.
+ *
+ * @param <T> indexed value type
+ */
+public class ClassNameMatcherIndex<T> {
+
+    private static final ClassNameMatcherIndex<?> EMPTY = new ClassNameMatcherIndex<>(new LinkedHashMap<String, Object>());
+
+    private final Node<T> root;
+    private final List<Pattern> regexps = new ArrayList<>();
+    private final List<T> regexpValues = new ArrayList<>();
+
+    // registration order of values to keep deterministic order of results
+    private final Map<T, Integer> order = new IdentityHashMap<>();
+    private final Comparator<T> orderComparator = new Comparator<T>() {
+        @Override
+        public int compare(T o1, T o2) {
+            return order.get(o1) - order.get(o2);
+        }
+    };
+
+    /**
+     * Empty index.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ClassNameMatcherIndex<T> empty() {
+        return (ClassNameMatcherIndex<T>) EMPTY;
+    }
+
+    /**
+     * Build new index.
+     *
+     * @param valuesByRegexp map of class name regexp (optionally in ^regexp$ form) to value, in registration order
+     */
+    public ClassNameMatcherIndex(Map<String, T> valuesByRegexp) {
+        BuilderNode<T> builderRoot = new BuilderNode<>();
+
+        for (Map.Entry<String, T> entry : valuesByRegexp.entrySet()) {
+            String regexp = entry.getKey();
+            T value = entry.getValue();
+            order.put(value, order.size());
+
+            String body = stripAnchors(regexp);
+            String exact = toLiteral(body);
+            if (exact != null) {
+                builderRoot.insert(exact).exactValues.add(value);
+                continue;
+            }
+            if (body.endsWith(".*")) {
+                String prefix = toLiteral(body.substring(0, body.length() - 2));
+                if (prefix != null) {
+                    builderRoot.insert(prefix).prefixValues.add(value);
+                    continue;
+                }
+            }
+            regexps.add(Pattern.compile(regexp));
+            regexpValues.add(value);
+        }
+
+        root = builderRoot.build();
+    }
+
+    /**
+     * Add all values whose regexp matches the class name to the result list (in registration order).
+     *
+     * @param className          class name in internal (java/lang/String) or binary (java.lang.String) form, may be null
+     * @param alternateClassName other name of the same class (e.g. name of class being redefined), may be null
+     * @param result             list to add matching values to
+     */
+    public void collect(String className, String alternateClassName, List<T> result) {
+        int start = result.size();
+        String name = className != null ? className : alternateClassName;
+
+        if (name != null) {
+            addAll(root.prefixValues, result);
+            collect(root, name, 0, result);
+        }
+
+        for (int i = 0; i < regexps.size(); i++) {
+            Pattern pattern = regexps.get(i);
+            if ((className != null && pattern.matcher(className).matches()) ||
+                    (alternateClassName != null && pattern.matcher(alternateClassName).matches())) {
+                result.add(regexpValues.get(i));
+            }
+        }
+
+        if (result.size() - start > 1)
+            result.subList(start, result.size()).sort(orderComparator);
+    }
+
+    // walk the trie from the node, '$' follows both the literal '$' and the "." (any character) edge
+    private static <T> void collect(Node<T> node, String name, int from, List<T> result) {
+        for (int i = from; i < name.length(); i++) {
+            char c = name.charAt(i);
+            Node<T> next;
+            if (c == '$') {
+                Node<T> any = node.child('.');
+                if (any != null) {
+                    addAll(any.prefixValues, result);
+                    collect(any, name, i + 1, result);
+                }
+                next = node.child('$');
+            } else {
+                next = node.child(c == '/' ? '.' : c);
+            }
+            if (next == null)
+                return;
+            addAll(next.prefixValues, result);
+            node = next;
+        }
+        addAll(node.exactValues, result);
+    }
+
+    /**
+     * @return true if there is no value in the index
+     */
+    public boolean isEmpty() {
+        return order.isEmpty();
+    }
+
+    private static <T> void addAll(T[] values, List<T> result) {
+        for (T value : values)
+            result.add(value);
+    }
+
+    private static String stripAnchors(String regexp) {
+        String body = regexp;
+        if (body.startsWith("^"))
+            body = body.substring(1);
+        if (body.endsWith("$") && !body.endsWith("\\$"))
+            body = body.substring(0, body.length() - 1);
+        return body;
+    }
+
+    /**
+     * Convert regexp without special characters (except "." and escaped "$") to literal class name.
+     * <p/>
+     * Escaped "." matches only '.' unlike the trie "." edge, such regexp is not converted.
+     *
+     * @return the literal with '.' separator or null if the regexp is not literal
+     */
+    static String toLiteral(String regexp) {
+        StringBuilder literal = new StringBuilder(regexp.length());
+        for (int i = 0; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regexp.length())
+                    return null;
+                char escaped = regexp.charAt(++i);
+                if (escaped != '$')
+                    return null;
+                literal.append(escaped);
+            } else if (c == '/') {
+                literal.append('.');
+            } else if (Character.isJavaIdentifierPart(c) && c != '$' || c == '.' || c == '-') {
+                literal.append(c);
+            } else {
+                return null;
+            }
+        }
+        return literal.toString();
+    }
+
+    // immutable trie node, children sorted by character
+    private static class Node<T> {
+        char[] keys;
+        Node<T>[] children;
+        T[] prefixValues;
+        T[] exactValues;
+
+        Node<T> child(char c) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = keys[mid];
+                if (key < c)
+                    low = mid + 1;
+                else if (key > c)
+                    high = mid - 1;
+                else
+                    return children[mid];
+            }
+            return null;
+        }
+    }
+
+    private static class BuilderNode<T> {
+        final Map<Character, BuilderNode<T>> children = new TreeMap<>();
+        final List<T> prefixValues = new ArrayList<>();
+        final List<T> exactValues = new ArrayList<>();
+
+        BuilderNode<T> insert(String literal) {
+            BuilderNode<T> node = this;
+            for (int i = 0; i < literal.length(); i++) {
+                Character c = literal.charAt(i);
+                BuilderNode<T> child = node.children.get(c);
+                if (child == null) {
+                    child = new BuilderNode<>();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<T> build() {
+            Node<T> node = new Node<>();
+            node.keys = new char[children.size()];
+            node.children = (Node<T>[]) new Node<?>[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, BuilderNode<T>> entry : children.entrySet()) {
+                node.keys[i] = entry.getKey();
+                node.children[i++] = entry.getValue().build();
+            }
+            node.prefixValues = (T[]) prefixValues.toArray();
+            node.exactValues = (T[]) exactValues.toArray();
+            return node;
+        }
+    }
+}
@@ -23,9 +23,10 @@ import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,6 +39,8 @@ import org.hotswap.agent.annotation.handler.PluginClassFileTransformer;
 import org.hotswap.agent.command.Command;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
+import org.hotswap.agent.util.classloader.SharedClassPools;
 
 /**
  * Java instrumentation transformer.
@@ -65,16 +68,108 @@ public class HotswapTransformer implements ClassFileTransformer {
             "org.apache.felix.framework.BundleWiringImpl$BundleClassLoaderJava5" // delegating ClassLoader in_GlassFish
     ));
 
-    private static class RegisteredTransformersRecord {
-        Pattern pattern;
-        List<HaClassFileTransformer> transformerList = new LinkedList<>();
-    }
+    /**
+     * Immutable snapshot of registered transformers. Registration methods build new snapshot and publish it
+     * via volatile field, transform method reads a consistent snapshot without locking or copying.
+     */
+    private static class TransformerRegistry {
+        static final TransformerRegistry EMPTY = new TransformerRegistry(
+                new LinkedHashMap<String, List<HaClassFileTransformer>>(),
+                new LinkedHashMap<String, List<HaClassFileTransformer>>(),
+                new LinkedHashMap<ClassFileTransformer, ClassLoader>());
+
+        // normalized regexp -> transformers (unmodifiable)
+        final Map<String, List<HaClassFileTransformer>> redefinitionTransformers;
+        final Map<String, List<HaClassFileTransformer>> otherTransformers;
+
+        // class name lookup of the normalized regexps
+        final ClassNameMatcherIndex<String> redefinitionTransformersIndex;
+        final ClassNameMatcherIndex<String> otherTransformersIndex;
+
+        // keep track about which classloader requested which transformer
+        final Map<ClassFileTransformer, ClassLoader> classLoaderTransformers;
+
+        TransformerRegistry(Map<String, List<HaClassFileTransformer>> redefinitionTransformers,
+                            Map<String, List<HaClassFileTransformer>> otherTransformers,
+                            Map<ClassFileTransformer, ClassLoader> classLoaderTransformers) {
+            this(redefinitionTransformers, new ClassNameMatcherIndex<>(toKeyMap(redefinitionTransformers)),
+                    otherTransformers, new ClassNameMatcherIndex<>(toKeyMap(otherTransformers)), classLoaderTransformers);
+        }
+
+        private TransformerRegistry(Map<String, List<HaClassFileTransformer>> redefinitionTransformers,
+                                    ClassNameMatcherIndex<String> redefinitionTransformersIndex,
+                                    Map<String, List<HaClassFileTransformer>> otherTransformers,
+                                    ClassNameMatcherIndex<String> otherTransformersIndex,
+                                    Map<ClassFileTransformer, ClassLoader> classLoaderTransformers) {
+            this.redefinitionTransformers = Collections.unmodifiableMap(redefinitionTransformers);
+            this.redefinitionTransformersIndex = redefinitionTransformersIndex;
+            this.otherTransformers = Collections.unmodifiableMap(otherTransformers);
+            this.otherTransformersIndex = otherTransformersIndex;
+            this.classLoaderTransformers = Collections.unmodifiableMap(classLoaderTransformers);
+        }
+
+        TransformerRegistry withTransformer(ClassLoader classLoader, String normalizeRegexp, HaClassFileTransformer transformer) {
+            Map<String, List<HaClassFileTransformer>> redefinition = new LinkedHashMap<>(redefinitionTransformers);
+            Map<String, List<HaClassFileTransformer>> other = new LinkedHashMap<>(otherTransformers);
+            Map<String, List<HaClassFileTransformer>> transformersMap = transformer.isForRedefinitionOnly() ? redefinition : other;
+
+            boolean newRegexp = !transformersMap.containsKey(normalizeRegexp);
+            List<HaClassFileTransformer> transformerList = new ArrayList<>();
+            if (!newRegexp) {
+                transformerList.addAll(transformersMap.get(normalizeRegexp));
+            }
+            transformerList.add(transformer);
+            transformersMap.put(normalizeRegexp, Collections.unmodifiableList(transformerList));
+
+            Map<ClassFileTransformer, ClassLoader> classLoaders = new LinkedHashMap<>(classLoaderTransformers);
+            if (classLoader != null) {
+                classLoaders.put(transformer, classLoader);
+            }
+
+            if (!newRegexp) {
+                // same set of regexps - reuse the indexes
+                return new TransformerRegistry(redefinition, redefinitionTransformersIndex, other, otherTransformersIndex, classLoaders);
+            }
+            return new TransformerRegistry(redefinition, other, classLoaders);
+        }
 
-    protected Map<String, RegisteredTransformersRecord> redefinitionTransformers = new LinkedHashMap<>();
-    protected Map<String, RegisteredTransformersRecord> otherTransformers = new LinkedHashMap<>();
+        TransformerRegistry withoutTransformers(String normalizeRegexp, Collection<? extends ClassFileTransformer> transformers) {
+            Map<ClassFileTransformer, ClassLoader> classLoaders = new LinkedHashMap<>(classLoaderTransformers);
+            if (normalizeRegexp == null) {
+                classLoaders.keySet().removeAll(transformers);
+            }
+            return new TransformerRegistry(removeTransformers(redefinitionTransformers, normalizeRegexp, transformers),
+                    removeTransformers(otherTransformers, normalizeRegexp, transformers), classLoaders);
+        }
 
-    // keep track about which classloader requested which transformer
-    protected Map<ClassFileTransformer, ClassLoader> classLoaderTransformers = new LinkedHashMap<>();
+        // copy of the map without the transformers (for the regexp or for all regexps if null), empty entries are dropped
+        private static Map<String, List<HaClassFileTransformer>> removeTransformers(Map<String, List<HaClassFileTransformer>> transformersMap,
+                                                                                  String normalizeRegexp, Collection<? extends ClassFileTransformer> transformers) {
+            Map<String, List<HaClassFileTransformer>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, List<HaClassFileTransformer>> entry : transformersMap.entrySet()) {
+                List<HaClassFileTransformer> transformerList = entry.getValue();
+                if (normalizeRegexp == null || normalizeRegexp.equals(entry.getKey())) {
+                    transformerList = new ArrayList<>(transformerList);
+                    transformerList.removeAll(transformers);
+                    transformerList = Collections.unmodifiableList(transformerList);
+                }
+                if (!transformerList.isEmpty()) {
+                    result.put(entry.getKey(), transformerList);
+                }
+            }
+            return result;
+        }
+
+        private static Map<String, String> toKeyMap(Map<String, List<HaClassFileTransformer>> transformersMap) {
+            Map<String, String> keyMap = new LinkedHashMap<>();
+            for (String regexp : transformersMap.keySet()) {
+                keyMap.put(regexp, regexp);
+            }
+            return keyMap;
+        }
+    }
+
+    private volatile TransformerRegistry registry = TransformerRegistry.EMPTY;
 
     protected Map<ClassLoader, Object> seenClassLoaders = new WeakHashMap<>();
 
@@ -99,32 +194,13 @@ public class HotswapTransformer implements ClassFileTransformer {
      *                        (diffentence between java/lang/String and java.lang.String).
      * @param transformer     the transformer to be called for each class matching regexp.
      */
-    public void registerTransformer(ClassLoader classLoader, String classNameRegexp, HaClassFileTransformer transformer) {
+    public synchronized void registerTransformer(ClassLoader classLoader, String classNameRegexp, HaClassFileTransformer transformer) {
         LOGGER.debug("Registering transformer for class regexp '{}'.", classNameRegexp);
 
         String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
 
-        Map<String, RegisteredTransformersRecord> transformersMap = getTransformerMap(transformer);
-
-        RegisteredTransformersRecord transformerRecord = transformersMap.get(normalizeRegexp);
-        if (transformerRecord == null) {
-            transformerRecord = new RegisteredTransformersRecord();
-            transformerRecord.pattern = Pattern.compile(normalizeRegexp);
-            transformersMap.put(normalizeRegexp, transformerRecord);
-        }
-        transformerRecord.transformerList.add(transformer);
-
         // register classloader association to allow classloader unregistration
-        if (classLoader != null) {
-            classLoaderTransformers.put(transformer, classLoader);
-        }
-    }
-
-    private Map<String, RegisteredTransformersRecord> getTransformerMap(HaClassFileTransformer transformer) {
-        if (transformer.isForRedefinitionOnly()) {
-            return redefinitionTransformers;
-        }
-        return otherTransformers;
+        registry = registry.withTransformer(classLoader, normalizeRegexp, transformer);
     }
 
     /**
@@ -133,33 +209,25 @@ public class HotswapTransformer implements ClassFileTransformer {
      * @param classNameRegexp regexp to match fully qualified class name.
      * @param transformer     currently registered transformer
      */
-    public void removeTransformer(String classNameRegexp, HaClassFileTransformer transformer) {
+    public synchronized void removeTransformer(String classNameRegexp, HaClassFileTransformer transformer) {
         String normalizeRegexp = normalizeTypeRegexp(classNameRegexp);
-        Map<String, RegisteredTransformersRecord> transformersMap = getTransformerMap(transformer);
-        RegisteredTransformersRecord transformerRecord = transformersMap.get(normalizeRegexp);
-        if (transformerRecord != null) {
-            transformerRecord.transformerList.remove(transformer);
-        }
+        registry = registry.withoutTransformers(normalizeRegexp, Collections.singleton(transformer));
     }
 
     /**
      * Remove all transformers registered with a classloader
      * @param classLoader
      */
-    public void closeClassLoader(ClassLoader classLoader) {
-        for (Iterator<Map.Entry<ClassFileTransformer, ClassLoader>> entryIterator = classLoaderTransformers.entrySet().iterator();
-                entryIterator.hasNext(); ) {
-            Map.Entry<ClassFileTransformer, ClassLoader> entry = entryIterator.next();
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        List<ClassFileTransformer> transformers = new ArrayList<>();
+        for (Map.Entry<ClassFileTransformer, ClassLoader> entry : registry.classLoaderTransformers.entrySet()) {
             if (entry.getValue().equals(classLoader)) {
-                entryIterator.remove();
-                for (RegisteredTransformersRecord transformerRecord : redefinitionTransformers.values()) {
-                    transformerRecord.transformerList.remove(entry.getKey());
-                }
-                for (RegisteredTransformersRecord transformerRecord : otherTransformers.values()) {
-                    transformerRecord.transformerList.remove(entry.getKey());
-                }
+                transformers.add(entry.getKey());
             }
         }
+        if (!transformers.isEmpty()) {
+            registry = registry.withoutTransformers(null, transformers);
+        }
 
         LOGGER.debug("All transformers removed for classLoader {}", classLoader);
     }
@@ -186,40 +254,31 @@ public class HotswapTransformer implements ClassFileTransformer {
 
         LOGGER.trace("Transform on class '{}' @{} redefiningClass '{}'.", className, classLoader, redefiningClass);
 
+        // parsed class definition is no longer valid
+        if (redefiningClass != null) {
+            SharedClassPools.evictClass(classLoader, className);
+        }
+
         List<ClassFileTransformer> toApply = new ArrayList<>();
         List<PluginClassFileTransformer> pluginTransformers = new ArrayList<>();
         try {
+            TransformerRegistry currentRegistry = registry;
+
             // 1. call transform method of defining transformers
-            for (RegisteredTransformersRecord transformerRecord : new ArrayList<RegisteredTransformersRecord>(otherTransformers.values())) {
-                if ((className != null && transformerRecord.pattern.matcher(className).matches()) ||
-                        (redefiningClass != null && transformerRecord.pattern.matcher(redefiningClass.getName()).matches())) {
-                    for (ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformerRecord.transformerList)) {
-                        if(transformer instanceof PluginClassFileTransformer) {
-                            PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
-                            if(!pcft.isPluginDisabled(classLoader)) {
-                                pluginTransformers.add(pcft);
-                            }
-                        } else {
-                            toApply.add(transformer);
-                        }
-                    }
-                }
+            List<String> matchingRegexps = new ArrayList<>();
+            currentRegistry.otherTransformersIndex.collect(className, redefiningClass != null ? redefiningClass.getName() : null, matchingRegexps);
+            for (String regexp : matchingRegexps) {
+                ReloadMetrics.getInstance().recordTransformerInvocation(regexp);
+                addTransformers(classLoader, currentRegistry.otherTransformers.get(regexp), toApply, pluginTransformers);
             }
+
             // 2. call transform method of redefining ttansformars
             if (redefiningClass != null && className != null) {
-                for (RegisteredTransformersRecord transformerRecord : new ArrayList<RegisteredTransformersRecord>(redefinitionTransformers.values())) {
-                    if (transformerRecord.pattern.matcher(className).matches()) {
-                        for (ClassFileTransformer transformer : new ArrayList<ClassFileTransformer>(transformerRecord.transformerList)) {
-                            if(transformer instanceof PluginClassFileTransformer) {
-                                PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
-                                if(!pcft.isPluginDisabled(classLoader)) {
-                                    pluginTransformers.add(pcft);
-                                }
-                            } else {
-                                toApply.add(transformer);
-                            }
-                        }
-                    }
+                matchingRegexps.clear();
+                currentRegistry.redefinitionTransformersIndex.collect(className, null, matchingRegexps);
+                for (String regexp : matchingRegexps) {
+                    ReloadMetrics.getInstance().recordTransformerInvocation(regexp);
+                    addTransformers(classLoader, currentRegistry.redefinitionTransformers.get(regexp), toApply, pluginTransformers);
                 }
             }
         } catch (Throwable t) {
@@ -238,6 +297,7 @@ public class HotswapTransformer implements ClassFileTransformer {
             return bytes;
         }
 
+       long start = System.nanoTime();
        try {
            byte[] result = bytes;
 
@@ -253,10 +313,26 @@ public class HotswapTransformer implements ClassFileTransformer {
            return result;
        } catch (Throwable t) {
            LOGGER.error("Error transforming class '" + className + "'.", t);
+       } finally {
+           ReloadMetrics.getInstance().recordPhase(ReloadMetrics.TRANSFORM, System.nanoTime() - start);
        }
        return bytes;
     }
 
+    private void addTransformers(ClassLoader classLoader, List<HaClassFileTransformer> transformerList,
+                                 List<ClassFileTransformer> toApply, List<PluginClassFileTransformer> pluginTransformers) {
+        for (ClassFileTransformer transformer : transformerList) {
+            if(transformer instanceof PluginClassFileTransformer) {
+                PluginClassFileTransformer pcft = PluginClassFileTransformer.class.cast(transformer);
+                if(!pcft.isPluginDisabled(classLoader)) {
+                    pluginTransformers.add(pcft);
+                }
+            } else {
+                toApply.add(transformer);
+            }
+        }
+    }
+
     LinkedList<PluginClassFileTransformer> reduce(final ClassLoader classLoader, List<PluginClassFileTransformer> pluginCalls, String className) {
         LinkedList<PluginClassFileTransformer> reduced = new LinkedList<>();
 
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.classloader.WeakClassLoaderMap;
+
+/**
+ * Plugin method call site generated by {@link PluginManagerInvoker#buildCallPluginMethod(String, Class, String, String...)}.
+ * <p/>
+ * The call site is identified by its signature (plugin class, method name and parameter types). The plugin method
+ * is resolved once, and for each application classloader the method handle is bound to the resolved plugin
+ * instance, i.e. a repeated call does not resolve the plugin nor the method. Bound handles are dropped
+ * when plugin instances change ({@link #invalidate()}).
+ */
+public class PluginCallSite {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PluginCallSite.class);
+
+    private static final ConcurrentHashMap<String, PluginCallSite> callSites = new ConcurrentHashMap<>();
+
+    // incremented when plugin instances change, call sites with older bound handles rebind
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private final String signature;
+
+    private final String pluginClassName;
+
+    private final String methodName;
+
+    private final String[] paramTypeNames;
+
+    // unbound method handle (Object plugin, Object[] params)Object
+    private volatile MethodHandle methodHandle;
+
+    private volatile BoundHandles boundHandles = new BoundHandles(generation.get());
+
+    private static class BoundHandles {
+        final int generation;
+        // app classloader -> handle bound to the plugin instance, (Object[] params)Object
+        final Map<ClassLoader, MethodHandle> handles = new WeakClassLoaderMap<>();
+
+        BoundHandles(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private PluginCallSite(String signature) {
+        int methodStart = signature.indexOf('#');
+        int paramsStart = signature.indexOf('(', methodStart);
+        if (methodStart <= 0 || paramsStart < 0 || !signature.endsWith(")")) {
+            throw new IllegalArgumentException("Invalid plugin call site signature '" + signature + "'.");
+        }
+        this.signature = signature;
+        this.pluginClassName = signature.substring(0, methodStart);
+        this.methodName = signature.substring(methodStart + 1, paramsStart);
+        String params = signature.substring(paramsStart + 1, signature.length() - 1);
+        this.paramTypeNames = params.isEmpty() ? new String[0] : params.split(",");
+    }
+
+    /**
+     * Build call site signature.
+     *
+     * @param pluginClassName plugin class name
+     * @param methodName      plugin method name
+     * @param paramTypeNames  parameter type names
+     * @return signature in the form pluginClass#method(paramType1,paramType2)
+     */
+    public static String signature(String pluginClassName, String methodName, String... paramTypeNames) {
+        StringBuilder b = new StringBuilder(pluginClassName).append('#').append(methodName).append('(');
+        for (int i = 0; i < paramTypeNames.length; i++) {
+            if (i > 0) {
+                b.append(',');
+            }
+            b.append(paramTypeNames[i]);
+        }
+        return b.append(')').toString();
+    }
+
+    /**
+     * Get (or create) call site of the signature.
+     *
+     * @param signature signature from {@link #signature(String, String, String...)}
+     * @return the call site
+     */
+    public static PluginCallSite get(String signature) {
+        PluginCallSite callSite = callSites.get(signature);
+        if (callSite == null) {
+            PluginCallSite newCallSite = new PluginCallSite(signature);
+            callSite = callSites.putIfAbsent(signature, newCallSite);
+            if (callSite == null) {
+                callSite = newCallSite;
+            }
+        }
+        return callSite;
+    }
+
+    /**
+     * Drop handles bound to plugin instances, called when plugin instances are registered or removed.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Call the plugin method on plugin instance of the application classloader.
+     *
+     * @param appClassLoader application classloader (to resolve plugin instance)
+     * @param params         actual param values
+     * @return method return value
+     */
+    public Object invoke(ClassLoader appClassLoader, Object[] params) {
+        try {
+            return bind(appClassLoader).invokeExact(params);
+        } catch (Throwable e) {
+            throw new Error(String.format("Exception calling method %s on plugin class %s", methodName, pluginClassName), e);
+        }
+    }
+
+    private MethodHandle bind(ClassLoader appClassLoader) throws ReflectiveOperationException {
+        BoundHandles current = boundHandles;
+        int currentGeneration = generation.get();
+        if (current.generation != currentGeneration) {
+            current = new BoundHandles(currentGeneration);
+            boundHandles = current;
+        }
+        MethodHandle handle = current.handles.get(appClassLoader);
+        if (handle == null) {
+            Object pluginInstance = PluginManager.getInstance().getPlugin(pluginClassName, appClassLoader);
+            if (pluginInstance == null) {
+                throw new IllegalStateException("Plugin " + pluginClassName + " not initialized for classloader " + appClassLoader);
+            }
+            handle = getMethodHandle().bindTo(pluginInstance);
+            // a concurrent invalidation replaced the map, the handle is bound again on the next call
+            current.handles.put(appClassLoader, handle);
+            LOGGER.trace("Plugin call site {} bound for classloader {}", signature, appClassLoader);
+        }
+        return handle;
+    }
+
+    private MethodHandle getMethodHandle() throws ReflectiveOperationException {
+        MethodHandle ret = methodHandle;
+        if (ret == null) {
+            // same as generated code before - the plugin class and param types are resolved by the agent classloader
+            ClassLoader pluginClassLoader = PluginManager.class.getClassLoader();
+            Class<?>[] paramTypes = new Class<?>[paramTypeNames.length];
+            for (int i = 0; i < paramTypes.length; i++) {
+                paramTypes[i] = pluginClassLoader.loadClass(paramTypeNames[i]);
+            }
+            Method method = pluginClassLoader.loadClass(pluginClassName).getDeclaredMethod(methodName, paramTypes);
+            method.setAccessible(true);
+            ret = MethodHandles.lookup().unreflect(method)
+                    .asType(MethodType.genericMethodType(paramTypes.length + 1))
+                    .asSpreader(Object[].class, paramTypes.length);
+            methodHandle = ret;
+        }
+        return ret;
+    }
+}
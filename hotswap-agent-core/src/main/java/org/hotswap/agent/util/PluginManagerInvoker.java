@@ -20,8 +20,6 @@ package org.hotswap.agent.util;
 
 import org.hotswap.agent.config.PluginManager;
 
-import java.lang.reflect.Method;
-
 /**
  * Invoke methods on plugin manager, avoid classloader conflicts.
  * Each method has two variants - direct call or method source code builder.
@@ -75,6 +73,8 @@ public class PluginManagerInvoker {
     /**
      * Methods on plugin should be called via reflection, because the real plugin object is in parent classloader,
      * but plugin class may be defined in app classloader as well introducing ClassCastException on same class name.
+     * <p/>
+     * The method is resolved once per call site and bound to the plugin instance, see {@link PluginCallSite}.
      *
      * @param pluginClass    class name of the plugin - it is used to resolve plugin instance from plugin manager
      * @param appClassLoader application classloader (to resolve plugin instance)
@@ -84,14 +84,12 @@ public class PluginManagerInvoker {
      * @return method return value
      */
     public static Object callPluginMethod(Class pluginClass, ClassLoader appClassLoader, String method, Class[] paramTypes, Object[] params) {
-        Object pluginInstance = PluginManager.getInstance().getPlugin(pluginClass.getName(), appClassLoader);
-
-        try {
-            Method m = pluginInstance.getClass().getDeclaredMethod(method, paramTypes);
-            return m.invoke(pluginInstance, params);
-        } catch (Exception e) {
-            throw new Error(String.format("Exception calling method %s on plugin class %s", method, pluginClass), e);
+        String[] paramTypeNames = new String[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            paramTypeNames[i] = paramTypes[i].getName();
         }
+        return PluginCallSite.get(PluginCallSite.signature(pluginClass.getName(), method, paramTypeNames))
+                .invoke(appClassLoader, params);
     }
 
     /**
@@ -116,51 +114,29 @@ public class PluginManagerInvoker {
     public static String buildCallPluginMethod(String appClassLoaderVar, Class pluginClass,
                                                String method, String... paramValueAndType) {
 
-        String managerClass = PluginManager.class.getName();
         int paramCount = paramValueAndType.length / 2;
 
+        String[] paramTypes = new String[paramCount];
+        for (int i = 0; i < paramCount; i++) {
+            paramTypes[i] = paramValueAndType[(i * 2) + 1];
+        }
+        String signature = PluginCallSite.signature(pluginClass.getName(), method, paramTypes);
+
         StringBuilder b = new StringBuilder();
 
         // block to hide variables and catch checked exceptions
         b.append("try {");
 
-        b.append("ClassLoader __pluginClassLoader = ");
-        b.append(managerClass);
-        b.append(".class.getClassLoader();");
-
-        // Object __pluginInstance = org.hotswap.agent.config.PluginManager.getInstance().getPlugin(org.hotswap.agent.plugin.TestPlugin.class.getName(), __pluginClassLoader);
-        b.append("Object __pluginInstance = ");
-        b.append(managerClass);
-        b.append(".getInstance().getPlugin(");
-        b.append(pluginClass.getName());
-        b.append(".class.getName(), " + appClassLoaderVar + ");");
-
-        // Class __pluginClass = __pluginClassLoader.loadClass("org.hotswap.agent.plugin.TestPlugin");
-        b.append("Class __pluginClass = ");
-        b.append("__pluginClassLoader.loadClass(\"");
-        b.append(pluginClass.getName());
-        b.append("\");");
-
-        // param types
-        b.append("Class[] paramTypes = new Class[" + paramCount + "];");
-        for (int i = 0; i < paramCount; i++) {
-            // paramTypes[i] = = __pluginClassLoader.loadClass("my.test.TestClass").getClass();
-            b.append("paramTypes[" + i + "] = __pluginClassLoader.loadClass(\"" + paramValueAndType[(i * 2) + 1] + "\");");
-        }
-
-        //   java.lang.reflect.Method __pluginMethod = __pluginClass.getDeclaredMethod("method", paramType1, paramType2);
-        b.append("java.lang.reflect.Method __callPlugin = __pluginClass.getDeclaredMethod(\"");
-        b.append(method);
-        b.append("\", paramTypes");
-        b.append(");");
-
         b.append("Object[] params = new Object[" + paramCount + "];");
         for (int i = 0; i < paramCount; i = i + 1) {
             b.append("params[" + i + "] = " + paramValueAndType[i * 2] + ";");
         }
 
-        // __pluginMethod.invoke(__pluginInstance, param1, param2);
-        b.append("__callPlugin.invoke(__pluginInstance, params);");
+        // org.hotswap.agent.util.PluginCallSite.get("org.hotswap.agent.plugin.TestPlugin#method(java.lang.String)").invoke(appClassLoader, params);
+        b.append(PluginCallSite.class.getName());
+        b.append(".get(\"");
+        b.append(signature);
+        b.append("\").invoke(" + appClassLoaderVar + ", params);");
 
         // catch (Exception e) {throw new Error(e);}
         b.append("} catch (Exception e) {throw new Error(e);}");
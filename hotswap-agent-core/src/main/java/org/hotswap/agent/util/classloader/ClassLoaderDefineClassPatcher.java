@@ -18,27 +18,30 @@
  */
 package org.hotswap.agent.util.classloader;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.hotswap.agent.javassist.CannotCompileException;
-import org.hotswap.agent.javassist.ClassPool;
-import org.hotswap.agent.javassist.CtClass;
-import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.javassist.util.proxy.DefineClassHelper;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ClassFileHeader;
 import org.hotswap.agent.util.scanner.ClassPathScanner;
 import org.hotswap.agent.util.scanner.Scanner;
 import org.hotswap.agent.util.scanner.ScannerVisitor;
 
 /**
- * Classloader patch which will redefine each patch via Javassist in the target classloader.
+ * Classloader patch which will redefine each patch in the target classloader.
  * <p/>
  * Note that the class will typically be already accessible by parent classloader, but if it
  * is loaded from parent classloader, it does not have access to other child classloader classes.
@@ -48,6 +51,10 @@ import org.hotswap.agent.util.scanner.ScannerVisitor;
  * (e.g. to set some initialized property). Although the class resides in parent classloader it cannot
  * be redefined in child classloader with other definition - the classloader already knows about this class.
  * This is the reason, why plugin class cannot be executed in child classloader.
+ * <p/>
+ * Application classloaders are patched lazily - {@link #patchPackage} and {@link #patchReferencedClasses} define
+ * only classes of a plugin used in the classloader (with plugin classes they reference), each class at most once.
+ * Class bytes are read from the agent classloader only once and defined without parsing.
  *
  * @author Jiri Bubnik
  */
@@ -55,10 +62,13 @@ public class ClassLoaderDefineClassPatcher {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(ClassLoaderDefineClassPatcher.class);
 
-    private static Map<String, List<byte[]>> pluginClassCache = new HashMap<>();
+    private static Map<String, PluginClasses> pluginClassCache = new HashMap<>();
+
+    // classloader -> plugin classes and packages already defined in the classloader
+    private final Map<ClassLoader, PatchedClassLoader> patchedClassLoaders = new WeakHashMap<>();
 
     /**
-     * Patch the classloader.
+     * Patch the classloader with all classes of the path.
      *
      * @param classLoaderFrom  classloader to load classes from
      * @param path             path to copy
@@ -68,66 +78,157 @@ public class ClassLoaderDefineClassPatcher {
     public void patch(final ClassLoader classLoaderFrom, final String pluginPath,
                       final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
 
-        List<byte[]> cache = getPluginCache(classLoaderFrom, pluginPath);
+        PluginClasses cache = getPluginCache(classLoaderFrom, pluginPath);
+        PatchedClassLoader patched = getPatchedClassLoader(classLoaderTo);
 
-        if (cache != null) {
+        synchronized (patched) {
+            for (String className : cache.getClassNames()) {
+                defineClass(classLoaderFrom, cache, className, classLoaderTo, protectionDomain, patched);
+            }
+        }
 
-            final ClassPool cp = new ClassPool();
-            cp.appendClassPath(new LoaderClassPath(getClass().getClassLoader()));
+        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
+    }
 
-            for (byte[] pluginBytes: cache) {
-                CtClass pluginClass = null;
-                try {
-                    // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
-                    // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
-                    // class from parent classloader instead own definition (hence change of behaviour).
-                    InputStream is = new ByteArrayInputStream(pluginBytes);
-                    pluginClass = cp.makeClass(is);
-                    try {
-                        classLoaderFrom.loadClass(pluginClass.getName());
-                    } catch (NoClassDefFoundError e) {
-                        LOGGER.trace("Skipping class loading {} in classloader {} - " +
-                                "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                    }
-                    // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
-                    pluginClass.toClass(classLoaderTo, protectionDomain);
-                } catch (CannotCompileException e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class is probably already defined.", pluginClass.getName(), classLoaderTo);
-                } catch (NoClassDefFoundError e) {
-                    LOGGER.trace("Skipping class definition {} in app classloader {} - " +
-                            "class has probably unresolvable dependency.", pluginClass.getName(), classLoaderTo);
-                } catch (Throwable e) {
-                    LOGGER.trace("Skipping class definition app classloader {} - " +
-                            "unknown error.", e, classLoaderTo);
-                }
+    /**
+     * Patch the classloader with classes of a plugin package (including subpackages) and plugin classes
+     * they reference. Classes already defined in the classloader are skipped.
+     *
+     * @param classLoaderFrom  classloader to load classes from
+     * @param pluginPath       path of all plugin classes
+     * @param packageName      package to copy (e.g. org.hotswap.agent.plugin.spring)
+     * @param classLoaderTo    classloader to copy classes to
+     * @param protectionDomain required protection in target classloader
+     */
+    public void patchPackage(final ClassLoader classLoaderFrom, final String pluginPath, final String packageName,
+                             final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
+
+        PluginClasses cache = getPluginCache(classLoaderFrom, pluginPath);
+        PatchedClassLoader patched = getPatchedClassLoader(classLoaderTo);
+        int count = 0;
+        synchronized (patched) {
+            if (!patched.packages.add(packageName)) {
+                return;
+            }
+            for (String className : cache.getPackageClassNames(packageName)) {
+                count += defineClass(classLoaderFrom, cache, className, classLoaderTo, protectionDomain, patched);
             }
         }
 
-        LOGGER.debug("Classloader {} patched with plugin classes from agent classloader {}.", classLoaderTo, classLoaderFrom);
+        if (count > 0) {
+            LOGGER.debug("Classloader {} patched with {} classes of plugin package {}.", classLoaderTo, count, packageName);
+        }
+    }
 
+    /**
+     * Patch the classloader with plugin classes referenced by a class (e.g. class enhanced by a plugin
+     * transformer to call plugin code). Classes already defined in the classloader are skipped.
+     *
+     * @param classLoaderFrom  classloader to load classes from
+     * @param pluginPath       path of all plugin classes
+     * @param bytecode         bytecode of the referencing class
+     * @param classLoaderTo    classloader to copy classes to
+     * @param protectionDomain required protection in target classloader
+     */
+    public void patchReferencedClasses(final ClassLoader classLoaderFrom, final String pluginPath, final byte[] bytecode,
+                                       final ClassLoader classLoaderTo, final ProtectionDomain protectionDomain) {
+
+        Set<String> references;
+        try {
+            references = ClassFileHeader.findReferencedClasses(bytecode, pluginPath + "/");
+        } catch (IOException e) {
+            LOGGER.trace("Unable to read plugin class references.", e);
+            return;
+        }
+        if (references.isEmpty()) {
+            return;
+        }
+
+        PluginClasses cache = getPluginCache(classLoaderFrom, pluginPath);
+        PatchedClassLoader patched = getPatchedClassLoader(classLoaderTo);
+        int count = 0;
+        synchronized (patched) {
+            for (String className : references) {
+                count += defineClass(classLoaderFrom, cache, className, classLoaderTo, protectionDomain, patched);
+            }
+        }
+
+        if (count > 0) {
+            LOGGER.debug("Classloader {} patched with {} referenced plugin classes.", classLoaderTo, count);
+        }
     }
 
-    private List<byte[]> getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
-        List<byte[]> ret = null;
+    /**
+     * Define the class in target classloader - supertypes first (otherwise they would be resolved
+     * from the parent classloader), then the class and finally plugin classes it references.
+     *
+     * @return number of classes defined
+     */
+    private int defineClass(ClassLoader classLoaderFrom, PluginClasses cache, String className,
+                            ClassLoader classLoaderTo, ProtectionDomain protectionDomain, PatchedClassLoader patched) {
+        byte[] pluginBytes = cache.getBytes(className);
+        if (pluginBytes == null || !patched.classes.add(className)) {
+            return 0;
+        }
+
+        int count = 0;
+        for (String supertype : cache.getSupertypes(className)) {
+            count += defineClass(classLoaderFrom, cache, supertype, classLoaderTo, protectionDomain, patched);
+        }
+
+        try {
+            // force to load class in classLoaderFrom (it may not yet be loaded) and if the classLoaderTo
+            // is parent of classLoaderFrom, after definition in classLoaderTo will classLoaderFrom return
+            // class from parent classloader instead own definition (hence change of behaviour).
+            try {
+                classLoaderFrom.loadClass(className);
+            } catch (NoClassDefFoundError e) {
+                LOGGER.trace("Skipping class loading {} in classloader {} - " +
+                        "class has probably unresolvable dependency.", className, classLoaderTo);
+            }
+            // and load the class in classLoaderTo as well. NOw the class is defined in BOTH classloaders.
+            DefineClassHelper.toClass(className, null, classLoaderTo, protectionDomain, pluginBytes);
+            count++;
+        } catch (CannotCompileException e) {
+            LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                    "class is probably already defined.", className, classLoaderTo);
+        } catch (NoClassDefFoundError e) {
+            LOGGER.trace("Skipping class definition {} in app classloader {} - " +
+                    "class has probably unresolvable dependency.", className, classLoaderTo);
+        } catch (Throwable e) {
+            LOGGER.trace("Skipping class definition app classloader {} - " +
+                    "unknown error.", e, classLoaderTo);
+        }
+
+        for (String reference : cache.getReferences(className)) {
+            count += defineClass(classLoaderFrom, cache, reference, classLoaderTo, protectionDomain, patched);
+        }
+        return count;
+    }
+
+    private PatchedClassLoader getPatchedClassLoader(ClassLoader classLoader) {
+        synchronized (patchedClassLoaders) {
+            PatchedClassLoader ret = patchedClassLoaders.get(classLoader);
+            if (ret == null) {
+                ret = new PatchedClassLoader();
+                patchedClassLoaders.put(classLoader, ret);
+            }
+            return ret;
+        }
+    }
+
+    private PluginClasses getPluginCache(final ClassLoader classLoaderFrom, final String pluginPath) {
+        PluginClasses ret = null;
         synchronized(pluginClassCache) {
             ret = pluginClassCache.get(pluginPath);
             if (ret == null) {
-                final List<byte[]> retList = new ArrayList<>();
+                final PluginClasses classes = new PluginClasses(pluginPath);
                 Scanner scanner = new ClassPathScanner();
                 try {
                     scanner.scan(classLoaderFrom, pluginPath, new ScannerVisitor() {
                         @Override
                         public void visit(InputStream file) throws IOException {
 
-                            // skip plugin classes
-                            // TODO this should be skipped only in patching application classloader. To copy
-                             // classes into agent classloader, Plugin class must be copied as well
-    //                        if (patchClass.hasAnnotation(Plugin.class)) {
-    //                            LOGGER.trace("Skipping plugin class: " + patchClass.getName());
-    //                            return;
-    //                        }
-
                             ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
                             int readBytes;
@@ -138,14 +239,14 @@ public class ClassLoaderDefineClassPatcher {
                             }
 
                             buffer.flush();
-                            retList.add(buffer.toByteArray());
+                            classes.add(buffer.toByteArray());
                         }
 
                     });
                 } catch (IOException e) {
-                    LOGGER.error("Exception while scanning 'org/hotswap/agent/plugin'", e);
+                    LOGGER.error("Exception while scanning '{}'", e, pluginPath);
                 }
-                ret = retList;
+                ret = classes;
                 pluginClassCache.put(pluginPath, ret);
             }
         }
@@ -169,4 +270,85 @@ public class ClassLoaderDefineClassPatcher {
                 !classLoader.getClass().getName().equals("jdk.internal.reflect.DelegatingClassLoader")
                 ;
     }
+
+    /**
+     * Bytes of plugin classes of a path, supertypes and references are resolved on first use.
+     */
+    private static class PluginClasses {
+        private final String pluginPath;
+
+        // class name -> bytes in scan order
+        private final Map<String, byte[]> bytes = new LinkedHashMap<>();
+        private final Map<String, List<String>> supertypes = new HashMap<>();
+        private final Map<String, Set<String>> references = new HashMap<>();
+        private final Map<String, List<String>> packageClassNames = new HashMap<>();
+
+        PluginClasses(String pluginPath) {
+            this.pluginPath = pluginPath;
+        }
+
+        void add(byte[] classBytes) throws IOException {
+            bytes.put(ClassFileHeader.read(classBytes).getClassName(), classBytes);
+        }
+
+        Set<String> getClassNames() {
+            return bytes.keySet();
+        }
+
+        byte[] getBytes(String className) {
+            return bytes.get(className);
+        }
+
+        synchronized List<String> getPackageClassNames(String packageName) {
+            List<String> ret = packageClassNames.get(packageName);
+            if (ret == null) {
+                ret = new ArrayList<>();
+                String prefix = packageName + ".";
+                for (String className : bytes.keySet()) {
+                    if (className.startsWith(prefix)) {
+                        ret.add(className);
+                    }
+                }
+                packageClassNames.put(packageName, ret);
+            }
+            return ret;
+        }
+
+        synchronized List<String> getSupertypes(String className) {
+            List<String> ret = supertypes.get(className);
+            if (ret == null) {
+                ret = new ArrayList<>();
+                try {
+                    ClassFileHeader header = ClassFileHeader.read(bytes.get(className));
+                    if (header.getSuperClassName() != null) {
+                        ret.add(header.getSuperClassName());
+                    }
+                    ret.addAll(header.getInterfaceNames());
+                } catch (IOException e) {
+                    LOGGER.trace("Unable to read class header {}.", e, className);
+                }
+                supertypes.put(className, ret);
+            }
+            return ret;
+        }
+
+        synchronized Set<String> getReferences(String className) {
+            Set<String> ret = references.get(className);
+            if (ret == null) {
+                try {
+                    ret = ClassFileHeader.findReferencedClasses(bytes.get(className), pluginPath + "/");
+                } catch (IOException e) {
+                    LOGGER.trace("Unable to read class references {}.", e, className);
+                    ret = Collections.emptySet();
+                }
+                references.put(className, ret);
+            }
+            return ret;
+        }
+    }
+
+    private static class PatchedClassLoader {
+        final Set<String> classes = new HashSet<>();
+        final Set<String> packages = new HashSet<>();
+    }
 }
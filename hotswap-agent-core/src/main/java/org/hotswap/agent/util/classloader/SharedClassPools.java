@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.hotswap.agent.javassist.ClassPath;
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.LoaderClassPath;
+import org.hotswap.agent.javassist.NotFoundException;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Javassist class pools backed by class file cache shared per application classloader.
+ * <p/>
+ * Creating new ClassPool for each transformation means that every referenced class is looked up in the classloader
+ * and read again. Instead, bounded (LRU) cache of class file bytes is kept per classloader and each transformation
+ * works in its own scoped pool reading class files from the cache. CtClass is not thread safe, hence parsed classes
+ * are never shared - each scoped pool parses its own CtClass from the cached bytes and classes created, renamed or
+ * modified in the scoped pool stay in the scoped pool.
+ * <p/>
+ * Cached class file is evicted on class redefinition or class file watch event ({@link #evictClass(ClassLoader, String)}),
+ * the whole cache when the classloader is closed ({@link #closeClassLoader(ClassLoader)}) or garbage collected.
+ * <p/>
+ * The cache resolves classes only by the classloader. A transformation needing the system path
+ * (context classloader) appends it to its scoped pool, it is searched after the classloader.
+ */
+public class SharedClassPools {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(SharedClassPools.class);
+
+    /**
+     * Maximum number of class files cached per classloader.
+     */
+    public static final int MAX_CACHED_CLASSES = 2000;
+
+    private static final Map<ClassLoader, ClassFileCache> classFileCaches =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, ClassFileCache>());
+
+    /**
+     * Create new scoped pool for a transformation. Class files are read from the shared cache of the classloader,
+     * parsed classes and new classes (makeClass, getAndRename) are kept in the scoped pool only.
+     *
+     * @param classLoader application classloader
+     * @return new scoped pool
+     */
+    public static ClassPool createScopedPool(ClassLoader classLoader) {
+        ClassPool classPool = new ClassPool(null);
+        classPool.appendClassPath(getClassFileCache(classLoader));
+        return classPool;
+    }
+
+    /**
+     * Evict cached class file of the classloader, usually because the class was redefined or the class file changed.
+     *
+     * @param classLoader application classloader
+     * @param className   class name (java.lang.String or java/lang/String form)
+     */
+    public static void evictClass(ClassLoader classLoader, String className) {
+        ClassFileCache cache = classFileCaches.get(classLoader);
+        if (cache != null && className != null) {
+            cache.evict(className.replace('/', '.'));
+        }
+    }
+
+    /**
+     * Remove shared cache of the classloader.
+     *
+     * @param classLoader application classloader
+     */
+    public static void closeClassLoader(ClassLoader classLoader) {
+        if (classFileCaches.remove(classLoader) != null) {
+            LOGGER.debug("Shared class file cache removed for classLoader {}", classLoader);
+        }
+    }
+
+    private static ClassFileCache getClassFileCache(ClassLoader classLoader) {
+        synchronized (classFileCaches) {
+            ClassFileCache cache = classFileCaches.get(classLoader);
+            if (cache == null) {
+                cache = new ClassFileCache(new LoaderClassPath(classLoader));
+                classFileCaches.put(classLoader, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Class path with LRU cache of class file bytes read from the classloader. The bytes are never modified,
+     * hence may be shared by pools of concurrent transformations.
+     */
+    private static class ClassFileCache implements ClassPath {
+        private final ClassPath classPath;
+
+        private final Map<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > MAX_CACHED_CLASSES;
+            }
+        };
+
+        ClassFileCache(ClassPath classPath) {
+            this.classPath = classPath;
+        }
+
+        @Override
+        public InputStream openClassfile(String classname) throws NotFoundException {
+            byte[] bytes;
+            synchronized (cache) {
+                bytes = cache.get(classname);
+            }
+            if (bytes == null) {
+                // read outside of the lock, concurrent reads of the same class are harmless
+                bytes = read(classname);
+                if (bytes == null) {
+                    return null;
+                }
+                synchronized (cache) {
+                    cache.put(classname, bytes);
+                }
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        private byte[] read(String classname) throws NotFoundException {
+            InputStream is = classPath.openClassfile(classname);
+            if (is == null) {
+                return null;
+            }
+            try (InputStream stream = is) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                int bytesRead;
+                while ((bytesRead = stream.read(chunk)) > 0) {
+                    outputStream.write(chunk, 0, bytesRead);
+                }
+                return outputStream.toByteArray();
+            } catch (IOException e) {
+                throw new NotFoundException(classname, e);
+            }
+        }
+
+        @Override
+        public URL find(String classname) {
+            return classPath.find(classname);
+        }
+
+        void evict(String className) {
+            synchronized (cache) {
+                cache.remove(className);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Special URL classloader to get only changed resources from URL.
@@ -45,9 +46,9 @@ public class WatchResourcesClassLoader extends URLClassLoader {
 
     /**
      * URLs of changed resources. Use this set to check if the resource was changed and hence should
-     * be returned by this classloader.
+     * be returned by this classloader. Concurrent - updated by listeners of several watched roots.
      */
-    Set<URL> changedUrls = new HashSet<>();
+    Set<URL> changedUrls = Collections.newSetFromMap(new ConcurrentHashMap<URL, Boolean>());
 
     /**
      * Watch for requested resource in parent classloader in case it is not found by this classloader?
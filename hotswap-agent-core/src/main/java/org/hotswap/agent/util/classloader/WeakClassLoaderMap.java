@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent map with weak classloader keys.
+ * <p/>
+ * Keys are compared by identity, null key is supported (bootstrap classloader). Reads are lock free
+ * (backed by {@link ConcurrentHashMap}), entries of garbage collected classloaders are purged on modification.
+ * <p/>
+ * Note that a value referencing its classloader (directly or through an object of a class from the classloader)
+ * keeps the entry alive - same as with {@link java.util.WeakHashMap}.
+ *
+ * @param <V> value type
+ */
+public class WeakClassLoaderMap<V> extends AbstractMap<ClassLoader, V> implements ConcurrentMap<ClassLoader, V> {
+
+    // key of the bootstrap (null) classloader
+    private static final Object NULL_KEY = new Object();
+
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+
+    private Set<Map.Entry<ClassLoader, V>> entrySet;
+
+    @Override
+    public V get(Object key) {
+        return key instanceof ClassLoader || key == null ? map.get(lookupKey(key)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (key instanceof ClassLoader || key == null) && map.containsKey(lookupKey(key));
+    }
+
+    @Override
+    public V put(ClassLoader key, V value) {
+        expunge();
+        return map.put(newKey(key), value);
+    }
+
+    @Override
+    public V putIfAbsent(ClassLoader key, V value) {
+        expunge();
+        V ret = map.get(lookupKey(key));
+        return ret != null ? ret : map.putIfAbsent(newKey(key), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        expunge();
+        return key instanceof ClassLoader || key == null ? map.remove(lookupKey(key)) : null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        expunge();
+        return (key instanceof ClassLoader || key == null) && map.remove(lookupKey(key), value);
+    }
+
+    @Override
+    public boolean replace(ClassLoader key, V oldValue, V newValue) {
+        expunge();
+        return map.replace(lookupKey(key), oldValue, newValue);
+    }
+
+    @Override
+    public V replace(ClassLoader key, V value) {
+        expunge();
+        return map.replace(lookupKey(key), value);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        expunge();
+    }
+
+    @Override
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        expunge();
+        return map.isEmpty();
+    }
+
+    @Override
+    public Set<Map.Entry<ClassLoader, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    /**
+     * Remove entries of garbage collected classloaders.
+     */
+    public void expunge() {
+        Object key;
+        while ((key = queue.poll()) != null) {
+            map.remove(key);
+        }
+    }
+
+    private Object newKey(ClassLoader classLoader) {
+        return classLoader == null ? NULL_KEY : new LoaderKey(classLoader, queue);
+    }
+
+    // lookup without registering a weak reference
+    private static Object lookupKey(Object classLoader) {
+        return classLoader == null ? NULL_KEY : new LookupKey((ClassLoader) classLoader);
+    }
+
+    private static ClassLoader toClassLoader(Object key) {
+        return key == NULL_KEY ? null : ((LoaderKey) key).get();
+    }
+
+    private static class LoaderKey extends WeakReference<ClassLoader> {
+        private final int hash;
+
+        LoaderKey(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+            hash = System.identityHashCode(classLoader);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            ClassLoader classLoader = get();
+            if (classLoader == null) {
+                return false;
+            }
+            if (o instanceof LookupKey) {
+                return classLoader == ((LookupKey) o).classLoader;
+            }
+            return o instanceof LoaderKey && classLoader == ((LoaderKey) o).get();
+        }
+    }
+
+    private static class LookupKey {
+        private final ClassLoader classLoader;
+
+        LookupKey(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(classLoader);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LoaderKey ? o.equals(this)
+                    : o instanceof LookupKey && classLoader == ((LookupKey) o).classLoader;
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<ClassLoader, V>> {
+        @Override
+        public Iterator<Map.Entry<ClassLoader, V>> iterator() {
+            final Iterator<Map.Entry<Object, V>> it = map.entrySet().iterator();
+            return new Iterator<Map.Entry<ClassLoader, V>>() {
+                private Map.Entry<ClassLoader, V> next;
+                private Object nextKey;
+                private Object lastKey;
+
+                @Override
+                public boolean hasNext() {
+                    // skip entries of collected classloaders
+                    while (next == null && it.hasNext()) {
+                        Map.Entry<Object, V> entry = it.next();
+                        ClassLoader classLoader = toClassLoader(entry.getKey());
+                        if (classLoader != null || entry.getKey() == NULL_KEY) {
+                            next = new SimpleImmutableEntry<>(classLoader, entry.getValue());
+                            nextKey = entry.getKey();
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<ClassLoader, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<ClassLoader, V> ret = next;
+                    lastKey = nextKey;
+                    next = null;
+                    return ret;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastKey == null) {
+                        throw new IllegalStateException();
+                    }
+                    map.remove(lastKey);
+                    lastKey = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return WeakClassLoaderMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            WeakClassLoaderMap.this.clear();
+        }
+    }
+}
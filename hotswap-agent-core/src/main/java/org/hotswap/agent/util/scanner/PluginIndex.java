@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Index of plugin classes generated at build time.
+ * <p/>
+ * The index is generated into the build output directory of each module by {@link PluginIndexProcessor}
+ * (annotation processor registered by the core jar, hence run by any compiler with the core on its classpath)
+ * and stored in the jar as {@link #INDEX_RESOURCE}. One plugin class name per line, '#' starts a comment
+ * (plugin name) - index files of all plugin modules are concatenated when merged into the agent jar.
+ * <p/>
+ * At runtime the index of a jar replaces scanning and parsing all class files of the plugin package in the jar.
+ * Other locations of the package - class directories (the index may be stale after an incremental build)
+ * and jars without indexed plugins of the package (e.g. third party plugins, external pluginPackages) - are scanned.
+ */
+public class PluginIndex {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PluginIndex.class);
+
+    /** Index resource name. */
+    public static final String INDEX_RESOURCE = "META-INF/hotswap-agent/plugins.index";
+
+    /**
+     * Plugin classes of a package from all indexes visible to the classloader.
+     *
+     * @param classLoader   classloader to resolve index resources
+     * @param pluginPackage package of plugins (e.g. org.hotswap.agent.plugin), subpackages are included
+     * @return plugin class names or empty list if no plugin of the package is indexed
+     * @throws IOException unable to read an index
+     */
+    public static List<String> getPlugins(ClassLoader classLoader, String pluginPackage) throws IOException {
+        String prefix = pluginPackage.endsWith(".") ? pluginPackage : pluginPackage + ".";
+        Set<String> result = new LinkedHashSet<>();
+
+        Enumeration<URL> indexes = classLoader.getResources(INDEX_RESOURCE);
+        while (indexes.hasMoreElements()) {
+            URL index = indexes.nextElement();
+            for (String className : read(index)) {
+                if (className.startsWith(prefix)) {
+                    result.add(className);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Plugin classes of a package from the index of a classpath root.
+     *
+     * @param root          classpath root URL (e.g. jar:file:/agent.jar!/)
+     * @param pluginPackage package of plugins, subpackages are included
+     * @return plugin class names or null if the root does not contain index with a plugin of the package
+     */
+    public static List<String> getPlugins(URL root, String pluginPackage) {
+        String prefix = pluginPackage.endsWith(".") ? pluginPackage : pluginPackage + ".";
+        List<String> result = new ArrayList<>();
+        try {
+            for (String className : read(new URL(root, INDEX_RESOURCE))) {
+                if (className.startsWith(prefix)) {
+                    result.add(className);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.trace("No plugin index in {}", root);
+            return null;
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    private static List<String> read(URL index) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        try (InputStream is = index.openStream();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String className = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (!className.isEmpty()) {
+                    classNames.add(className);
+                }
+            }
+        }
+        LOGGER.trace("Plugin index {} read, {} plugins.", index, classNames.size());
+        return classNames;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor generating {@link PluginIndex} of @Plugin classes into the compiler class output.
+ * <p/>
+ * The processor is registered in META-INF/services of the core jar, hence it is run by Maven and IDE compilers
+ * of any module with the core on its classpath. Incremental compilation processes only changed sources - plugins
+ * of an existing index are kept if the class still exists and is annotated.
+ */
+@SupportedAnnotationTypes(PluginIndexProcessor.PLUGIN_ANNOTATION)
+public class PluginIndexProcessor extends AbstractProcessor {
+
+    static final String PLUGIN_ANNOTATION = "org.hotswap.agent.annotation.Plugin";
+
+    // plugin class name -> plugin name, sorted by class name
+    private final Map<String, String> plugins = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!plugins.isEmpty()) {
+                writeIndex();
+            }
+            return false;
+        }
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement) {
+                    TypeElement type = (TypeElement) element;
+                    plugins.put(processingEnv.getElementUtils().getBinaryName(type).toString(), getPluginName(type));
+                }
+            }
+        }
+        return false;
+    }
+
+    private AnnotationMirror getPluginAnnotation(TypeElement type) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(PLUGIN_ANNOTATION)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private String getPluginName(TypeElement type) {
+        AnnotationMirror plugin = getPluginAnnotation(type);
+        if (plugin != null) {
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : plugin.getElementValues().entrySet()) {
+                if (value.getKey().getSimpleName().contentEquals("name")) {
+                    return String.valueOf(value.getValue().getValue());
+                }
+            }
+        }
+        return "";
+    }
+
+    // plugins of the previous index (incremental compilation) still existing
+    private void readIndex() {
+        try {
+            FileObject index = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", PluginIndex.INDEX_RESOURCE);
+            try (InputStream is = index.openInputStream();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    String className = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                    if (!className.isEmpty() && !plugins.containsKey(className)) {
+                        TypeElement type = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.'));
+                        if (type != null && getPluginAnnotation(type) != null) {
+                            plugins.put(className, getPluginName(type));
+                        }
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no previous index
+        }
+    }
+
+    private void writeIndex() {
+        readIndex();
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PluginIndex.INDEX_RESOURCE);
+            try (Writer writer = index.openWriter()) {
+                for (Map.Entry<String, String> plugin : plugins.entrySet()) {
+                    writer.write(plugin.getKey() + " # " + plugin.getValue() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write plugin index: " + e);
+        }
+    }
+}
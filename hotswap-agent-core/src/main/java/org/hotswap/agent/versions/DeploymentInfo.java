@@ -22,10 +22,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.jar.Manifest;
 
 import org.hotswap.agent.logging.AgentLogger;
@@ -45,6 +48,10 @@ public class DeploymentInfo {
     /** The logger. */
     private static AgentLogger LOGGER = AgentLogger.getLogger(DeploymentInfo.class);
     
+    /** Deployment info resolved per classloader (the resource scan is expensive). */
+    private static final Map<ClassLoader, DeploymentInfo> classLoaderDeploymentInfos =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, DeploymentInfo>());
+
     /** The set of maven coordinates this deployment depends on. */
     private Set<MavenInfo> maven = new LinkedHashSet<>();
 
@@ -159,6 +166,38 @@ public class DeploymentInfo {
         this.manifest = manifest;
     }
 
+    /**
+     * Get the deployment info for this classloader. The info is kept until the classloader is garbage collected
+     * or {@link #evictClassLoader(ClassLoader)} is called - on classloader close or when the agent changes its
+     * classpath (e.g. extraClasspath).
+     *
+     * @param classloader
+     *            the ClassLoader
+     * @return the deployment info
+     */
+    public static DeploymentInfo cachedFromClassLoader(ClassLoader classloader) {
+        if (classloader == null) {
+            return fromClassLoader(null);
+        }
+        DeploymentInfo info = classLoaderDeploymentInfos.get(classloader);
+        if (info == null) {
+            // scan outside of the lock, concurrent scans of the same classloader are harmless
+            info = fromClassLoader(classloader);
+            classLoaderDeploymentInfos.put(classloader, info);
+        }
+        return info;
+    }
+
+    /**
+     * Remove cached deployment info of the classloader (e.g. on application undeploy or classpath change).
+     *
+     * @param classloader
+     *            the ClassLoader
+     */
+    public static void evictClassLoader(ClassLoader classloader) {
+        classLoaderDeploymentInfos.remove(classloader);
+    }
+
     /**
      * Load the deployment info for this classloader.
      *
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Barrier waiting for a build to settle.
+ * <p/>
+ * IDE or build tool writes class files over several seconds. The owner (e.g. hotswapper of a classloader) records
+ * class file events it receives as build activity ({@link #recordActivity()}). The build is considered finished
+ * if there was no activity after the first change, or after a quiet period without activity, and when no build
+ * marker file (e.g. a lock file created by the build) exists.
+ * <p/>
+ * Configuration (hotswap-agent.properties):
+ * <ul>
+ * <li>autoHotswap.quietPeriod - quiet period in ms, default 100</li>
+ * <li>autoHotswap.buildMarkerFiles - comma separated marker files, the build is in progress while any exists</li>
+ * </ul>
+ */
+public class BuildQuietPeriod {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(BuildQuietPeriod.class);
+
+    public static final String QUIET_PERIOD_PROPERTY = "autoHotswap.quietPeriod";
+    public static final String BUILD_MARKER_FILES_PROPERTY = "autoHotswap.buildMarkerFiles";
+
+    /** Default quiet period (ms) after the last class file event. */
+    public static final long DEFAULT_QUIET_PERIOD = 100;
+
+    /** Maximum time (ms) to wait for a build to settle, the changes are released anyway after the time. */
+    public static final long MAX_WAIT = 30000;
+
+    // last class file event recorded by the owner
+    private final AtomicLong lastActivity = new AtomicLong();
+
+    private final long quietPeriod;
+
+    private final List<Path> markerFiles;
+
+    /**
+     * @param quietPeriod quiet period (ms) after the last activity
+     * @param markerFiles the build is in progress while any of these files exists
+     */
+    public BuildQuietPeriod(long quietPeriod, List<Path> markerFiles) {
+        this.quietPeriod = quietPeriod;
+        this.markerFiles = markerFiles;
+    }
+
+    /**
+     * Create barrier from plugin configuration.
+     */
+    public static BuildQuietPeriod fromConfiguration(PluginConfiguration pluginConfiguration) {
+        long quietPeriod = DEFAULT_QUIET_PERIOD;
+        String value = pluginConfiguration.getProperty(QUIET_PERIOD_PROPERTY);
+        if (value != null && !value.trim().isEmpty()) {
+            try {
+                quietPeriod = Math.max(0, Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid {} value '{}', using default {}.", QUIET_PERIOD_PROPERTY, value, DEFAULT_QUIET_PERIOD);
+            }
+        }
+
+        List<Path> markerFiles = new ArrayList<>();
+        for (String markerFile : pluginConfiguration.getProperty(BUILD_MARKER_FILES_PROPERTY, "").split(",")) {
+            if (!markerFile.trim().isEmpty()) {
+                markerFiles.add(Paths.get(markerFile.trim()).toAbsolutePath());
+            }
+        }
+        return new BuildQuietPeriod(quietPeriod, Collections.unmodifiableList(markerFiles));
+    }
+
+    /**
+     * Record build activity (class file change).
+     */
+    public void recordActivity() {
+        lastActivity.set(System.currentTimeMillis());
+    }
+
+    /**
+     * @return quiet period (ms) after the last activity
+     */
+    public long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * Check whether the build settled.
+     *
+     * @param since time of the first change waiting for the build (recorded after its activity)
+     * @return 0 if the build settled (or waits too long), otherwise time (ms) to check again
+     */
+    public long getRemainingDelay(long since) {
+        long now = System.currentTimeMillis();
+        if (now - since >= MAX_WAIT) {
+            LOGGER.warning("Build did not settle within {}ms, releasing changes.", MAX_WAIT);
+            return 0;
+        }
+        for (Path markerFile : markerFiles) {
+            if (Files.exists(markerFile)) {
+                LOGGER.trace("Build marker file {} exists, waiting.", markerFile);
+                return Math.max(quietPeriod, 1);
+            }
+        }
+        long last = lastActivity.get();
+        if (last <= since) {
+            // no activity after the first change
+            return 0;
+        }
+        long remaining = last + quietPeriod - now;
+        return remaining > 0 ? remaining : 0;
+    }
+}
@@ -18,6 +18,13 @@
  */
 package org.hotswap.agent.watch;
 
+import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.nio.AbstractNIO2Watcher;
+import org.hotswap.agent.watch.nio.DirectoryScanner;
+import org.hotswap.agent.watch.nio.EventDispatcher;
+import org.hotswap.agent.watch.nio.LinuxWatcherNIO;
+import org.hotswap.agent.watch.nio.PollingWatcher;
 import org.hotswap.agent.watch.nio.TreeWatcherNIO;
 import org.hotswap.agent.watch.nio.WatcherNIO2;
 
@@ -25,10 +32,23 @@ import java.io.IOException;
 
 /**
  * Resolve watcher from java version (Java NIO2 implementation is preferred if available.)
+ * <p/>
+ * Agent configuration may select polling watcher instead (watcher=polling, interval set by watcher.pollingInterval)
+ * or Linux watcher registering directories in background (watcher=linux). Listeners are called by a single
+ * thread unless watcher.dispatchThreads is set.
  *
  * @author Jiri Bubnik
  */
 public class WatcherFactory {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(WatcherFactory.class);
+
+    public static final String WATCHER_PROPERTY = "watcher";
+    public static final String POLLING_INTERVAL_PROPERTY = "watcher.pollingInterval";
+    public static final String DISPATCH_THREADS_PROPERTY = "watcher.dispatchThreads";
+
+    public static final String DEFAULT_WATCHER = "default";
+    public static final String POLLING_WATCHER = "polling";
+    public static final String LINUX_WATCHER = "linux";
 
     public static double JAVA_VERSION = getVersion();
 
@@ -55,6 +75,75 @@ public class WatcherFactory {
         return System.getProperty("os.name").startsWith("Windows");
     }
 
+    public static boolean IS_LINUX = isLinux();
+
+    static boolean isLinux() {
+        return System.getProperty("os.name").startsWith("Linux");
+    }
+
+    public Watcher getWatcher(PluginConfiguration configuration) throws IOException {
+        Watcher watcher = createWatcher(configuration);
+        int dispatchThreads = getDispatchThreads(configuration);
+        if (dispatchThreads > 1) {
+            if (watcher instanceof AbstractNIO2Watcher) {
+                ((AbstractNIO2Watcher) watcher).setDispatchThreads(dispatchThreads);
+            } else if (watcher instanceof PollingWatcher) {
+                ((PollingWatcher) watcher).setDispatchThreads(dispatchThreads);
+            }
+        }
+        return watcher;
+    }
+
+    private Watcher createWatcher(PluginConfiguration configuration) throws IOException {
+        String type = configuration == null ? null : configuration.getProperty(WATCHER_PROPERTY);
+
+        if (type == null || type.trim().isEmpty() || DEFAULT_WATCHER.equalsIgnoreCase(type.trim())) {
+            return getWatcher();
+        } else if (POLLING_WATCHER.equalsIgnoreCase(type.trim())) {
+            return new PollingWatcher(getPollingInterval(configuration), DirectoryScanner.DEFAULT_PARALLELISM);
+        } else if (LINUX_WATCHER.equalsIgnoreCase(type.trim())) {
+            if (!IS_LINUX) {
+                LOGGER.warning("Linux watcher is not available on {}, using default watcher.", System.getProperty("os.name"));
+                return getWatcher();
+            }
+            return new LinuxWatcherNIO();
+        } else {
+            LOGGER.warning("Unknown watcher '{}', using default watcher.", type);
+            return getWatcher();
+        }
+    }
+
+    private long getPollingInterval(PluginConfiguration configuration) {
+        String interval = configuration.getProperty(POLLING_INTERVAL_PROPERTY);
+        if (interval != null && !interval.trim().isEmpty()) {
+            try {
+                long value = Long.parseLong(interval.trim());
+                if (value > 0)
+                    return value;
+            } catch (NumberFormatException e) {
+                // fall through to warning
+            }
+            LOGGER.warning("Invalid {} value '{}', using default {}.", POLLING_INTERVAL_PROPERTY, interval,
+                    DirectoryScanner.DEFAULT_INTERVAL);
+        }
+        return DirectoryScanner.DEFAULT_INTERVAL;
+    }
+
+    private int getDispatchThreads(PluginConfiguration configuration) {
+        String threads = configuration == null ? null : configuration.getProperty(DISPATCH_THREADS_PROPERTY);
+        if (threads != null && !threads.trim().isEmpty()) {
+            try {
+                int value = Integer.parseInt(threads.trim());
+                if (value > 0)
+                    return value;
+            } catch (NumberFormatException e) {
+                // fall through to warning
+            }
+            LOGGER.warning("Invalid {} value '{}', using single dispatching thread.", DISPATCH_THREADS_PROPERTY, threads);
+        }
+        return EventDispatcher.DEFAULT_PARTITIONS;
+    }
+
     public Watcher getWatcher() throws IOException {
         if (JAVA_VERSION >= 1.7) {
             if (IS_WINDOWS) {
@@ -85,6 +85,15 @@ public abstract class AbstractNIO2Watcher implements Watcher {
         dispatcher = new EventDispatcher(listeners);
     }
 
+    /**
+     * Set number of threads calling the listeners. Must be called before run.
+     *
+     * @param threads number of dispatching threads
+     */
+    public void setDispatchThreads(int threads) {
+        dispatcher.setPartitionCount(threads);
+    }
+
     @SuppressWarnings("unchecked")
     static <T> WatchEvent<T> cast(WatchEvent<?> event) {
         return (WatchEvent<T>) event;
@@ -128,6 +137,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
         if (classLoader != null) {
             classLoaderListeners.put(listener, classLoader);
         }
+        dispatcher.listenersChanged();
     }
 
     @Override
@@ -149,7 +159,7 @@ public abstract class AbstractNIO2Watcher implements Watcher {
      * @param classLoader
      */
     @Override
-    public void closeClassLoader(ClassLoader classLoader) {
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
         for (Iterator<Entry<WatchEventListener, ClassLoader>> entryIterator = classLoaderListeners.entrySet().iterator(); entryIterator.hasNext();) {
             Entry<WatchEventListener, ClassLoader> entry = entryIterator.next();
             if (entry.getValue().equals(classLoader)) {
@@ -171,11 +181,13 @@ public abstract class AbstractNIO2Watcher implements Watcher {
                 } catch (Exception e) {
                     LOGGER.error("Ooops", e);
                 }
+                dispatcher.listenersChanged();
             }
         }
         // cleanup...
         if (classLoaderListeners.isEmpty()) {
             listeners.clear();
+            dispatcher.listenersChanged();
             for (WatchKey wk : keys.keySet()) {
                 try {
                     wk.cancel();
@@ -208,6 +220,24 @@ public abstract class AbstractNIO2Watcher implements Watcher {
 
     protected abstract void registerAll(final Path dir) throws IOException;
 
+    /**
+     * Register directory created while watching (with its sub-directories).
+     */
+    protected void registerCreated(Path dir) throws IOException {
+        registerAll(dir);
+    }
+
+    /**
+     * Dispatch event of a watched directory to listeners.
+     *
+     * @param event the event
+     * @param dir   watched directory
+     * @param child path of the changed entry in the directory
+     */
+    protected void dispatch(WatchEvent<Path> event, Path dir, Path child) {
+        dispatcher.add(event, child);
+    }
+
     /**
      * Process all events for keys queued to the watcher
      *
@@ -244,14 +274,14 @@ public abstract class AbstractNIO2Watcher implements Watcher {
 
             LOGGER.debug("Watch event '{}' on '{}' --> {}", event.kind().name(), child, name);
 
-            dispatcher.add(ev, child);
+            dispatch(ev, dir, child);
 
             // if directory is created, and watching recursively, then
             // register it and its sub-directories
             if (kind == ENTRY_CREATE) {
                 try {
                     if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                        registerAll(child);
+                        registerCreated(child);
                     }
                 } catch (IOException x) {
                     LOGGER.warning("Unable to register events for directory {}", x, child);
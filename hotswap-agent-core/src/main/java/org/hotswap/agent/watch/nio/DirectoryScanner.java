@@ -0,0 +1,479 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
+
+/**
+ * Polling scanner of directory trees.
+ * <p/>
+ * Keeps an index of directories under the roots - for each directory its last modification time, names of
+ * sub-directories and name, last modification time and size of each file. Each scan compares the trees with
+ * the index and reports differences as CREATE/MODIFY/DELETE events to the event dispatcher (the same events
+ * as produced by the NIO watch service).
+ * <p/>
+ * The scan is incremental - only directories with changed modification time (an entry was created, deleted
+ * or renamed) are listed again, files of other directories are just checked for changed modification time
+ * and size. Files of recently changed directories are checked on each scan, files of other directories
+ * on every {@link #COLD_CHECK_SCANS}-th scan (directories are spread over the scans). Sub-trees are scanned in parallel.
+ */
+public class DirectoryScanner implements Runnable {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(DirectoryScanner.class);
+
+    /** Default interval (ms) between two scans. */
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    /** Default number of threads scanning the trees. */
+    public static final int DEFAULT_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // directory modified within this time (ms) before listing may change again with the same modification time
+    // (coarse file system timestamp resolution), such directory is listed on next scan again
+    private static final long TIMESTAMP_RESOLUTION = 2000;
+
+    /** Directory with a change within this time (ms) has its files checked on each scan. */
+    public static final long HOT_PERIOD = 60000;
+
+    /** Files of a directory without recent change are checked on every n-th scan. */
+    public static final int COLD_CHECK_SCANS = 4;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final long[] NO_VALUES = new long[0];
+
+    private final EventDispatcher dispatcher;
+
+    private final long interval;
+
+    private final int parallelism;
+
+    private final Set<Path> roots = new LinkedHashSet<>();
+
+    // directory -> state from last scan
+    private final Map<Path, DirectoryState> index = new ConcurrentHashMap<>();
+
+    private ForkJoinPool pool;
+
+    private Thread runner;
+
+    private volatile boolean running;
+
+    // directory with a change within this time (ms) is hot
+    long hotPeriod = HOT_PERIOD;
+
+    // number of reporting scans
+    private volatile int scans;
+
+    /**
+     * @param dispatcher dispatcher to report the changes to
+     * @param interval   interval (ms) between two scans
+     */
+    public DirectoryScanner(EventDispatcher dispatcher, long interval) {
+        this(dispatcher, interval, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param dispatcher  dispatcher to report the changes to
+     * @param interval    interval (ms) between two scans
+     * @param parallelism number of threads scanning the trees
+     */
+    public DirectoryScanner(EventDispatcher dispatcher, long interval, int parallelism) {
+        this.dispatcher = dispatcher;
+        this.interval = interval;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Add directory tree to scan. Existing files are indexed, changes are reported from the next scan.
+     *
+     * @param root the root directory
+     */
+    public synchronized void addRoot(Path root) {
+        if (covers(root)) {
+            return;
+        }
+        // new root replaces its sub-roots
+        for (Iterator<Path> it = roots.iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(root)) {
+                it.remove();
+            }
+        }
+        roots.add(root);
+        getPool().invoke(new ScanTask(root, false));
+        LOGGER.debug("Scanning directory {} for changes.", root);
+    }
+
+    /**
+     * @return true if the path is inside a scanned tree
+     */
+    public synchronized boolean covers(Path path) {
+        for (Path root : roots) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there is no root to scan
+     */
+    public synchronized boolean isEmpty() {
+        return roots.isEmpty();
+    }
+
+    /**
+     * Remove all roots.
+     */
+    public synchronized void clear() {
+        roots.clear();
+        index.clear();
+    }
+
+    /**
+     * @return number of indexed directories
+     */
+    public int getDirectoryCount() {
+        return index.size();
+    }
+
+    /**
+     * Scan all roots and report changes since the previous scan.
+     */
+    public synchronized void scan() {
+        if (roots.isEmpty()) {
+            return;
+        }
+        final List<ScanTask> tasks = new ArrayList<>(roots.size());
+        for (Path root : roots) {
+            tasks.add(new ScanTask(root, true));
+        }
+        scans++;
+        long start = System.nanoTime();
+        getPool().invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        ReloadMetrics.getInstance().recordPhase(ReloadMetrics.WATCHER_SCAN, System.nanoTime() - start);
+    }
+
+    private ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("HotSwap Scanner-" + thread.getPoolIndex());
+                    return thread;
+                }
+            }, null, false);
+        }
+        return pool;
+    }
+
+    private void dispatch(WatchEvent.Kind<Path> kind, Path path) {
+        LOGGER.trace("Scanned change '{}' on '{}'", kind.name(), path);
+        dispatcher.add(new ScannedWatchEvent(kind, path.getFileName()), path);
+    }
+
+    // report deletion of indexed directory content, the content first
+    private void deleteTree(Path dir, boolean report) {
+        DirectoryState state = index.remove(dir);
+        if (state == null) {
+            return;
+        }
+        for (String name : state.directoryNames) {
+            deleteTree(dir.resolve(name), report);
+            if (report) {
+                dispatch(ENTRY_DELETE, dir.resolve(name));
+            }
+        }
+        if (report) {
+            for (String name : state.fileNames) {
+                dispatch(ENTRY_DELETE, dir.resolve(name));
+            }
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Scan a directory, then its sub-directories in parallel.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final boolean report;
+
+        ScanTask(Path dir, boolean report) {
+            this.dir = dir;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            DirectoryState previous = index.get(dir);
+            DirectoryState state;
+            try {
+                BasicFileAttributes attrs = readAttributes(dir);
+                if (!attrs.isDirectory()) {
+                    throw new IOException("Not a directory.");
+                }
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                if (previous == null || previous.directoryModified != lastModified || previous.unstable) {
+                    state = list(lastModified, previous);
+                } else if (report && !isFileCheckDue(previous)) {
+                    state = previous;
+                } else {
+                    state = check(previous);
+                    if (state == null) {
+                        state = list(lastModified, previous);
+                    }
+                }
+            } catch (IOException e) {
+                // directory deleted (parent reports it) or the root is not accessible
+                LOGGER.trace("Unable to scan directory {}", e, dir);
+                deleteTree(dir, report);
+                return;
+            }
+            index.put(dir, state);
+
+            if (state.directoryNames.length > 0) {
+                List<ScanTask> tasks = new ArrayList<>(state.directoryNames.length);
+                for (String name : state.directoryNames) {
+                    tasks.add(new ScanTask(dir.resolve(name), report));
+                }
+                invokeAll(tasks);
+            }
+        }
+
+        // files of a recently changed directory on each scan, of other directories on their turn
+        private boolean isFileCheckDue(DirectoryState previous) {
+            if (System.currentTimeMillis() - previous.changed < hotPeriod) {
+                return true;
+            }
+            return (dir.hashCode() & Integer.MAX_VALUE) % COLD_CHECK_SCANS == scans % COLD_CHECK_SCANS;
+        }
+
+        // list the directory and compare it with previous state
+        private DirectoryState list(long lastModified, DirectoryState previous) throws IOException {
+            long listed = System.currentTimeMillis();
+            List<String> directoryNames = new ArrayList<>();
+            Map<String, BasicFileAttributes> files = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    try {
+                        BasicFileAttributes attrs = readAttributes(child);
+                        if (attrs.isDirectory()) {
+                            directoryNames.add(child.getFileName().toString());
+                        } else {
+                            files.put(child.getFileName().toString(), attrs);
+                        }
+                    } catch (IOException e) {
+                        // deleted in the meantime
+                        LOGGER.trace("Unable to read attributes of {}", e, child);
+                    }
+                }
+            }
+
+            String[] fileNames = new String[files.size()];
+            long[] fileModified = new long[files.size()];
+            long[] fileSizes = new long[files.size()];
+            int i = 0;
+            for (Map.Entry<String, BasicFileAttributes> entry : files.entrySet()) {
+                fileNames[i] = entry.getKey();
+                fileModified[i] = entry.getValue().lastModifiedTime().toMillis();
+                fileSizes[i] = entry.getValue().size();
+                i++;
+            }
+            String[] names = directoryNames.toArray(new String[directoryNames.size()]);
+            Arrays.sort(names);
+            DirectoryState state = new DirectoryState(lastModified, listed - lastModified < TIMESTAMP_RESOLUTION,
+                    listed, names, fileNames, fileModified, fileSizes);
+
+            if (previous == null) {
+                previous = DirectoryState.EMPTY;
+            }
+            for (String name : previous.directoryNames) {
+                if (Arrays.binarySearch(state.directoryNames, name) < 0) {
+                    Path child = dir.resolve(name);
+                    deleteTree(child, report);
+                    if (report) {
+                        dispatch(ENTRY_DELETE, child);
+                    }
+                }
+            }
+            if (report) {
+                for (int j = 0; j < previous.fileNames.length; j++) {
+                    if (Arrays.binarySearch(state.fileNames, previous.fileNames[j]) < 0) {
+                        dispatch(ENTRY_DELETE, dir.resolve(previous.fileNames[j]));
+                    }
+                }
+                for (String name : state.directoryNames) {
+                    if (Arrays.binarySearch(previous.directoryNames, name) < 0) {
+                        dispatch(ENTRY_CREATE, dir.resolve(name));
+                    }
+                }
+                for (int j = 0; j < state.fileNames.length; j++) {
+                    int k = Arrays.binarySearch(previous.fileNames, state.fileNames[j]);
+                    if (k < 0) {
+                        dispatch(ENTRY_CREATE, dir.resolve(state.fileNames[j]));
+                    } else if (previous.fileModified[k] != state.fileModified[j] || previous.fileSizes[k] != state.fileSizes[j]) {
+                        dispatch(ENTRY_MODIFY, dir.resolve(state.fileNames[j]));
+                    }
+                }
+            }
+            return state;
+        }
+
+        // directory content not changed, check the files only (null if a file is missing, list the directory then)
+        private DirectoryState check(DirectoryState previous) {
+            DirectoryState state = previous;
+            for (int i = 0; i < previous.fileNames.length; i++) {
+                Path file = dir.resolve(previous.fileNames[i]);
+                BasicFileAttributes attrs;
+                try {
+                    attrs = readAttributes(file);
+                } catch (IOException e) {
+                    return null;
+                }
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                if (lastModified != previous.fileModified[i] || attrs.size() != previous.fileSizes[i]) {
+                    if (state == previous) {
+                        state = previous.copy(System.currentTimeMillis());
+                    }
+                    state.fileModified[i] = lastModified;
+                    state.fileSizes[i] = attrs.size();
+                    if (report) {
+                        dispatch(ENTRY_MODIFY, file);
+                    }
+                }
+            }
+            return state;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                scan();
+            } catch (Exception e) {
+                LOGGER.error("Error scanning directories for changes.", e);
+            }
+        }
+    }
+
+    /**
+     * Start periodic scanning in a daemon thread.
+     */
+    public synchronized void start() {
+        if (runner != null) {
+            return;
+        }
+        running = true;
+        runner = new Thread(this);
+        runner.setDaemon(true);
+        runner.setName("HotSwap Scanner");
+        runner.start();
+    }
+
+    /**
+     * Stop periodic scanning.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (runner != null) {
+            runner.interrupt();
+            runner = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Indexed state of a directory. Names are sorted, file arrays are indexed by position in fileNames.
+     */
+    private static class DirectoryState {
+        static final DirectoryState EMPTY = new DirectoryState(0, false, 0, NO_NAMES, NO_NAMES, NO_VALUES, NO_VALUES);
+
+        final long directoryModified;
+        // modified just before listing, list again on next scan
+        final boolean unstable;
+        // last time (ms) a change was detected in the directory
+        final long changed;
+        final String[] directoryNames;
+        final String[] fileNames;
+        final long[] fileModified;
+        final long[] fileSizes;
+
+        DirectoryState(long directoryModified, boolean unstable, long changed, String[] directoryNames, String[] fileNames,
+                       long[] fileModified, long[] fileSizes) {
+            this.directoryModified = directoryModified;
+            this.unstable = unstable;
+            this.changed = changed;
+            this.directoryNames = directoryNames;
+            this.fileNames = fileNames;
+            this.fileModified = fileModified;
+            this.fileSizes = fileSizes;
+        }
+
+        DirectoryState copy(long changed) {
+            return new DirectoryState(directoryModified, unstable, changed, directoryNames, fileNames,
+                    fileModified.clone(), fileSizes.clone());
+        }
+    }
+}
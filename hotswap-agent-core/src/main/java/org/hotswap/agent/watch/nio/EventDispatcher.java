@@ -20,12 +20,18 @@ package org.hotswap.agent.watch.nio;
 
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.metrics.ReloadMetrics;
 import org.hotswap.agent.watch.WatchEventListener;
 import org.hotswap.agent.watch.WatchFileEvent;
 
@@ -34,16 +40,33 @@ import org.hotswap.agent.watch.WatchFileEvent;
  * not yet processed. It runs on its own thread and is responsible for calling
  * all the registered listeners.
  *
- * Since file system events can spawn too fast, this implementation works as
- * buffer for fast spawning events. The watcher is now responsible for
- * collecting and pushing events in this queue.
- *
+ * Since file system events can spawn too fast (e.g. full rebuild of a module), this implementation works as
+ * buffer for fast spawning events:
+ * <ul>
+ * <li>events wait in the queue for a short coalesce window, repeated event of the same kind on the same
+ * path is merged with the pending one</li>
+ * <li>the queue is bounded - if it is full, the watcher thread waits for the dispatcher instead
+ * of dropping events</li>
+ * <li>listeners are called by a single dispatching thread by default. Several partition threads may be
+ * configured, events under the same registered root path always go to the same partition, hence listeners
+ * of a root are called by one thread in the order of events (listener registered on several roots must be
+ * thread safe)</li>
+ * </ul>
  */
 public class EventDispatcher implements Runnable {
 
     /** The logger. */
     protected AgentLogger LOGGER = AgentLogger.getLogger(this.getClass());
 
+    /** Default time (ms) an event waits for repeated events on the same path. */
+    public static final long DEFAULT_COALESCE_WINDOW = 50;
+
+    /** Default maximum number of events waiting in the dispatcher. */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** Default number of dispatching threads. */
+    public static final int DEFAULT_PARTITIONS = 1;
+
     /**
      * The Class Event.
      */
@@ -55,6 +78,9 @@ public class EventDispatcher implements Runnable {
         /** The path. */
         final Path path;
 
+        /** Time the event was received. */
+        final long time;
+
         /**
          * Instantiates a new event.
          *
@@ -62,23 +88,53 @@ public class EventDispatcher implements Runnable {
          *            the event
          * @param path
          *            the path
+         * @param time
+         *            the time received
          */
-        public Event(WatchEvent<Path> event, Path path) {
+        public Event(WatchEvent<Path> event, Path path, long time) {
             super();
             this.event = event;
             this.path = path;
+            this.time = time;
         }
     }
 
     /** The map of listeners.  This is managed by the watcher service*/
     private final Map<Path, List<WatchEventListener>> listeners;
 
-    /** The working queue. The event queue is drained and all pending events are added in this list */
-    private final ArrayList<Event> working = new ArrayList<>();
+    private final long coalesceWindow;
+
+    private final int capacity;
+
+    private Partition[] partitions;
+
+    /** Guards pending, lastPending and inFlight. */
+    private final Object lock = new Object();
+
+    /** The pending events in order of arrival. */
+    private final ArrayDeque<Event> pending = new ArrayDeque<>();
+
+    /** The last pending event per path - candidate for coalescing. */
+    private final Map<Path, Event> lastPending = new HashMap<>();
+
+    /** Events handed to partitions, but not dispatched yet. */
+    private int inFlight;
+
+    /** Listeners by path, rebuilt when listeners version changes. */
+    private volatile PathListenerIndex listenerIndex;
+
+    private final AtomicInteger listenersVersion = new AtomicInteger();
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong dispatchedCount = new AtomicLong();
 
     /** The runnable. */
     private Thread runnable = null;
 
+    private volatile boolean running;
+
     /**
      * Instantiates a new event dispatcher.
      *
@@ -86,12 +142,45 @@ public class EventDispatcher implements Runnable {
      *            the listeners
      */
     public EventDispatcher(Map<Path, List<WatchEventListener>> listeners) {
+        this(listeners, DEFAULT_COALESCE_WINDOW, DEFAULT_CAPACITY, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Instantiates a new event dispatcher.
+     *
+     * @param listeners
+     *            the listeners
+     * @param coalesceWindow
+     *            time (ms) an event waits for repeated events on the same path
+     * @param capacity
+     *            maximum number of events waiting in the dispatcher
+     * @param partitionCount
+     *            number of dispatching threads
+     */
+    public EventDispatcher(Map<Path, List<WatchEventListener>> listeners, long coalesceWindow, int capacity, int partitionCount) {
         super();
         this.listeners = listeners;
+        this.coalesceWindow = coalesceWindow;
+        this.capacity = capacity;
+        setPartitionCount(partitionCount);
     }
 
-    /** The event queue. */
-    private final ArrayBlockingQueue<Event> eventQueue = new ArrayBlockingQueue<>(500);
+    /**
+     * Set number of dispatching threads. Must be called before start.
+     *
+     * @param partitionCount
+     *            number of dispatching threads
+     */
+    public void setPartitionCount(int partitionCount) {
+        if (running) {
+            throw new IllegalStateException("Dispatcher already started.");
+        }
+        Partition[] newPartitions = new Partition[Math.max(1, partitionCount)];
+        for (int i = 0; i < newPartitions.length; i++) {
+            newPartitions[i] = new Partition();
+        }
+        this.partitions = newPartitions;
+    }
 
     /*
      * (non-Javadoc)
@@ -100,49 +189,57 @@ public class EventDispatcher implements Runnable {
      */
     @Override
     public void run() {
-
-        /*
-         * The algorithm is naive:
-         * a) work with not processed (in case);
-         * b) drain the queue
-         * c) work on newly collected
-         * d) empty working queue
-         */
-        while (true) {
-            // finish any pending ones
-            for (Event e : working) {
-                callListeners(e.event, e.path);
-                if (Thread.interrupted()) {
+        List<Event> due = new ArrayList<>();
+        while (running) {
+            synchronized (lock) {
+                try {
+                    long waitTime;
+                    while (running && (waitTime = waitTime()) != 0) {
+                        lock.wait(waitTime < 0 ? 0 : waitTime);
+                    }
+                } catch (InterruptedException e) {
                     return;
                 }
-                Thread.yield();
-            }
-            // drain the event queue
-            eventQueue.drainTo(working);
 
-            // work on new events.
-            for (Event e : working) {
-                callListeners(e.event, e.path);
-                if (Thread.interrupted()) {
-                    return;
+                // all events with elapsed coalesce window
+                long now = System.currentTimeMillis();
+                while (!pending.isEmpty() && pending.peek().time + coalesceWindow <= now) {
+                    Event e = pending.poll();
+                    if (lastPending.get(e.path) == e) {
+                        lastPending.remove(e.path);
+                    }
+                    due.add(e);
                 }
-                Thread.yield();
+                inFlight += due.size();
             }
 
-            // crear the working queue.
-            working.clear();
-
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e1) {
-                // TODO Auto-generated catch block
-                return;
+            for (Event e : due) {
+                partitionFor(e.path).queue.add(e);
             }
+            due.clear();
         }
     }
 
+    // 0 if the first pending event is due, -1 to wait for new event, time to wait otherwise
+    private long waitTime() {
+        if (pending.isEmpty()) {
+            return -1;
+        }
+        return Math.max(0, pending.peek().time + coalesceWindow - System.currentTimeMillis());
+    }
+
+    // events under the same registered root go to the same partition
+    private Partition partitionFor(Path path) {
+        if (partitions.length == 1) {
+            return partitions[0];
+        }
+        Path root = getListenerIndex().getRootPath(path);
+        int hash = root != null ? root.hashCode() : 0;
+        return partitions[(hash & Integer.MAX_VALUE) % partitions.length];
+    }
+
     /**
-     * Adds the.
+     * Adds the. If the dispatcher is full, waits until an event is dispatched.
      *
      * @param event
      *            the event
@@ -150,12 +247,137 @@ public class EventDispatcher implements Runnable {
      *            the path
      */
     public void add(WatchEvent<Path> event, Path path) {
-        eventQueue.offer(new Event(event, path));
+        receivedCount.incrementAndGet();
+        synchronized (lock) {
+            Event last = lastPending.get(path);
+            if (last != null && last.event.kind() == event.kind()) {
+                coalescedCount.incrementAndGet();
+                return;
+            }
+
+            // backpressure - only if running, otherwise the queue grows until started
+            while (running && pending.size() + inFlight >= capacity) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCount.incrementAndGet();
+                    LOGGER.warning("Interrupted while waiting for full event dispatcher, event '{}' on path '{}' dropped.", event.kind(), path);
+                    return;
+                }
+            }
+
+            Event e = new Event(event, path, System.currentTimeMillis());
+            pending.add(e);
+            lastPending.put(path, e);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return number of events received, not yet dispatched to listeners
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size() + inFlight;
+        }
+    }
+
+    /**
+     * @return number of events received from the watcher
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * @return number of events merged with a pending event on the same path
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return number of events lost (watcher thread interrupted while waiting for full dispatcher)
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return number of events dispatched to listeners
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    private void eventDispatched() {
+        dispatchedCount.incrementAndGet();
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Dispatching thread, calls listeners for events of its paths in order.
+     */
+    private class Partition implements Runnable {
+        final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+        Thread thread;
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Event e = queue.take();
+                    ReloadMetrics metrics = ReloadMetrics.getInstance();
+                    long start = System.nanoTime();
+                    metrics.recordPhase(ReloadMetrics.DISPATCH_QUEUE, (System.currentTimeMillis() - e.time) * 1000000);
+                    try {
+                        callListeners(e.event, e.path);
+                    } finally {
+                        metrics.recordPhase(ReloadMetrics.DISPATCH, System.nanoTime() - start);
+                        eventDispatched();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+
+    /**
+     * Notify the dispatcher that the listeners map was changed. Must be called by the watcher after each
+     * modification.
+     */
+    public void listenersChanged() {
+        listenersVersion.incrementAndGet();
+    }
+
+    // listener index of current version of the listeners map
+    private PathListenerIndex getListenerIndex() {
+        PathListenerIndex index = listenerIndex;
+        int version = listenersVersion.get();
+        if (index == null || index.version != version) {
+            try {
+                index = new PathListenerIndex(listeners, version);
+                listenerIndex = index;
+            } catch (ConcurrentModificationException e) {
+                // listeners changed during build, the change increments version - use it on next event
+                LOGGER.trace("Listeners changed while building listener index.", e);
+                if (index == null) {
+                    return getListenerIndex();
+                }
+            }
+        }
+        return index;
     }
 
     /**
      * Call the listeners.
-     * Listeners are organized per path in a Map. The number of paths is low so a simple iteration should be fast enough.
+     * Listeners are looked up in the path trie by the event path and its ancestors, single event instance
+     * is shared by all listeners.
      *
      * @param event
      *            the event
@@ -164,23 +386,20 @@ public class EventDispatcher implements Runnable {
      */
     // notify listeners about new event
     private void callListeners(final WatchEvent<?> event, final Path path) {
-        boolean matchedOne = false;
-        for (Map.Entry<Path, List<WatchEventListener>> list : listeners.entrySet()) {
-            if (path.startsWith(list.getKey())) {
-                matchedOne = true;
-                for (WatchEventListener listener : new ArrayList<>(list.getValue())) {
-                    WatchFileEvent agentEvent = new HotswapWatchFileEvent(event, path);
-                    try {
-                        listener.onEvent(agentEvent);
-                    } catch (Throwable e) {
-                        // LOGGER.error("Error in watch event '{}' listener
-                        // '{}'", e, agentEvent, listener);
-                    }
-                }
-            }
-        }
-        if (!matchedOne) {
+        List<WatchEventListener> pathListeners = getListenerIndex().getListeners(path);
+        if (pathListeners.isEmpty()) {
             LOGGER.error("No match for  watch event '{}',  path '{}'", event, path);
+            return;
+        }
+
+        WatchFileEvent agentEvent = new HotswapWatchFileEvent(event, path);
+        for (WatchEventListener listener : pathListeners) {
+            try {
+                listener.onEvent(agentEvent);
+            } catch (Throwable e) {
+                // LOGGER.error("Error in watch event '{}' listener
+                // '{}'", e, agentEvent, listener);
+            }
         }
     }
 
@@ -188,6 +407,14 @@ public class EventDispatcher implements Runnable {
      * Start.
      */
     public void start() {
+        running = true;
+        for (int i = 0; i < partitions.length; i++) {
+            Thread thread = new Thread(partitions[i]);
+            thread.setDaemon(true);
+            thread.setName("HotSwap Dispatcher-" + (i + 1));
+            partitions[i].thread = thread;
+            thread.start();
+        }
         runnable = new Thread(this);
         runnable.setDaemon(true);
         runnable.setName("HotSwap Dispatcher");
@@ -201,10 +428,22 @@ public class EventDispatcher implements Runnable {
      *             the interrupted exception
      */
     public void stop() throws InterruptedException {
+        running = false;
         if (runnable != null) {
             runnable.interrupt();
             runnable.join();
         }
         runnable = null;
+        for (Partition partition : partitions) {
+            if (partition.thread != null) {
+                partition.thread.interrupt();
+                partition.thread.join();
+                partition.thread = null;
+            }
+        }
+        synchronized (lock) {
+            // release watcher thread waiting for space
+            lock.notifyAll();
+        }
     }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NIO2 watcher implementation for Linux (inotify).
+ * <p/>
+ * Inotify watches directories one by one. Compared to {@link WatcherNIO2}:
+ * <ul>
+ * <li>Only the root directory is registered synchronously, sub-directories are registered in parallel
+ * in background threads.</li>
+ * <li>A directory created while watching is registered and then listed - files (and sub-directories) written
+ * into the directory before the registration are reported as CREATE events.</li>
+ * <li>If the system runs out of inotify watches, the rest of the tree is watched by a polling
+ * {@link DirectoryScanner}.</li>
+ * <li>A directory is watched once even if reachable by several paths (e.g. symlinked output directory),
+ * events are delivered under each registered path.</li>
+ * </ul>
+ * Select it by watcher=linux in hotswap-agent.properties.
+ */
+public class LinuxWatcherNIO extends AbstractNIO2Watcher {
+
+    private static final int REGISTRATION_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // real path -> registered path of watched directories
+    private final Map<Path, Path> registered = new ConcurrentHashMap<>();
+
+    // registered path -> other paths of the same directory
+    private final Map<Path, CopyOnWriteArrayList<Path>> aliases = new ConcurrentHashMap<>();
+
+    private ExecutorService registrationExecutor;
+
+    private final DirectoryScanner scanner;
+
+    public LinuxWatcherNIO() throws IOException {
+        super();
+        scanner = new DirectoryScanner(dispatcher, DirectoryScanner.DEFAULT_INTERVAL);
+    }
+
+    @Override
+    protected void registerAll(final Path dir) throws IOException {
+        LOGGER.debug("Registering directory {}", dir);
+        if (register(dir)) {
+            registerSubdirectories(dir);
+        }
+    }
+
+    @Override
+    protected void registerCreated(Path dir) throws IOException {
+        if (!register(dir)) {
+            return;
+        }
+        List<Path> parentAliases = aliases.get(dir.getParent());
+        if (parentAliases != null) {
+            for (Path parentAlias : parentAliases) {
+                addAlias(dir, parentAlias.resolve(dir.getFileName()));
+            }
+        }
+        // files created before the directory was registered
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                LOGGER.debug("Watch event '{}' on '{}' --> {} (rescan)", ENTRY_CREATE.name(), child, child.getFileName());
+                dispatcher.add(new ScannedWatchEvent(ENTRY_CREATE, child.getFileName()), child);
+                if (Files.isDirectory(child)) {
+                    registerCreated(child);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void dispatch(WatchEvent<Path> event, Path dir, Path child) {
+        super.dispatch(event, dir, child);
+        List<Path> dirAliases = aliases.get(dir);
+        if (dirAliases != null) {
+            for (Path alias : dirAliases) {
+                super.dispatch(event, alias, alias.resolve(child.getFileName()));
+            }
+        }
+    }
+
+    /**
+     * Register the given directory with the WatchService (or directory scanner).
+     *
+     * @return true if the directory was newly registered (or as alias of a registered directory)
+     */
+    private boolean register(Path dir) throws IOException {
+        if (scanner.covers(dir)) {
+            return false;
+        }
+        Path realPath = dir.toRealPath();
+        Path registeredDir = registered.putIfAbsent(realPath, dir);
+        if (registeredDir != null) {
+            // the same directory is watched already, deliver its events under this path too
+            return !registeredDir.equals(dir) && addAlias(registeredDir, dir);
+        }
+        try {
+            WatchKey key = dir.register(watcher, KINDS);
+            keys.put(key, dir);
+            return true;
+        } catch (IOException e) {
+            if (!isWatchLimitReached(e)) {
+                registered.remove(realPath);
+                throw e;
+            }
+            scan(dir, e);
+            return false;
+        }
+    }
+
+    private boolean addAlias(Path registeredDir, Path alias) {
+        CopyOnWriteArrayList<Path> dirAliases = aliases.get(registeredDir);
+        if (dirAliases == null) {
+            aliases.putIfAbsent(registeredDir, new CopyOnWriteArrayList<Path>());
+            dirAliases = aliases.get(registeredDir);
+        }
+        return dirAliases.addIfAbsent(alias);
+    }
+
+    // inotify watch/instance limit reached (ENOSPC, EMFILE)
+    private static boolean isWatchLimitReached(IOException e) {
+        String message = e.getMessage();
+        return message != null && (message.contains("inotify") || message.contains("No space left on device")
+                || message.contains("Too many open files"));
+    }
+
+    private void scan(Path dir, IOException e) {
+        if (scanner.isEmpty()) {
+            LOGGER.warning("Unable to register directory {} with watch service ({}), polling for changes instead. " +
+                    "Consider increasing fs.inotify.max_user_watches.", dir, e.getMessage());
+        }
+        scanner.addRoot(dir);
+        scanner.start();
+    }
+
+    private void registerSubdirectories(Path dir) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path child : stream) {
+                if (Files.isDirectory(child)) {
+                    submit(child);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Unable to list directory {}", e, dir);
+        }
+    }
+
+    private void submit(final Path dir) {
+        try {
+            getRegistrationExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (register(dir)) {
+                            registerSubdirectories(dir);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.warning("Unable to register events for directory {}", e, dir);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.trace("Watcher stopped, directory {} not registered.", dir);
+        }
+    }
+
+    private synchronized ExecutorService getRegistrationExecutor() {
+        if (registrationExecutor == null) {
+            registrationExecutor = Executors.newFixedThreadPool(REGISTRATION_THREADS, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "HotSwap Watcher Registration-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return registrationExecutor;
+    }
+
+    @Override
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        super.closeClassLoader(classLoader);
+        if (classLoaderListeners.isEmpty()) {
+            // watch service was released, directories need to be registered again
+            keys.clear();
+            registered.clear();
+            aliases.clear();
+            scanner.clear();
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (registrationExecutor != null) {
+                registrationExecutor.shutdownNow();
+            }
+        }
+        scanner.stop();
+        super.stop();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.watch.WatchEventListener;
+
+/**
+ * Immutable trie of listeners by path segments. Lookup returns listeners registered on the path and all
+ * its ancestors (same as Path.startsWith(registeredPath)) walking the path only once.
+ */
+class PathListenerIndex {
+
+    private final Node root = new Node();
+
+    // version of listeners the index was built from
+    final int version;
+
+    /**
+     * Build the index (listener lists are copied).
+     *
+     * @param listeners registered path -> listeners
+     * @param version   version of the listeners
+     */
+    PathListenerIndex(Map<Path, List<WatchEventListener>> listeners, int version) {
+        this.version = version;
+        for (Map.Entry<Path, List<WatchEventListener>> entry : listeners.entrySet()) {
+            List<WatchEventListener> pathListeners = entry.getValue();
+            if (pathListeners == null || pathListeners.isEmpty()) {
+                continue;
+            }
+            Path path = entry.getKey();
+            Node node = root.child(path.getRoot(), true);
+            for (int i = 0; i < path.getNameCount(); i++) {
+                node = node.child(path.getName(i), true);
+            }
+            node.listeners.addAll(pathListeners);
+            node.path = path;
+        }
+    }
+
+    /**
+     * Listeners registered on the path and its ancestors, ancestors first.
+     *
+     * @param path absolute path of the event
+     * @return the listeners
+     */
+    List<WatchEventListener> getListeners(Path path) {
+        List<WatchEventListener> result = null;
+        Node node = root.child(path.getRoot(), false);
+        for (int i = 0; node != null; i++) {
+            if (!node.listeners.isEmpty()) {
+                if (result == null) {
+                    result = new ArrayList<>(node.listeners);
+                } else {
+                    result.addAll(node.listeners);
+                }
+            }
+            node = i < path.getNameCount() ? node.child(path.getName(i), false) : null;
+        }
+        return result != null ? result : Collections.<WatchEventListener>emptyList();
+    }
+
+    /**
+     * Outermost registered path which is the path itself or its ancestor.
+     *
+     * @param path absolute path of the event
+     * @return the registered path or null if no listener is registered for the path
+     */
+    Path getRootPath(Path path) {
+        Node node = root.child(path.getRoot(), false);
+        for (int i = 0; node != null; i++) {
+            if (!node.listeners.isEmpty()) {
+                return node.path;
+            }
+            node = i < path.getNameCount() ? node.child(path.getName(i), false) : null;
+        }
+        return null;
+    }
+
+    private static class Node {
+        final Map<Path, Node> children = new HashMap<>();
+        final List<WatchEventListener> listeners = new ArrayList<>();
+        // registered path, if listeners not empty
+        Path path;
+
+        // root of relative path is null, HashMap supports null key
+        Node child(Path segment, boolean create) {
+            Node child = children.get(segment);
+            if (child == null && create) {
+                child = new Node();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.Watcher;
+
+/**
+ * Watcher implementation polling the watched directory trees with {@link DirectoryScanner}.
+ * <p/>
+ * Use it where the watch service is unreliable or too expensive (network or bind mounted file systems,
+ * containers, very large trees). Events are dispatched the same way as by NIO2 watchers.
+ */
+public class PollingWatcher implements Watcher {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(PollingWatcher.class);
+
+    private final Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
+
+    // keep track about which classloader requested which event
+    private final Map<WatchEventListener, ClassLoader> classLoaderListeners = new ConcurrentHashMap<>();
+
+    private final EventDispatcher dispatcher;
+
+    private final DirectoryScanner scanner;
+
+    public PollingWatcher() {
+        this(DirectoryScanner.DEFAULT_INTERVAL, DirectoryScanner.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param interval    interval (ms) between two scans
+     * @param parallelism number of threads scanning the trees
+     */
+    public PollingWatcher(long interval, int parallelism) {
+        dispatcher = new EventDispatcher(listeners);
+        scanner = new DirectoryScanner(dispatcher, interval, parallelism);
+    }
+
+    /**
+     * Set number of threads calling the listeners. Must be called before run.
+     *
+     * @param threads number of dispatching threads
+     */
+    public void setDispatchThreads(int threads) {
+        dispatcher.setPartitionCount(threads);
+    }
+
+    @Override
+    public synchronized void addEventListener(ClassLoader classLoader, URI pathPrefix, WatchEventListener listener) {
+        Path path;
+        try {
+            path = Paths.get(pathPrefix);
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            LOGGER.warning("Unable to watch for path {}, not a local regular file or directory.", pathPrefix);
+            return;
+        }
+        if (!Files.isDirectory(path)) {
+            LOGGER.warning("Unable to watch for path {}, not a local directory.", pathPrefix);
+            return;
+        }
+
+        scanner.addRoot(path);
+
+        List<WatchEventListener> list = listeners.get(path);
+        if (list == null) {
+            list = new ArrayList<>();
+            listeners.put(path, list);
+        }
+        list.add(listener);
+
+        if (classLoader != null) {
+            classLoaderListeners.put(listener, classLoader);
+        }
+        dispatcher.listenersChanged();
+    }
+
+    @Override
+    public void addEventListener(ClassLoader classLoader, URL pathPrefix, WatchEventListener listener) {
+        if (pathPrefix == null) {
+            return;
+        }
+
+        try {
+            addEventListener(classLoader, pathPrefix.toURI(), listener);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException("Unable to convert URL to URI " + pathPrefix, e);
+        }
+    }
+
+    @Override
+    public synchronized void closeClassLoader(ClassLoader classLoader) {
+        for (Iterator<Entry<WatchEventListener, ClassLoader>> it = classLoaderListeners.entrySet().iterator(); it.hasNext(); ) {
+            Entry<WatchEventListener, ClassLoader> entry = it.next();
+            if (entry.getValue().equals(classLoader)) {
+                it.remove();
+                for (Iterator<List<WatchEventListener>> listIt = listeners.values().iterator(); listIt.hasNext(); ) {
+                    List<WatchEventListener> list = listIt.next();
+                    list.remove(entry.getKey());
+                    if (list.isEmpty()) {
+                        listIt.remove();
+                    }
+                }
+            }
+        }
+        if (classLoaderListeners.isEmpty()) {
+            listeners.clear();
+            scanner.clear();
+            LOGGER.info("All classloaders closed, released directory index.");
+        }
+        dispatcher.listenersChanged();
+        LOGGER.debug("All watch listeners removed for classLoader {}", classLoader);
+    }
+
+    @Override
+    public void run() {
+        scanner.start();
+        dispatcher.start();
+    }
+
+    @Override
+    public void stop() {
+        scanner.stop();
+    }
+}
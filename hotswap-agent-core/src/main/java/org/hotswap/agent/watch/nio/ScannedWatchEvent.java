@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * Watch event not produced by the watch service, but found by scanning a directory.
+ */
+class ScannedWatchEvent implements WatchEvent<Path> {
+
+    private final Kind<Path> kind;
+    private final Path context;
+
+    ScannedWatchEvent(Kind<Path> kind, Path context) {
+        this.kind = kind;
+        this.context = context;
+    }
+
+    @Override
+    public Kind<Path> kind() {
+        return kind;
+    }
+
+    @Override
+    public int count() {
+        return 1;
+    }
+
+    @Override
+    public Path context() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return "ScannedWatchEvent{kind=" + kind.name() + ", context=" + context + '}';
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.command.impl;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.CommandExecutionListener;
+import org.hotswap.agent.command.CommandOrderingKey;
+import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.OrderedCommand;
+import org.hotswap.agent.command.ReflectionCommand;
+import org.hotswap.agent.command.Scheduler;
+import org.hotswap.agent.util.test.WaitHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledSchedulerImplTest {
+    Scheduler scheduler;
+    ReflectionCommand command = new ReflectionCommand(new Object(), SchedulerImplTest.class.getName(), "commandMethod", getClass().getClassLoader());
+
+    @Before
+    public void setup() {
+        scheduler = new PooledSchedulerImpl(2);
+        scheduler.run();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testScheduleCommand() throws Exception {
+        final WaitHelper.ResultHolder resultHolder = new WaitHelper.ResultHolder();
+        command.setCommandExecutionListener(new CommandExecutionListener() {
+            @Override
+            public void commandExecuted(Object result) {
+                assertNotNull("Command result not null", result);
+                assertTrue("Command result true", result instanceof Boolean && ((Boolean) result));
+                resultHolder.result = true;
+            }
+        });
+
+        scheduler.scheduleCommand(command);
+
+        assertTrue("Event listener not called", WaitHelper.waitForResult(resultHolder));
+    }
+
+    @Test
+    public void testMergeDuplicateCommands() throws Exception {
+        CountingCommand.executions.set(0);
+        CountingCommand first = new CountingCommand("merge");
+        for (int i = 0; i < 10; i++) {
+            scheduler.scheduleCommand(new CountingCommand("merge"), 50);
+        }
+        scheduler.scheduleCommand(first, 50);
+
+        assertTrue("Command not executed", CountingCommand.awaitExecution(1));
+        Thread.sleep(200);
+        assertEquals("Duplicate commands merged into single execution", 1, CountingCommand.executions.get());
+        assertEquals("All duplicates merged", 10, CountingCommand.lastMerged);
+    }
+
+    @Test
+    public void testSkipRunningDuplicate() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+
+        Command blocking = new Command() {
+            @Override
+            public void executeCommand() {
+                executions.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        scheduler.scheduleCommand(blocking, 0);
+        assertTrue("Command not started", started.await(5, TimeUnit.SECONDS));
+
+        scheduler.scheduleCommand(blocking, 0, Scheduler.DuplicateSheduleBehaviour.SKIP);
+        Thread.sleep(100);
+        release.countDown();
+        Thread.sleep(100);
+
+        assertEquals("Duplicate of running command skipped", 1, executions.get());
+    }
+
+    @Test
+    public void testWaitAndRunAfterRunningDuplicate() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+
+        Command blocking = new Command() {
+            @Override
+            public void executeCommand() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finished.countDown();
+            }
+        };
+
+        scheduler.scheduleCommand(blocking, 0);
+        assertTrue("Command not started", started.await(5, TimeUnit.SECONDS));
+
+        scheduler.scheduleCommand(blocking, 0, Scheduler.DuplicateSheduleBehaviour.WAIT_AND_RUN_AFTER);
+        Thread.sleep(100);
+        assertEquals("Duplicate waits for running command", 2, finished.getCount());
+
+        release.countDown();
+        assertTrue("Duplicate executed after running command", finished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSkipWhileRunDuplicateRunning() throws Exception {
+        final CountDownLatch firstRelease = new CountDownLatch(1);
+        final CountDownLatch duplicateRelease = new CountDownLatch(1);
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch duplicateStarted = new CountDownLatch(2);
+        final AtomicInteger executions = new AtomicInteger();
+
+        Command blocking = new Command() {
+            @Override
+            public void executeCommand() {
+                int execution = executions.incrementAndGet();
+                firstStarted.countDown();
+                duplicateStarted.countDown();
+                try {
+                    (execution == 1 ? firstRelease : duplicateRelease).await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        scheduler.scheduleCommand(blocking, 0);
+        assertTrue("Command not started", firstStarted.await(5, TimeUnit.SECONDS));
+        scheduler.scheduleCommand(blocking, 0, Scheduler.DuplicateSheduleBehaviour.RUN_DUPLICATE);
+        assertTrue("Duplicate not started", duplicateStarted.await(5, TimeUnit.SECONDS));
+
+        // the first run finishes, the duplicate is still running
+        firstRelease.countDown();
+        Thread.sleep(100);
+        scheduler.scheduleCommand(blocking, 0, Scheduler.DuplicateSheduleBehaviour.SKIP);
+        Thread.sleep(100);
+        duplicateRelease.countDown();
+        Thread.sleep(100);
+
+        assertEquals("Command skipped while duplicate is running", 2, executions.get());
+    }
+
+    // command equal by name, counts executions and merged instances
+    private static class CountingCommand extends MergeableCommand {
+        static final AtomicInteger executions = new AtomicInteger();
+        static volatile int lastMerged;
+
+        final String name;
+
+        CountingCommand(String name) {
+            this.name = name;
+        }
+
+        static boolean awaitExecution(int count) throws InterruptedException {
+            for (int i = 0; i < 100 && executions.get() < count; i++) {
+                Thread.sleep(10);
+            }
+            return executions.get() >= count;
+        }
+
+        @Override
+        public void executeCommand() {
+            lastMerged = popMergedCommands().size();
+            executions.incrementAndGet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CountingCommand && name.equals(((CountingCommand) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+
+    @Test
+    public void testOrderedCommandsInLane() throws Exception {
+        final CommandOrderingKey key = new CommandOrderingKey(getClass().getClassLoader(), "test");
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            final int order = i;
+            scheduler.scheduleCommand(new OrderedCommand() {
+                @Override
+                public Object getOrderingKey() {
+                    return key;
+                }
+
+                @Override
+                public void executeCommand() {
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), concurrent.incrementAndGet()));
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    executed.add(order);
+                    concurrent.decrementAndGet();
+                    finished.countDown();
+                }
+            }, i);
+        }
+
+        assertTrue("All commands executed", finished.await(5, TimeUnit.SECONDS));
+        assertEquals("Commands in lane never run concurrently", 1, maxConcurrent.get());
+        assertEquals("Commands executed in schedule order", Arrays.asList(0, 1, 2, 3, 4), executed);
+    }
+}
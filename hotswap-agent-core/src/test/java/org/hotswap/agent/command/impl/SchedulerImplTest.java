@@ -19,6 +19,9 @@
 package org.hotswap.agent.command.impl;
 
 import org.hotswap.agent.command.CommandExecutionListener;
+import org.hotswap.agent.command.CommandOrderingKey;
+import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.OrderedCommand;
 import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.util.test.WaitHelper;
@@ -27,8 +30,16 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -72,5 +83,73 @@ public class SchedulerImplTest {
         assertTrue("Event listener not called", WaitHelper.waitForResult(resultHolder));
     }
 
+    @Test
+    public void testMergeDuplicateCommands() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final AtomicInteger merged = new AtomicInteger();
+
+        for (int i = 0; i < 1000; i++) {
+            scheduler.scheduleCommand(new MergeableCommand() {
+                @Override
+                public void executeCommand() {
+                    merged.set(popMergedCommands().size());
+                    executions.incrementAndGet();
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    return o instanceof MergeableCommand && o.getClass() == getClass();
+                }
+
+                @Override
+                public int hashCode() {
+                    return 1;
+                }
+            });
+        }
+
+        for (int i = 0; i < 50 && executions.get() == 0; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(200);
+
+        assertEquals("Duplicate commands merged into single execution", 1, executions.get());
+        assertEquals("All duplicates merged", 999, merged.get());
+    }
+
+    @Test
+    public void testOrderedCommandsInLane() throws Exception {
+        final CommandOrderingKey key = new CommandOrderingKey(getClass().getClassLoader(), "test");
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(5);
 
+        for (int i = 0; i < 5; i++) {
+            final int order = i;
+            scheduler.scheduleCommand(new OrderedCommand() {
+                @Override
+                public Object getOrderingKey() {
+                    return key;
+                }
+
+                @Override
+                public void executeCommand() {
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), concurrent.incrementAndGet()));
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    executed.add(order);
+                    concurrent.decrementAndGet();
+                    finished.countDown();
+                }
+            }, i);
+        }
+
+        assertTrue("All commands executed", finished.await(5, TimeUnit.SECONDS));
+        assertEquals("Commands in lane never run concurrently", 1, maxConcurrent.get());
+        assertEquals("Commands executed in schedule order", Arrays.asList(0, 1, 2, 3, 4), executed);
+    }
 }
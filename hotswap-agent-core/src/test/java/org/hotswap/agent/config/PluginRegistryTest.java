@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.hotswap.agent.testData.SimplePlugin;
+import org.hotswap.agent.util.classloader.ClassLoaderDefineClassPatcher;
+import org.hotswap.agent.util.classloader.WeakClassLoaderMap;
+import org.junit.Test;
+
+public class PluginRegistryTest {
+
+    @Test
+    public void testResolvePluginFromParent() throws Exception {
+        PluginRegistry pluginRegistry = new PluginRegistry(PluginManager.getInstance(), new ClassLoaderDefineClassPatcher());
+        ClassLoader parent = new URLClassLoader(new URL[]{});
+        ClassLoader child = new URLClassLoader(new URL[]{}, parent);
+        SimplePlugin plugin = new SimplePlugin();
+
+        pluginRegistry.getRegisteredPlugins().put(SimplePlugin.class, new WeakClassLoaderMap<Object>());
+        assertFalse(pluginRegistry.hasPlugin(SimplePlugin.class, child, true));
+
+        assertFalse("Instance created", pluginRegistry.doHasPlugin(SimplePlugin.class, parent, false, true));
+        assertTrue(pluginRegistry.hasPlugin(SimplePlugin.class, child, true));
+        assertFalse(pluginRegistry.hasPlugin(SimplePlugin.class, child, false));
+        SimplePlugin parentPlugin = pluginRegistry.getPlugin(SimplePlugin.class, child);
+        assertSame("Resolved instance cached", parentPlugin, pluginRegistry.getPlugin(SimplePlugin.class, child));
+        assertSame(parent, pluginRegistry.getAppClassLoader(parentPlugin));
+
+        pluginRegistry.getRegisteredPlugins().get(SimplePlugin.class).put(child, plugin);
+        pluginRegistry.closeClassLoader(parent);
+        assertSame("Cache invalidated on close", plugin, pluginRegistry.getPlugin(SimplePlugin.class, child));
+
+        pluginRegistry.closeClassLoader(child);
+        try {
+            pluginRegistry.getPlugin(SimplePlugin.class, child);
+            fail("Plugin not initialized");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
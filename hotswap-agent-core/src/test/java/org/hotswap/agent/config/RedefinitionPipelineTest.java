@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.instrument.ClassDefinition;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hotswap.agent.util.IOUtils;
+import org.junit.Test;
+
+public class RedefinitionPipelineTest {
+
+    public static class Dependency {
+    }
+
+    public static class UsesDependency {
+        Dependency dependency = new Dependency();
+    }
+
+    public static class Independent {
+    }
+
+    public static class Broken {
+    }
+
+    // records redefineClasses calls, fails every call containing Broken
+    static class RecordingPipeline extends RedefinitionPipeline {
+        final List<List<Class<?>>> calls = new ArrayList<>();
+
+        RecordingPipeline() {
+            super(null, new Object());
+        }
+
+        @Override
+        protected void doRedefine(ClassDefinition[] definitions) throws Exception {
+            List<Class<?>> classes = new ArrayList<>();
+            for (ClassDefinition definition : definitions)
+                classes.add(definition.getDefinitionClass());
+            calls.add(classes);
+            if (classes.contains(Broken.class))
+                throw new UnsupportedOperationException("schema change");
+        }
+    }
+
+    @Test
+    public void testSingleCallOnSuccess() throws Exception {
+        RecordingPipeline pipeline = new RecordingPipeline();
+        Map<Class<?>, byte[]> reloadMap = reloadMap(UsesDependency.class, Dependency.class, Independent.class);
+
+        RedefinitionPipeline.Result result = pipeline.redefine(reloadMap);
+
+        assertEquals("Single redefinition call", 1, pipeline.calls.size());
+        assertEquals(3, result.getReloaded().size());
+        assertTrue(result.getFailed().isEmpty());
+    }
+
+    @Test
+    public void testGroupByDependency() throws Exception {
+        RecordingPipeline pipeline = new RecordingPipeline();
+        Map<Class<?>, byte[]> reloadMap = reloadMap(UsesDependency.class, Independent.class, Dependency.class);
+
+        List<List<Class<?>>> batches = pipeline.groupByDependency(new ArrayList<>(reloadMap.keySet()), reloadMap);
+
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertTrue(batches.get(0).contains(UsesDependency.class) && batches.get(0).contains(Dependency.class));
+        assertEquals(Independent.class, batches.get(1).get(0));
+    }
+
+    @Test
+    public void testFailingClassIsolated() throws Exception {
+        RecordingPipeline pipeline = new RecordingPipeline();
+        Map<Class<?>, byte[]> reloadMap = reloadMap(UsesDependency.class, Dependency.class, Independent.class, Broken.class);
+
+        RedefinitionPipeline.Result result = pipeline.redefine(reloadMap);
+
+        assertEquals(1, result.getFailed().size());
+        assertTrue(result.getFailed().containsKey(Broken.class));
+        assertEquals(3, result.getReloaded().size());
+        for (List<Class<?>> call : pipeline.calls) {
+            // dependent classes are never split
+            assertEquals("Dependent classes redefined together", call.contains(UsesDependency.class), call.contains(Dependency.class));
+        }
+    }
+
+    private Map<Class<?>, byte[]> reloadMap(Class<?>... classes) throws Exception {
+        Map<Class<?>, byte[]> reloadMap = new LinkedHashMap<>();
+        for (Class<?> clazz : classes) {
+            String resource = clazz.getName().replace('.', '/') + ".class";
+            reloadMap.put(clazz, IOUtils.toByteArray(getClass().getClassLoader().getResource(resource).toURI()));
+        }
+        return reloadMap;
+    }
+}
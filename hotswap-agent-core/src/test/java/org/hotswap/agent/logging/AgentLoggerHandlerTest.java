@@ -25,7 +25,15 @@ import org.jmock.Mockery;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by bubnik on 14.10.13.
@@ -49,4 +57,112 @@ public class AgentLoggerHandlerTest {
         handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "A {} B {} C {}", null, "1", 2, 3L);
     }
 
+    @Test
+    public void testFormatMessage() {
+        assertEquals("A 1 B {} C", AgentLoggerHandler.formatMessage("A {} B {} C", "1"));
+        assertEquals("A {1} B", AgentLoggerHandler.formatMessage("A {{}} B", 1, 2));
+        assertEquals("A null", AgentLoggerHandler.formatMessage("A {}", (Object) null));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AgentLoggerHandler handler = new AgentLoggerHandler();
+        handler.setPrintStream(new PrintStream(out, true));
+        handler.setAsync(true);
+
+        handler.print(PluginManager.class, AgentLogger.Level.INFO, "async {}", null, 1);
+
+        for (int i = 0; i < 100 && !out.toString().contains("async 1"); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(out.toString().contains("INFO (org.hotswap.agent.config.PluginManager) - async 1"));
+        handler.setAsync(false);
+    }
+
+    @Test
+    public void testDropLowPriorityWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // writer thread blocks on the first message, the buffer fills up
+        PrintStream printStream = new PrintStream(out, true) {
+            @Override
+            public void println(String x) {
+                if (Thread.currentThread().getName().equals("HotSwap Logger")) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.println(x);
+            }
+        };
+        final AgentLoggerHandler handler = new AgentLoggerHandler(1);
+        handler.setPrintStream(printStream);
+        handler.setAsync(true);
+        Thread writer = handler.writer;
+
+        handler.print(PluginManager.class, AgentLogger.Level.INFO, "first", null);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "buffered", null);
+        handler.print(PluginManager.class, AgentLogger.Level.DEBUG, "dropped", null);
+
+        Thread errorThread = new Thread() {
+            @Override
+            public void run() {
+                handler.print(PluginManager.class, AgentLogger.Level.ERROR, "error", null);
+            }
+        };
+        errorThread.start();
+        for (int i = 0; i < 500 && errorThread.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("Error waits for free space in the buffer", Thread.State.WAITING, errorThread.getState());
+        assertFalse(out.toString().contains(") - error"));
+
+        release.countDown();
+        errorThread.join(5000);
+        handler.setAsync(false);
+        assertFalse("Writer thread stopped", writer.isAlive());
+
+        String log = out.toString();
+        assertTrue(log.contains(") - buffered"));
+        assertTrue("Messages are in order", log.indexOf(") - buffered") < log.indexOf(") - error"));
+        assertTrue(log.contains("1 debug/trace messages dropped"));
+        assertFalse(log.contains(") - dropped"));
+    }
+
+    @Test
+    public void testReplacedHandlerStopped() {
+        AgentLoggerHandler previous = AgentLogger.getHandler();
+        AgentLoggerHandler handler = new AgentLoggerHandler();
+        handler.setAsync(true);
+        Thread writer = handler.writer;
+        try {
+            AgentLogger.setHandler(handler);
+            AgentLogger.setHandler(previous);
+            assertFalse(handler.isAsync());
+            assertNull(handler.writer);
+            assertFalse(writer.isAlive());
+        } finally {
+            AgentLogger.setHandler(previous);
+        }
+    }
+
+    @Test
+    public void testInvalidDateTimeFormat() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AgentLoggerHandler handler = new AgentLoggerHandler();
+        handler.setPrintStream(new PrintStream(out, true));
+
+        handler.setDateTimeFormat("HH:mm{");
+        handler.print(PluginManager.class, AgentLogger.Level.INFO, "message", null);
+
+        assertTrue(out.toString().contains("Invalid date time format 'HH:mm{'"));
+        assertTrue(out.toString().contains("INFO (org.hotswap.agent.config.PluginManager) - message"));
+    }
+
 }
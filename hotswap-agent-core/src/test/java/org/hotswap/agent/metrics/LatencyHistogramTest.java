@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private static final long US = 1000;
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testBucket() {
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(0, LatencyHistogram.bucket(US - 1));
+        assertEquals(1, LatencyHistogram.bucket(US));
+        assertEquals(2, LatencyHistogram.bucket(3 * US));
+        assertEquals(3, LatencyHistogram.bucket(4 * US));
+        assertEquals(10, LatencyHistogram.bucket(MS));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(3 * MS);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(100 * MS);
+        }
+        histogram.record(1000 * MS);
+
+        LatencyStatistics statistics = histogram.getStatistics();
+        assertEquals(100, statistics.getCount());
+        assertEquals((90 * 3 + 9 * 100 + 1000) * 1000, statistics.getTotalMicros());
+        assertEquals(21700, statistics.getMeanMicros());
+        assertEquals(1000000, statistics.getMaxMicros());
+        assertEquals(4096, statistics.getP50Micros());
+        assertEquals(4096, statistics.getP90Micros());
+        assertEquals(131072, statistics.getP99Micros());
+    }
+
+    @Test
+    public void testSubMillisecond() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(200 * US);
+        }
+        histogram.record(900 * US);
+
+        LatencyStatistics statistics = histogram.getStatistics();
+        assertEquals(207, statistics.getMeanMicros());
+        assertEquals(256, statistics.getP50Micros());
+        assertEquals(256, statistics.getP99Micros());
+        assertEquals(900, statistics.getMaxMicros());
+        assertEquals("count=100, total=20.700ms, mean=0.207ms, max=0.900ms, p50<=0.256ms, p90<=0.256ms, p99<=0.256ms",
+                statistics.toString());
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyStatistics statistics = new LatencyHistogram().getStatistics();
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getP99Micros());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ReloadMetricsTest {
+
+    private final ReloadMetrics metrics = ReloadMetrics.getInstance();
+
+    @After
+    public void tearDown() {
+        metrics.reset();
+    }
+
+    @Test
+    public void testGetPluginName() {
+        assertEquals("spring", ReloadMetrics.getPluginName("org.hotswap.agent.plugin.spring.scanner.ClassPathBeanRefreshCommand"));
+        assertEquals("core", ReloadMetrics.getPluginName("org.hotswap.agent.plugin.JdkPlugin"));
+        assertEquals("core", ReloadMetrics.getPluginName("org.hotswap.agent.command.impl.CommandExecutor"));
+        assertEquals("com.example", ReloadMetrics.getPluginName("com.example.MyPlugin"));
+    }
+
+    @Test
+    public void testRecord() {
+        metrics.recordPhase(ReloadMetrics.REDEFINE, 5000000);
+        metrics.recordPhase(ReloadMetrics.REDEFINE, 7000000);
+        metrics.recordPlugin("spring", ReloadMetrics.TRANSFORM, 2000000);
+        metrics.recordTransformerInvocation("org/example/.*");
+        metrics.recordTransformerInvocation("org/example/.*");
+
+        assertEquals(2, metrics.getPhases().get(ReloadMetrics.REDEFINE).getCount());
+        assertEquals(12000, metrics.getPhases().get(ReloadMetrics.REDEFINE).getTotalMicros());
+        assertEquals(1, metrics.getPlugins().get("spring/" + ReloadMetrics.TRANSFORM).getCount());
+        assertEquals(Long.valueOf(2), metrics.getTransformerInvocations().get("org/example/.*"));
+        assertTrue(metrics.report().contains("spring/" + ReloadMetrics.TRANSFORM));
+
+        metrics.reset();
+        assertTrue(metrics.getPhases().isEmpty());
+    }
+
+    @Test
+    public void testSchedulerQueueDepth() {
+        metrics.setSchedulerQueueDepth(() -> 3);
+        assertEquals(3, metrics.getSchedulerQueueDepth());
+    }
+}
@@ -44,6 +44,9 @@ public class SimplePlugin {
     }
 
     // used by PluginManagerInvokerTest to dynamically call this method.
+    public Boolean callPluginMethodValue;
+
     public void callPluginMethod(Boolean val) {
+        callPluginMethodValue = val;
     }
 }
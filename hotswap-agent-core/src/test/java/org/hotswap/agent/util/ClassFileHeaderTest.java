@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class ClassFileHeaderTest {
+
+    // constant pool with long/double (two entries), strings and method references
+    public static class Sample extends Thread implements Serializable, Callable<String> {
+        static final long LONG = System.nanoTime();
+        static final double DOUBLE = Math.random();
+
+        @Override
+        public String call() {
+            return "sample" + LONG + DOUBLE;
+        }
+    }
+
+    @Test
+    public void testReadHeader() throws Exception {
+        ClassFileHeader header = ClassFileHeader.read(classBytes(Sample.class));
+
+        assertEquals(Sample.class.getName(), header.getClassName());
+        assertEquals(Thread.class.getName(), header.getSuperClassName());
+        assertEquals(Arrays.asList(Serializable.class.getName(), Callable.class.getName()), header.getInterfaceNames());
+    }
+
+    @Test
+    public void testReadObject() throws Exception {
+        ClassFileHeader header = ClassFileHeader.read(classBytes(Object.class));
+
+        assertEquals(Object.class.getName(), header.getClassName());
+        assertNull(header.getSuperClassName());
+    }
+
+    @Test
+    public void testFindReferencedClasses() throws Exception {
+        Set<String> references = ClassFileHeader.findReferencedClasses(classBytes(Sample.class), "java/util/concurrent/");
+
+        assertEquals(Collections.singleton(Callable.class.getName()), references);
+    }
+
+    @Test
+    public void testInvalidClassFile() throws Exception {
+        byte[] bytes = classBytes(Sample.class);
+        try {
+            ClassFileHeader.read(Arrays.copyOf(bytes, 20));
+            fail("Truncated class file");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            ClassFileHeader.read("not a class".getBytes());
+            fail("Bad magic");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private byte[] classBytes(Class<?> clazz) throws Exception {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        return IOUtils.toByteArray(ClassLoader.getSystemResource(resource).toURI());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ClassNameMatcherIndexTest {
+
+    @Test
+    public void testExactName() {
+        ClassNameMatcherIndex<String> index = index("^java.lang.String$", "exact");
+
+        assertEquals(Arrays.asList("exact"), collect(index, "java/lang/String", null));
+        assertEquals(Arrays.asList("exact"), collect(index, null, "java.lang.String"));
+        assertTrue(collect(index, "java/lang/StringBuilder", null).isEmpty());
+        assertTrue(collect(index, "java/lang/Strin", null).isEmpty());
+    }
+
+    @Test
+    public void testPrefix() {
+        ClassNameMatcherIndex<String> index = index("^org.example.*$", "prefix", "^.*$", "all");
+
+        assertEquals(Arrays.asList("prefix", "all"), collect(index, "org/example/Foo", null));
+        assertEquals(Arrays.asList("all"), collect(index, "org/other/Foo", null));
+    }
+
+    @Test
+    public void testRegexp() {
+        ClassNameMatcherIndex<String> index = index("^org.example.Foo$", "exact", "^org.example.*Proxy$", "regexp");
+
+        assertEquals(Arrays.asList("regexp"), collect(index, "org/example/FooProxy", null));
+        assertEquals(Arrays.asList("regexp"), collect(index, "org/example/Bar", "org.example.BarProxy"));
+        assertEquals(Arrays.asList("exact"), collect(index, "org/example/Foo", null));
+    }
+
+    @Test
+    public void testRegistrationOrder() {
+        ClassNameMatcherIndex<String> index = index("^org.exa[m]ple.Foo$", "first", "^org.example.Foo$", "second",
+                "^org.*$", "third");
+
+        assertEquals(Arrays.asList("first", "second", "third"), collect(index, "org/example/Foo", null));
+    }
+
+    @Test
+    public void testNestedClass() {
+        ClassNameMatcherIndex<String> index = index("org.springframework.cglib.reflect.FastClass.Generator", "dot",
+                "^org.example.Outer\\$Inner$", "escaped", "org.example.Outer.*", "prefix", "org\\.example\\.Outer\\.Inner", "escapedDot");
+
+        assertEquals(Arrays.asList("dot"), collect(index, "org/springframework/cglib/reflect/FastClass$Generator", null));
+        assertEquals(Arrays.asList("dot"), collect(index, null, "org.springframework.cglib.reflect.FastClass$Generator"));
+        assertEquals(Arrays.asList("escaped", "prefix"), collect(index, "org/example/Outer$Inner", null));
+        assertEquals(Arrays.asList("prefix", "escapedDot"), collect(index, null, "org.example.Outer.Inner"));
+        assertEquals(Arrays.asList("prefix"), collect(index, "org/example/Outer/Inner", null));
+    }
+
+    @Test
+    public void testToLiteral() {
+        assertEquals("org.example.Foo", ClassNameMatcherIndex.toLiteral("org/example/Foo"));
+        assertEquals("org.example.Foo$Inner", ClassNameMatcherIndex.toLiteral("org.example.Foo\\$Inner"));
+        assertNull("Escaped dot matches only dot", ClassNameMatcherIndex.toLiteral("org\\.example\\.Foo"));
+        assertNull(ClassNameMatcherIndex.toLiteral("org.example.Foo$"));
+        assertNull(ClassNameMatcherIndex.toLiteral("org.example.(Foo|Bar)"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(ClassNameMatcherIndex.<String>empty().isEmpty());
+        assertTrue(collect(ClassNameMatcherIndex.<String>empty(), "java/lang/String", null).isEmpty());
+    }
+
+    private static ClassNameMatcherIndex<String> index(String... regexpValuePairs) {
+        Map<String, String> valuesByRegexp = new LinkedHashMap<>();
+        for (int i = 0; i < regexpValuePairs.length; i += 2)
+            valuesByRegexp.put(regexpValuePairs[i], regexpValuePairs[i + 1]);
+        return new ClassNameMatcherIndex<>(valuesByRegexp);
+    }
+
+    private static List<String> collect(ClassNameMatcherIndex<String> index, String className, String alternateClassName) {
+        List<String> result = new ArrayList<>();
+        index.collect(className, alternateClassName, result);
+        return result;
+    }
+}
@@ -26,6 +26,9 @@ import org.hotswap.agent.javassist.CtNewMethod;
 import org.hotswap.agent.testData.SimplePlugin;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Collections;
@@ -57,16 +60,46 @@ public class PluginManagerInvokerTest {
         Method testMethod = testClass.getDeclaredMethod("test");
         testMethod.invoke(testClass.newInstance());
 
+        assertEquals(Boolean.TRUE, plugin.callPluginMethodValue);
+    }
+
+    @Test
+    public void testCallPluginMethodRebind() throws Exception {
+        SimplePlugin plugin = new SimplePlugin();
+        registerPlugin(plugin);
+
+        PluginManagerInvoker.callPluginMethod(SimplePlugin.class, getClass().getClassLoader(),
+                "callPluginMethod", new Class[]{Boolean.class}, new Object[]{Boolean.TRUE});
+        assertEquals(Boolean.TRUE, plugin.callPluginMethodValue);
+
+        // new plugin instance is bound after invalidation
+        SimplePlugin newPlugin = new SimplePlugin();
+        registerPlugin(newPlugin);
+
+        PluginManagerInvoker.callPluginMethod(SimplePlugin.class, getClass().getClassLoader(),
+                "callPluginMethod", new Class[]{Boolean.class}, new Object[]{Boolean.FALSE});
+        assertEquals(Boolean.FALSE, newPlugin.callPluginMethodValue);
+        assertEquals(Boolean.TRUE, plugin.callPluginMethodValue);
+    }
 
+    @Test
+    public void testSignature() {
+        String signature = PluginCallSite.signature(SimplePlugin.class.getName(), "callPluginMethod", "java.lang.Boolean", "java.lang.String");
+        assertEquals(SimplePlugin.class.getName() + "#callPluginMethod(java.lang.Boolean,java.lang.String)", signature);
+        assertSame(PluginCallSite.get(signature), PluginCallSite.get(signature));
     }
 
     // plugin registration is not public, use reflection to insert test data
-    private void registerPlugin(Object plugin) throws NoSuchFieldException, IllegalAccessException {
+    private void registerPlugin(Object plugin) throws ReflectiveOperationException {
         Field f = PluginRegistry.class.getDeclaredField("registeredPlugins");
         f.setAccessible(true);
         // noinspection unchecked
         Map<Class, Map<ClassLoader, Object>> registeredPlugins =
                 (Map<Class, Map<ClassLoader, Object>>) f.get(PluginManager.getInstance().getPluginRegistry());
         registeredPlugins.put(plugin.getClass(), Collections.singletonMap(getClass().getClassLoader(), plugin));
+
+        Method invalidate = PluginRegistry.class.getDeclaredMethod("invalidateResolvedPlugins");
+        invalidate.setAccessible(true);
+        invalidate.invoke(PluginManager.getInstance().getPluginRegistry());
     }
 }
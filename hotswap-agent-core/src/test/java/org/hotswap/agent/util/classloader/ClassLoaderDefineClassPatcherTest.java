@@ -19,9 +19,13 @@
 package org.hotswap.agent.util.classloader;
 
 import org.hotswap.agent.config.PluginManager;
+import org.hotswap.agent.plugin.hotswapper.HotswapperPlugin;
 import org.hotswap.agent.plugin.jvm.AnonymousClassInfo;
+import org.hotswap.agent.plugin.jvm.AnonymousClassInfos;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
 
@@ -55,4 +59,42 @@ public class ClassLoaderDefineClassPatcherTest {
         ;
     }
 
+    @Test
+    public void testPatchPackage() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+
+        new ClassLoaderDefineClassPatcher().patchPackage(getClass().getClassLoader(), PluginManager.PLUGIN_PACKAGE.replace(".", "/"),
+                AnonymousClassInfo.class.getPackage().getName(), appClassLoader, null);
+
+        assertEquals("Plugin package class created in app classloader", appClassLoader,
+                appClassLoader.loadClass(AnonymousClassInfo.class.getName()).getClassLoader());
+        assertEquals("Other plugin class created in parent classloader", getClass().getClassLoader(),
+                appClassLoader.loadClass(HotswapperPlugin.class.getName()).getClassLoader());
+    }
+
+    @Test
+    public void testPatchReferencedClasses() throws Exception {
+        ClassLoader appClassLoader = new URLClassLoader(new URL[]{}, getClass().getClassLoader());
+
+        byte[] bytecode;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(
+                AnonymousClassInfos.class.getName().replace('.', '/') + ".class")) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int readBytes;
+            byte[] data = new byte[4096];
+            while ((readBytes = is.read(data)) != -1) {
+                buffer.write(data, 0, readBytes);
+            }
+            bytecode = buffer.toByteArray();
+        }
+
+        new ClassLoaderDefineClassPatcher().patchReferencedClasses(getClass().getClassLoader(),
+                PluginManager.PLUGIN_PACKAGE.replace(".", "/"), bytecode, appClassLoader, null);
+
+        assertEquals("Referenced class created in app classloader", appClassLoader,
+                appClassLoader.loadClass(AnonymousClassInfo.class.getName()).getClassLoader());
+        assertEquals("Unreferenced class created in parent classloader", getClass().getClassLoader(),
+                appClassLoader.loadClass(HotswapperPlugin.class.getName()).getClassLoader());
+    }
+
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hotswap.agent.javassist.ClassPool;
+import org.hotswap.agent.javassist.CtClass;
+import org.hotswap.agent.javassist.CtField;
+import org.junit.After;
+import org.junit.Test;
+
+public class SharedClassPoolsTest {
+
+    public static class Dependency {
+    }
+
+    public static class Other {
+    }
+
+    CountingClassLoader classLoader = new CountingClassLoader();
+
+    @After
+    public void tearDown() {
+        SharedClassPools.closeClassLoader(classLoader);
+    }
+
+    @Test
+    public void testClassFileReadOnce() throws Exception {
+        CtClass first = SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName());
+        CtClass second = SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName());
+        first.getClassFile2();
+        second.getClassFile2();
+
+        assertEquals("Class file read once per classloader", 1, classLoader.reads);
+        assertNotSame("Parsed class not shared by scoped pools", first, second);
+    }
+
+    @Test
+    public void testConcurrentScopedPools() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int fields = 0;
+                        for (int j = 0; j < 50; j++) {
+                            CtClass ctClass = SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName());
+                            ctClass.addField(CtField.make("public int added;", ctClass));
+                            fields = Math.max(fields, ctClass.getDeclaredFields().length);
+                        }
+                        return fields;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals("Each scoped pool modifies its own class", 1, result.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testChangedClassFileParsedAgainAfterEviction() throws Exception {
+        Path dir = Files.createTempDirectory("sharedClassPoolsTest");
+        ClassLoader dirClassLoader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, null);
+        try {
+            writeClass(dir, "java.lang.Object");
+            assertEquals("java.lang.Object",
+                    SharedClassPools.createScopedPool(dirClassLoader).get("test.Changed").getClassFile2().getSuperclass());
+
+            writeClass(dir, "java.lang.Number");
+            assertEquals("Class file not checked on lookup", "java.lang.Object",
+                    SharedClassPools.createScopedPool(dirClassLoader).get("test.Changed").getClassFile2().getSuperclass());
+
+            SharedClassPools.evictClass(dirClassLoader, "test/Changed");
+            assertEquals("Class file read again after eviction", "java.lang.Number",
+                    SharedClassPools.createScopedPool(dirClassLoader).get("test.Changed").getClassFile2().getSuperclass());
+        } finally {
+            SharedClassPools.closeClassLoader(dirClassLoader);
+        }
+    }
+
+    private static Path writeClass(Path dir, String superclass) throws Exception {
+        CtClass ctClass = new ClassPool(true).makeClass("test.Changed");
+        ctClass.getClassFile2().setSuperclass(superclass);
+        Path classFile = dir.resolve("test/Changed.class");
+        Files.createDirectories(classFile.getParent());
+        Files.write(classFile, ctClass.toBytecode());
+        return classFile;
+    }
+
+    @Test
+    public void testEvictClass() throws Exception {
+        SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName()).getClassFile2();
+
+        SharedClassPools.evictClass(classLoader, Dependency.class.getName().replace('.', '/'));
+        SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName()).getClassFile2();
+
+        assertEquals("Class file read again after eviction", 2, classLoader.reads);
+    }
+
+    @Test
+    public void testModifiedClassNotShared() throws Exception {
+        CtClass modified = SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName());
+        modified.addField(CtField.make("public int added;", modified));
+
+        CtClass fresh = SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName());
+        assertNotSame("Modified class not returned to another client", modified, fresh);
+        assertEquals(0, fresh.getDeclaredFields().length);
+    }
+
+    @Test
+    public void testMakeClassKnownToSharedPool() throws Exception {
+        CtClass shared = SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName());
+
+        ClassPool scoped = SharedClassPools.createScopedPool(classLoader);
+        CtClass made = scoped.makeClass(new ByteArrayInputStream(shared.toBytecode()));
+
+        assertSame(made, scoped.get(Dependency.class.getName()));
+    }
+
+    @Test
+    public void testRenamedClassInScopedPool() throws Exception {
+        ClassPool scoped = SharedClassPools.createScopedPool(classLoader);
+        CtClass renamed = scoped.getAndRename(Other.class.getName(), Dependency.class.getName());
+
+        assertSame(renamed, scoped.get(Dependency.class.getName()));
+        assertNotSame("Renamed class not visible in other scoped pools", renamed,
+                SharedClassPools.createScopedPool(classLoader).get(Dependency.class.getName()));
+    }
+
+    // counts class files read for Dependency
+    private class CountingClassLoader extends URLClassLoader {
+        int reads;
+
+        CountingClassLoader() {
+            super(new URL[0], SharedClassPoolsTest.class.getClassLoader());
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            if (name.equals(Dependency.class.getName().replace('.', '/') + ".class")) {
+                reads++;
+            }
+            return super.getResourceAsStream(name);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.classloader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WeakClassLoaderMapTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        WeakClassLoaderMap<String> map = new WeakClassLoaderMap<>();
+        ClassLoader classLoader = new URLClassLoader(new URL[]{});
+
+        assertNull(map.put(classLoader, "a"));
+        assertNull(map.put(null, "bootstrap"));
+        assertEquals("a", map.get(classLoader));
+        assertEquals("bootstrap", map.get(null));
+        assertFalse(map.containsKey(new URLClassLoader(new URL[]{})));
+        assertEquals("a", map.putIfAbsent(classLoader, "b"));
+        assertEquals(2, map.size());
+
+        assertEquals("a", map.remove(classLoader));
+        assertFalse(map.containsKey(classLoader));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        WeakClassLoaderMap<String> map = new WeakClassLoaderMap<>();
+        ClassLoader classLoader = new URLClassLoader(new URL[]{});
+        map.put(classLoader, "a");
+
+        Iterator<Map.Entry<ClassLoader, String>> it = map.entrySet().iterator();
+        assertTrue(it.hasNext());
+        Map.Entry<ClassLoader, String> entry = it.next();
+        assertEquals(classLoader, entry.getKey());
+        assertEquals("a", entry.getValue());
+        it.remove();
+        assertFalse(it.hasNext());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testCollectedClassLoaderPurged() throws Exception {
+        WeakClassLoaderMap<String> map = new WeakClassLoaderMap<>();
+        map.put(new URLClassLoader(new URL[]{}), "a");
+
+        for (int i = 0; i < 50 && !map.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue("Entry of collected classloader purged", map.isEmpty());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.util.scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.hotswap.agent.testData.SimplePlugin;
+import org.junit.Test;
+
+public class PluginIndexTest {
+
+    @Test
+    public void testProcessor() throws Exception {
+        Path dir = Files.createTempDirectory("pluginIndexTest");
+        Path first = writeSource(dir, "FirstPlugin", "@org.hotswap.agent.annotation.Plugin(name = \"First\", testedVersions = {})");
+        Path second = writeSource(dir, "SecondPlugin", "@org.hotswap.agent.annotation.Plugin(name = \"Second\", testedVersions = {})");
+        Path other = writeSource(dir, "NotPlugin", "");
+
+        compile(dir, first, other);
+        assertEquals(Arrays.asList("test.FirstPlugin # First"), Files.readAllLines(dir.resolve(PluginIndex.INDEX_RESOURCE)));
+
+        // incremental compilation keeps plugins of the previous index
+        compile(dir, second);
+        assertEquals(Arrays.asList("test.FirstPlugin # First", "test.SecondPlugin # Second"),
+                Files.readAllLines(dir.resolve(PluginIndex.INDEX_RESOURCE)));
+    }
+
+    private static Path writeSource(Path dir, String name, String annotation) throws Exception {
+        Path source = dir.resolve("src/test/" + name + ".java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, ("package test;\n" + annotation + "\npublic class " + name + " {}\n").getBytes("UTF-8"));
+        return source;
+    }
+
+    private static void compile(Path dir, Path... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            List<File> files = new ArrayList<>();
+            for (Path source : sources) {
+                files.add(source.toFile());
+            }
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                    Arrays.asList("-d", dir.toString(), "-cp", System.getProperty("java.class.path") + File.pathSeparator + dir),
+                    null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new PluginIndexProcessor()));
+            assertTrue("Compiled", task.call());
+        }
+    }
+
+    @Test
+    public void testGetPlugins() throws Exception {
+        Path classesDir = Files.createTempDirectory("pluginIndexTest");
+        Path index = classesDir.resolve(PluginIndex.INDEX_RESOURCE);
+        Files.createDirectories(index.getParent());
+        Files.write(index, (SimplePlugin.class.getName() + " # Hibernate plugin\n").getBytes("UTF-8"));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{classesDir.toUri().toURL()}, null)) {
+            assertEquals(Arrays.asList(SimplePlugin.class.getName()),
+                    PluginIndex.getPlugins(classLoader, "org.hotswap.agent.testData"));
+            assertTrue("Package not indexed", PluginIndex.getPlugins(classLoader, "org.hotswap.agent.plugin").isEmpty());
+        }
+    }
+
+    @Test
+    public void testGetPluginsOfRoot() throws Exception {
+        Path jar = Files.createTempFile("pluginIndexTest", ".jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(PluginIndex.INDEX_RESOURCE));
+            out.write((SimplePlugin.class.getName() + "\n").getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        Path noIndexJar = Files.createTempFile("pluginIndexTest", ".jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(noIndexJar))) {
+            out.putNextEntry(new ZipEntry("org/hotswap/agent/testData/"));
+            out.closeEntry();
+        }
+
+        URL root = new URL("jar:" + jar.toUri() + "!/");
+        assertEquals(Arrays.asList(SimplePlugin.class.getName()), PluginIndex.getPlugins(root, "org.hotswap.agent.testData"));
+        assertNull("Package not indexed in the jar", PluginIndex.getPlugins(root, "org.hotswap.agent.plugin"));
+        assertNull("Jar without index", PluginIndex.getPlugins(new URL("jar:" + noIndexJar.toUri() + "!/"), "org.hotswap.agent.testData"));
+    }
+}
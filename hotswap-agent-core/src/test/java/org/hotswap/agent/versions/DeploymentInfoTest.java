@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.versions;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+public class DeploymentInfoTest {
+
+    @Test
+    public void testCachedPerClassLoader() throws Exception {
+        ClassLoader classLoader = new URLClassLoader(new URL[0], null);
+
+        DeploymentInfo info = DeploymentInfo.cachedFromClassLoader(classLoader);
+        assertSame("Deployment info resolved once", info, DeploymentInfo.cachedFromClassLoader(classLoader));
+        assertNotSame("Other classloader resolved separately", info,
+                DeploymentInfo.cachedFromClassLoader(new URLClassLoader(new URL[0], null)));
+
+        DeploymentInfo.evictClassLoader(classLoader);
+        assertNotSame("Deployment info resolved again after eviction", info, DeploymentInfo.cachedFromClassLoader(classLoader));
+    }
+
+    @Test
+    public void testNotResolvedAgainUntilEvicted() throws Exception {
+        GrowingClassLoader classLoader = new GrowingClassLoader();
+
+        DeploymentInfo info = DeploymentInfo.cachedFromClassLoader(classLoader);
+        classLoader.addURL(new File("target/classes").toURI().toURL());
+        assertSame("Classpath not checked on lookup", info, DeploymentInfo.cachedFromClassLoader(classLoader));
+
+        DeploymentInfo.evictClassLoader(classLoader);
+        DeploymentInfo changed = DeploymentInfo.cachedFromClassLoader(classLoader);
+        assertNotSame("Deployment info resolved again after classpath change eviction", info, changed);
+        assertSame("Deployment info cached for the new classpath", changed, DeploymentInfo.cachedFromClassLoader(classLoader));
+    }
+
+    // classloader adding jars after creation (e.g. webapp classloader)
+    private static class GrowingClassLoader extends URLClassLoader {
+        GrowingClassLoader() {
+            super(new URL[0], null);
+        }
+
+        @Override
+        public void addURL(URL url) {
+            super.addURL(url);
+        }
+    }
+}
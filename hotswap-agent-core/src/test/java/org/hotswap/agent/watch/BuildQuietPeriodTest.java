@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class BuildQuietPeriodTest {
+
+    @Test
+    public void testNoActivityAfterFirstChange() throws Exception {
+        BuildQuietPeriod quietPeriod = new BuildQuietPeriod(200, Collections.<Path>emptyList());
+        quietPeriod.recordActivity();
+        long since = System.currentTimeMillis();
+
+        assertEquals("Not postponed without further activity", 0, quietPeriod.getRemainingDelay(since));
+    }
+
+    @Test
+    public void testWaitForQuietPeriod() throws Exception {
+        BuildQuietPeriod quietPeriod = new BuildQuietPeriod(200, Collections.<Path>emptyList());
+        long since = System.currentTimeMillis() - 10;
+
+        quietPeriod.recordActivity();
+        long delay = quietPeriod.getRemainingDelay(since);
+        assertTrue("Build in progress " + delay, delay > 0 && delay <= 200);
+
+        Thread.sleep(delay + 10);
+        assertEquals("Build settled", 0, quietPeriod.getRemainingDelay(since));
+    }
+
+    @Test
+    public void testWaitForMarkerFile() throws Exception {
+        Path marker = Files.createTempFile("buildQuietPeriodTest", ".lock");
+        BuildQuietPeriod quietPeriod = new BuildQuietPeriod(0, Collections.singletonList(marker));
+        long since = System.currentTimeMillis();
+
+        assertTrue("Marker file exists", quietPeriod.getRemainingDelay(since) > 0);
+
+        Files.delete(marker);
+        assertEquals("Marker file deleted", 0, quietPeriod.getRemainingDelay(since));
+    }
+
+    @Test
+    public void testActivityPerInstance() throws Exception {
+        BuildQuietPeriod quietPeriod = new BuildQuietPeriod(200, Collections.<Path>emptyList());
+        long since = System.currentTimeMillis() - 10;
+
+        new BuildQuietPeriod(200, Collections.<Path>emptyList()).recordActivity();
+        assertEquals("Activity of another owner ignored", 0, quietPeriod.getRemainingDelay(since));
+    }
+
+    @Test
+    public void testMaxWait() throws Exception {
+        BuildQuietPeriod quietPeriod = new BuildQuietPeriod(200, Collections.<Path>emptyList());
+        quietPeriod.recordActivity();
+        assertEquals("Released after max wait", 0,
+                quietPeriod.getRemainingDelay(System.currentTimeMillis() - BuildQuietPeriod.MAX_WAIT));
+    }
+}
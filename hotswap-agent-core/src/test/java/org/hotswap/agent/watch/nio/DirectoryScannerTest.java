@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hotswap.agent.watch.WatchEventListener;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryScannerTest {
+
+    Path temp;
+    List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    DirectoryScanner scanner;
+
+    @Before
+    public void setup() throws Exception {
+        temp = Files.createTempDirectory("directoryScannerTest");
+        Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
+        EventDispatcher dispatcher = new EventDispatcher(listeners) {
+            @Override
+            public void add(WatchEvent<Path> event, Path path) {
+                events.add(event.kind().name() + " " + temp.relativize(path));
+            }
+        };
+        scanner = new DirectoryScanner(dispatcher, DirectoryScanner.DEFAULT_INTERVAL);
+    }
+
+    @Test
+    public void testScanChanges() throws Exception {
+        Path existing = Files.write(temp.resolve("Existing.class"), new byte[]{1});
+        scanner.addRoot(temp);
+        scanner.scan();
+        assertEquals("Existing files are not reported", Collections.emptyList(), events);
+
+        Path dir = Files.createDirectory(temp.resolve("pkg"));
+        Files.write(dir.resolve("A.class"), new byte[]{1});
+        Files.write(existing, new byte[]{1, 2});
+        scanner.scan();
+        assertEquals(Arrays.asList("ENTRY_CREATE pkg", "ENTRY_CREATE pkg/A.class", "ENTRY_MODIFY Existing.class"),
+                sorted(events));
+
+        events.clear();
+        Files.delete(dir.resolve("A.class"));
+        scanner.scan();
+        assertEquals(Arrays.asList("ENTRY_DELETE pkg/A.class"), events);
+    }
+
+    @Test
+    public void testDeleteTree() throws Exception {
+        Path dir = Files.createDirectories(temp.resolve("a/b"));
+        Files.write(dir.resolve("B.class"), new byte[]{1});
+        scanner.addRoot(temp);
+        assertEquals(3, scanner.getDirectoryCount());
+
+        Files.delete(dir.resolve("B.class"));
+        Files.delete(dir);
+        scanner.scan();
+        assertEquals(Arrays.asList("ENTRY_DELETE a/b", "ENTRY_DELETE a/b/B.class"), sorted(events));
+        assertEquals(2, scanner.getDirectoryCount());
+    }
+
+    @Test
+    public void testColdDirectoryCheckedOnItsTurn() throws Exception {
+        Path file = Files.write(temp.resolve("Cold.class"), new byte[]{1});
+        scanner.hotPeriod = 0;
+        scanner.addRoot(temp);
+
+        Files.write(file, new byte[]{1, 2});
+        for (int i = 0; i < DirectoryScanner.COLD_CHECK_SCANS && events.isEmpty(); i++) {
+            scanner.scan();
+        }
+        assertEquals(Arrays.asList("ENTRY_MODIFY Cold.class"), events);
+    }
+
+    @Test
+    public void testCovers() throws Exception {
+        Path dir = Files.createDirectory(temp.resolve("pkg"));
+        assertTrue(scanner.isEmpty());
+        scanner.addRoot(dir);
+        assertTrue(scanner.covers(dir.resolve("sub")));
+        assertFalse(scanner.covers(temp));
+
+        scanner.addRoot(temp);
+        assertTrue(scanner.covers(temp));
+
+        scanner.clear();
+        assertTrue(scanner.isEmpty());
+        assertFalse(scanner.covers(dir));
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> result = new ArrayList<>(list);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Test;
+
+public class EventDispatcherTest {
+
+    Path root = Paths.get("/tmp/eventDispatcherTest").toAbsolutePath();
+    Map<Path, List<WatchEventListener>> listeners = new ConcurrentHashMap<>();
+    List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    EventDispatcher dispatcher;
+
+    @After
+    public void tearDown() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void testCoalesceRepeatedEvents() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        register(latch);
+        dispatcher = new EventDispatcher(listeners, 100, 100, 2);
+        dispatcher.start();
+
+        Path file = root.resolve("a/A.class");
+        dispatcher.add(event(ENTRY_MODIFY), file);
+        dispatcher.add(event(ENTRY_MODIFY), file);
+        dispatcher.add(event(ENTRY_DELETE), file);
+        dispatcher.add(event(ENTRY_CREATE), file);
+        dispatcher.add(event(ENTRY_CREATE), file);
+
+        assertTrue("Events dispatched", latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+
+        assertEquals("Only different consecutive kinds kept in order",
+                Arrays.asList("MODIFY " + file, "DELETE " + file, "CREATE " + file), events);
+        assertEquals(5, dispatcher.getReceivedCount());
+        assertEquals(2, dispatcher.getCoalescedCount());
+        assertEquals(3, dispatcher.getDispatchedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void testNoEventDroppedWhenFull() throws Exception {
+        int count = 500;
+        final CountDownLatch latch = new CountDownLatch(count);
+        register(latch);
+        dispatcher = new EventDispatcher(listeners, 0, 10, 2);
+        dispatcher.start();
+
+        for (int i = 0; i < count; i++) {
+            dispatcher.add(event(ENTRY_CREATE), root.resolve("dir" + (i % 7) + "/F" + i + ".class"));
+        }
+
+        assertTrue("All events dispatched", latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertEquals(count, dispatcher.getDispatchedCount());
+    }
+
+    @Test
+    public void testRouteToAncestorListeners() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final List<WatchFileEvent> received = Collections.synchronizedList(new ArrayList<WatchFileEvent>());
+        WatchEventListener listener = new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                received.add(event);
+                latch.countDown();
+            }
+        };
+        WatchEventListener otherListener = new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                received.add(event);
+            }
+        };
+        dispatcher = new EventDispatcher(listeners, 0, 100, 1);
+        dispatcher.start();
+
+        listeners.put(root, new ArrayList<>(Arrays.asList(listener)));
+        listeners.put(root.resolve("a"), new ArrayList<>(Arrays.asList(listener)));
+        listeners.put(root.resolve("ab"), new ArrayList<>(Arrays.asList(otherListener)));
+        listeners.put(root.resolve("a/b/c"), new ArrayList<>(Arrays.asList(otherListener)));
+        dispatcher.listenersChanged();
+
+        dispatcher.add(event(ENTRY_MODIFY), root.resolve("a/b/B.class"));
+
+        assertTrue("Events dispatched", latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals("Only listeners of ancestor paths called", 2, received.size());
+        assertTrue("Single event instance shared", received.get(0) == received.get(1));
+    }
+
+    @Test
+    public void testEventsOfRootDispatchedByOneThreadInOrder() throws Exception {
+        int count = 200;
+        final CountDownLatch latch = new CountDownLatch(2 * count);
+        final Map<Path, List<String>> threads = new ConcurrentHashMap<>();
+        final Map<Path, List<String>> received = new ConcurrentHashMap<>();
+        final Path root1 = root.resolve("root1");
+        final Path root2 = root.resolve("root2");
+        for (final Path watched : Arrays.asList(root1, root2)) {
+            threads.put(watched, Collections.synchronizedList(new ArrayList<String>()));
+            received.put(watched, Collections.synchronizedList(new ArrayList<String>()));
+            listeners.put(watched, new ArrayList<>(Arrays.<WatchEventListener>asList(new WatchEventListener() {
+                @Override
+                public void onEvent(WatchFileEvent event) {
+                    threads.get(watched).add(Thread.currentThread().getName());
+                    received.get(watched).add(Paths.get(event.getURI()).toString());
+                    latch.countDown();
+                }
+            })));
+        }
+        dispatcher = new EventDispatcher(listeners, 0, 1000, 4);
+        dispatcher.start();
+
+        List<String> expected1 = new ArrayList<>();
+        List<String> expected2 = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // directory created before files inside it
+            Path file1 = i % 2 == 0 ? root1.resolve("dir" + i) : root1.resolve("dir" + (i - 1) + "/F.class");
+            Path file2 = root2.resolve("dir" + (i % 5) + "/F" + i + ".class");
+            dispatcher.add(event(ENTRY_CREATE), file1);
+            dispatcher.add(event(ENTRY_CREATE), file2);
+            expected1.add(file1.toString());
+            expected2.add(file2.toString());
+        }
+
+        assertTrue("All events dispatched", latch.await(10, TimeUnit.SECONDS));
+        assertEquals(expected1, received.get(root1));
+        assertEquals(expected2, received.get(root2));
+        assertEquals("Single thread per root", 1, new HashSet<>(threads.get(root1)).size());
+        assertEquals("Single thread per root", 1, new HashSet<>(threads.get(root2)).size());
+    }
+
+    @Test
+    public void testSingleThreadByDefault() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(20);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        listeners.put(root, new ArrayList<>(Arrays.<WatchEventListener>asList(new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        })));
+        listeners.put(root.resolve("other"), listeners.get(root));
+        dispatcher = new EventDispatcher(listeners);
+        dispatcher.start();
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.add(event(ENTRY_CREATE), root.resolve("dir" + i + "/F.class"));
+            dispatcher.add(event(ENTRY_CREATE), root.resolve("other/dir" + i + "/F.class"));
+        }
+
+        assertTrue("All events dispatched", latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, threads.size());
+    }
+
+    private void register(final CountDownLatch latch) {
+        List<WatchEventListener> list = new ArrayList<>();
+        list.add(new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                events.add(event.getEventType() + " " + Paths.get(event.getURI()));
+                latch.countDown();
+            }
+        });
+        listeners.put(root, list);
+    }
+
+    private static WatchEvent<Path> event(final WatchEvent.Kind<Path> kind) {
+        return new WatchEvent<Path>() {
+            @Override
+            public Kind<Path> kind() {
+                return kind;
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+
+            @Override
+            public Path context() {
+                return null;
+            }
+        };
+    }
+}
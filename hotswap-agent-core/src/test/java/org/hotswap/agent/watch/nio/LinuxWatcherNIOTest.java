@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinuxWatcherNIOTest {
+
+    LinuxWatcherNIO watcher;
+    Path temp;
+
+    @Before
+    public void setup() throws Exception {
+        Assume.assumeTrue(System.getProperty("os.name").startsWith("Linux"));
+        watcher = new LinuxWatcherNIO();
+        temp = Files.createTempDirectory("linuxWatcherNIOTest");
+        watcher.run();
+    }
+
+    @After
+    public void tearDown() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    // file written right after its directory is created must not be missed
+    @Test
+    public void createFileInNewDirectory() throws Exception {
+        final Set<String> created = Collections.synchronizedSet(new HashSet<String>());
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                created.add(event.getURI().toString());
+            }
+        });
+
+        Path dir = Files.createDirectories(temp.resolve("a/b"));
+        Path file = Files.write(dir.resolve("Test.class"), new byte[]{1});
+
+        assertTrue("Event listener called", waitFor(created, file.toUri().toString()));
+    }
+
+    // directory registered by its symlink too, listeners of both paths get events
+    @Test
+    public void createFileInAliasedDirectory() throws Exception {
+        Path dir = Files.createDirectories(temp.resolve("classes/a"));
+        Path link = Files.createSymbolicLink(temp.resolve("link"), temp.resolve("classes"));
+
+        final Set<String> created = Collections.synchronizedSet(new HashSet<String>());
+        WatchEventListener listener = new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                created.add(event.getURI().toString());
+            }
+        };
+        watcher.addEventListener(null, temp.resolve("classes").toUri(), listener);
+        watcher.addEventListener(null, link.toUri(), listener);
+        Thread.sleep(200);
+
+        Files.write(dir.resolve("Test.class"), new byte[]{1});
+
+        assertTrue("Event under the real path", waitFor(created, temp.resolve("classes/a/Test.class").toUri().toString()));
+        assertTrue("Event under the symlink", waitFor(created, link.resolve("a/Test.class").toUri().toString()));
+    }
+
+    private boolean waitFor(Set<String> created, String uri) throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            if (created.contains(uri))
+                return true;
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
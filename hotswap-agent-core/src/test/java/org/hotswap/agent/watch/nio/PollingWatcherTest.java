@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.watch.nio;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hotswap.agent.watch.WatchEventListener;
+import org.hotswap.agent.watch.WatchFileEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PollingWatcherTest {
+
+    PollingWatcher watcher;
+    Path temp;
+    Set<String> events = Collections.synchronizedSet(new HashSet<String>());
+
+    @Before
+    public void setup() throws Exception {
+        watcher = new PollingWatcher(50, 2);
+        temp = Files.createTempDirectory("pollingWatcherTest");
+        watcher.run();
+        watcher.addEventListener(null, temp.toUri(), new WatchEventListener() {
+            @Override
+            public void onEvent(WatchFileEvent event) {
+                events.add(event.getEventType() + " " + temp.relativize(Paths.get(event.getURI())));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    public void createModifyDelete() throws Exception {
+        Path dir = Files.createDirectories(temp.resolve("a/b"));
+        Path file = Files.write(dir.resolve("Test.class"), new byte[]{1});
+        assertTrue("Create event", waitFor("CREATE a/b/Test.class"));
+
+        Files.write(file, new byte[]{1, 2});
+        assertTrue("Modify event", waitFor("MODIFY a/b/Test.class"));
+
+        Files.delete(file);
+        assertTrue("Delete event", waitFor("DELETE a/b/Test.class"));
+    }
+
+    private boolean waitFor(String event) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (events.contains(event))
+                return true;
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.cdi;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.enterprise.context.spi.Context;
+import javax.enterprise.inject.spi.Bean;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Registry of bean instances created by a CDI context, instances are registered in Context.get(...) methods.
+ * <p/>
+ * Context.get(...) is called on every bean lookup, registration of an already tracked instance must be cheap:
+ * instances are kept per bean class ({@link ClassValue}) in a weak identity set with lock free lookup, only
+ * a new instance takes the lock of the set. Instances of all bean classes are tracked (weakly), CDI plugins
+ * decide which archives are watched (registered bean deployment archives) and ask only for instances of reloaded
+ * bean classes.
+ */
+public class HaCdiBeanRegistry {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(HaCdiBeanRegistry.class);
+
+    private final ClassValue<InstanceSet> instances = new ClassValue<InstanceSet>() {
+        @Override
+        protected InstanceSet computeValue(Class<?> beanClass) {
+            return new InstanceSet();
+        }
+    };
+
+    // last context registration (HaCdiCommons.registerContextClass), repeated only if the scope or context classloader differs
+    private volatile ContextRegistration contextRegistration;
+
+    private static class ContextRegistration {
+        final Class<? extends Annotation> scope;
+        final WeakReference<ClassLoader> classLoader;
+
+        ContextRegistration(Class<? extends Annotation> scope, ClassLoader classLoader) {
+            this.scope = scope;
+            this.classLoader = new WeakReference<>(classLoader);
+        }
+    }
+
+    /**
+     * Register context class (once per context classloader) and bean instance returned by the context.
+     *
+     * @param scope        scope of the context
+     * @param contextClass the context class
+     * @param contextual   contextual passed to Context.get(...)
+     * @param instance     instance returned by Context.get(...), may be null
+     */
+    public void register(Class<? extends Annotation> scope, Class<? extends Context> contextClass, Object contextual, Object instance) {
+        registerContextClass(scope, contextClass);
+        if (instance != null && contextual instanceof Bean) {
+            Class<?> beanClass = ((Bean<?>) contextual).getBeanClass();
+            if (beanClass != null) {
+                InstanceSet set = instances.get(beanClass);
+                if (!set.contains(instance)) {
+                    set.add(instance);
+                }
+            }
+        }
+    }
+
+    private void registerContextClass(Class<? extends Annotation> scope, Class<? extends Context> contextClass) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            HaCdiCommons.registerContextClass(scope, contextClass);
+            return;
+        }
+        ContextRegistration registration = contextRegistration;
+        if (registration == null || registration.scope != scope || registration.classLoader.get() != classLoader) {
+            HaCdiCommons.registerContextClass(scope, contextClass);
+            contextRegistration = new ContextRegistration(scope, classLoader);
+        }
+    }
+
+    /**
+     * Return tracked instances of the bean class.
+     *
+     * @param beanClass the bean class
+     * @return the bean instances
+     */
+    public List<Object> getInstances(Class<?> beanClass) {
+        List<Object> result = instances.get(beanClass).getInstances();
+        if (result.isEmpty()) {
+            LOGGER.debug("No tracked instances of bean class '{}'.", beanClass.getName());
+        }
+        return result;
+    }
+
+    /**
+     * Weak identity set - open addressing table of weak references. Lookup is lock free, add synchronized.
+     * Cleared references are reused by add and dropped when the table is rebuilt.
+     */
+    static class InstanceSet {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private volatile AtomicReferenceArray<WeakReference<Object>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+        // non empty slots of the table (including cleared references), guarded by this
+        private int used;
+
+        boolean contains(Object instance) {
+            return indexOf(table, instance) >= 0;
+        }
+
+        synchronized void add(Object instance) {
+            AtomicReferenceArray<WeakReference<Object>> tab = table;
+            if (indexOf(tab, instance) >= 0) {
+                return;
+            }
+            if ((used + 1) * 2 > tab.length()) {
+                tab = rebuild(tab);
+            }
+            int mask = tab.length() - 1;
+            int i = System.identityHashCode(instance) & mask;
+            WeakReference<Object> ref;
+            while ((ref = tab.get(i)) != null && ref.get() != null) {
+                i = (i + 1) & mask;
+            }
+            if (ref == null) {
+                used++;
+            }
+            tab.set(i, new WeakReference<>(instance));
+        }
+
+        List<Object> getInstances() {
+            AtomicReferenceArray<WeakReference<Object>> tab = table;
+            List<Object> result = new ArrayList<>();
+            for (int i = 0; i < tab.length(); i++) {
+                WeakReference<Object> ref = tab.get(i);
+                Object instance = ref != null ? ref.get() : null;
+                if (instance != null) {
+                    result.add(instance);
+                }
+            }
+            return result;
+        }
+
+        private static int indexOf(AtomicReferenceArray<WeakReference<Object>> tab, Object instance) {
+            int mask = tab.length() - 1;
+            int i = System.identityHashCode(instance) & mask;
+            for (int probe = 0; probe <= mask; probe++) {
+                WeakReference<Object> ref = tab.get(i);
+                if (ref == null) {
+                    return -1;
+                }
+                if (ref.get() == instance) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        // copy live references into a table with load factor at most 1/2, called with the lock held
+        private AtomicReferenceArray<WeakReference<Object>> rebuild(AtomicReferenceArray<WeakReference<Object>> tab) {
+            List<WeakReference<Object>> live = new ArrayList<>();
+            for (int i = 0; i < tab.length(); i++) {
+                WeakReference<Object> ref = tab.get(i);
+                if (ref != null && ref.get() != null) {
+                    live.add(ref);
+                }
+            }
+            int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit((live.size() + 1) * 4));
+            AtomicReferenceArray<WeakReference<Object>> newTable = new AtomicReferenceArray<>(capacity);
+            int mask = capacity - 1;
+            for (WeakReference<Object> ref : live) {
+                Object instance = ref.get();
+                if (instance == null) {
+                    continue;
+                }
+                int i = System.identityHashCode(instance) & mask;
+                while (newTable.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                newTable.set(i, ref);
+            }
+            used = live.size();
+            table = newTable;
+            return newTable;
+        }
+    }
+}
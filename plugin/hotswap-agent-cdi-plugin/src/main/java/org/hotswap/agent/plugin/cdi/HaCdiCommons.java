@@ -83,9 +83,9 @@ public class HaCdiCommons {
      */
     public static void addBeanRegistryToContext(ClassPool classPool, CtClass ctClass) throws CannotCompileException, NotFoundException {
         CtField beanRegistryFld = CtField.make(
-            "public static java.util.Map " + BEAN_REGISTRY_FIELD + ";" , ctClass
+            "public static " + HaCdiBeanRegistry.class.getName() + " " + BEAN_REGISTRY_FIELD + ";" , ctClass
         );
-        ctClass.addField(beanRegistryFld);
+        ctClass.addField(beanRegistryFld, "new " + HaCdiBeanRegistry.class.getName() + "()");
     }
 
     /**
@@ -125,24 +125,7 @@ public class HaCdiCommons {
 
     private static String getRegistrationCode() {
         String result =
-            "if(" + BEAN_REGISTRY_FIELD + "==null){" +
-                BEAN_REGISTRY_FIELD + "=new java.util.concurrent.ConcurrentHashMap();" +
-            "}"+
-            "org.hotswap.agent.plugin.cdi.HaCdiCommons.registerContextClass(this.getScope(),this.getClass());" +
-            "if($_!=null && $1 instanceof javax.enterprise.inject.spi.Bean){" +
-                "String key=((javax.enterprise.inject.spi.Bean) $1).getBeanClass().getName();" +
-                "java.util.Map m=" + BEAN_REGISTRY_FIELD + ".get(key);" +
-                "if(m==null) {" +
-                    "synchronized(" + BEAN_REGISTRY_FIELD + "){" +
-                        "m=" + BEAN_REGISTRY_FIELD + ".get(key);" +
-                        "if(m==null) {" +
-                            "m=java.util.Collections.synchronizedMap(new java.util.WeakHashMap());" +
-                            BEAN_REGISTRY_FIELD + ".put(key,m);" +
-                        "}" +
-                    "}" +
-                "}" +
-                "m.put($_, java.lang.Boolean.TRUE);" +
-            "}";
+            BEAN_REGISTRY_FIELD + ".register(this.getScope(),this.getClass(),$1,$_);";
         return result;
     }
 
@@ -152,19 +135,18 @@ public class HaCdiCommons {
      * @param bean the bean
      * @return the bean instances
      */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @SuppressWarnings("unchecked")
     public static List<Object> getBeanInstances(Bean<?> bean) {
         List<Object> result = new ArrayList<>();
         Class<? extends Context> contextClass = getContextClass(bean.getScope());
-        if (contextClass != null) {
-          Map beanRegistry = (Map) getBeanRegistry(contextClass);
-          if (beanRegistry != null) {
-              Map m = (Map) beanRegistry.get(bean.getBeanClass().getName());
-              if (m != null) {
-                  result.addAll(m.keySet());
-              } else {
-                  LOGGER.debug("BeanRegistry is empty for bean class '{}'", bean.getBeanClass().getName());
-              }
+        if (contextClass != null && bean.getBeanClass() != null) {
+          Object beanRegistry = getBeanRegistry(contextClass);
+          if (beanRegistry instanceof HaCdiBeanRegistry) {
+              result.addAll(((HaCdiBeanRegistry) beanRegistry).getInstances(bean.getBeanClass()));
+          } else if (beanRegistry != null) {
+              // registry class defined by context classloader
+              result.addAll((List<Object>) ReflectionHelper.invoke(beanRegistry, beanRegistry.getClass(), "getInstances",
+                      new Class[] {Class.class}, bean.getBeanClass()));
           } else {
               LOGGER.error("BeanRegistry field not found in context class '{}'", contextClass.getName());
           }
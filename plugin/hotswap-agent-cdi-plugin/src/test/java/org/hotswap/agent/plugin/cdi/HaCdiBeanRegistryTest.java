@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.cdi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class HaCdiBeanRegistryTest {
+
+    @Test
+    public void testAddContains() {
+        HaCdiBeanRegistry.InstanceSet set = new HaCdiBeanRegistry.InstanceSet();
+        List<Object> instances = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Object instance = new Object();
+            instances.add(instance);
+            set.add(instance);
+            set.add(instance);
+        }
+
+        for (Object instance : instances) {
+            assertTrue(set.contains(instance));
+        }
+        assertFalse(set.contains(new Object()));
+        assertEquals("Instances are added only once", 100, set.getInstances().size());
+    }
+
+    @Test
+    public void testIdentity() {
+        HaCdiBeanRegistry.InstanceSet set = new HaCdiBeanRegistry.InstanceSet();
+        String instance = new String("bean");
+        set.add(instance);
+
+        assertTrue(set.contains(instance));
+        assertFalse("Equal but not identical instance", set.contains(new String("bean")));
+    }
+
+    @Test
+    public void testConcurrentAddContains() throws Exception {
+        final HaCdiBeanRegistry.InstanceSet set = new HaCdiBeanRegistry.InstanceSet();
+        final int threads = 8;
+        final int perThread = 2000;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final List<List<Object>> added = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final List<Object> own = new ArrayList<>();
+            added.add(own);
+            new Thread("InstanceSet-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            Object instance = new Object();
+                            own.add(instance);
+                            // register as the context does - lock free check, add if missing
+                            if (!set.contains(instance)) {
+                                set.add(instance);
+                            }
+                            if (!set.contains(instance)) {
+                                failure.compareAndSet(null, "Added instance not found");
+                            }
+                            // instances added earlier must survive rebuilds by other threads
+                            if (i % 100 == 0) {
+                                for (Object previous : own) {
+                                    if (!set.contains(previous)) {
+                                        failure.compareAndSet(null, "Instance lost after rebuild");
+                                    }
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get(), failure.get());
+        for (List<Object> own : added) {
+            for (Object instance : own) {
+                assertTrue(set.contains(instance));
+            }
+        }
+        assertEquals(threads * perThread, set.getInstances().size());
+    }
+
+    @Test
+    public void testClearedByGc() throws Exception {
+        HaCdiBeanRegistry.InstanceSet set = new HaCdiBeanRegistry.InstanceSet();
+        Object kept = new Object();
+        set.add(kept);
+        for (int i = 0; i < 1000; i++) {
+            set.add(new Object());
+        }
+
+        for (int i = 0; i < 50 && set.getInstances().size() > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, set.getInstances().size());
+        assertTrue(set.contains(kept));
+
+        // cleared slots are reused or dropped on rebuild
+        List<Object> instances = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Object instance = new Object();
+            instances.add(instance);
+            set.add(instance);
+        }
+        for (Object instance : instances) {
+            assertTrue(set.contains(instance));
+        }
+        assertTrue(set.contains(kept));
+        assertEquals(101, set.getInstances().size());
+    }
+}
@@ -27,9 +27,12 @@ import java.util.Map;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.CommandOrderingKey;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.OrderedCommand;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.owb.BeanReloadStrategy;
+import org.hotswap.agent.plugin.owb.OwbPlugin;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
@@ -41,7 +44,7 @@ import org.hotswap.agent.watch.WatchFileEvent;
  *
  * @author Vladimir Dvorak
  */
-public class BeanClassRefreshCommand extends MergeableCommand {
+public class BeanClassRefreshCommand extends MergeableCommand implements OrderedCommand {
 
     private static AgentLogger LOGGER = AgentLogger.getLogger(BeanClassRefreshCommand.class);
 
@@ -285,6 +288,14 @@ public class BeanClassRefreshCommand extends MergeableCommand {
         return createFound;
     }
 
+    /**
+     * OWB refreshes of the application classloader run sequentially.
+     */
+    @Override
+    public Object getOrderingKey() {
+        return new CommandOrderingKey(appClassLoader, OwbPlugin.class);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
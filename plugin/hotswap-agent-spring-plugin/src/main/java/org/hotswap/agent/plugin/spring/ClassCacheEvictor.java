@@ -0,0 +1,344 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.spring;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+
+/**
+ * Evict cache entries keyed by redefined classes and their subtypes.
+ * <p/>
+ * Cache key is resolved to the classes it references:
+ * <ul>
+ * <li>Class, Type (parameterized type arguments, array component, bounds)</li>
+ * <li>reflective element (Method, Field, Constructor, Parameter) - its declaring class</li>
+ * <li>other key objects (e.g. Spring AnnotationCacheKey, ResolvableType, Property) - values of their Class, Type
+ * and AnnotatedElement fields, keys of the same type are resolved recursively</li>
+ * </ul>
+ * If a key cannot be resolved, affected entries cannot be identified and the whole cache is cleared.
+ */
+public class ClassCacheEvictor {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ClassCacheEvictor.class);
+
+    // maximum depth of nested keys / types
+    private static final int MAX_DEPTH = 4;
+
+    private final Set<String> classNames;
+
+    // packages of redefined classes
+    private final Set<String> packageNames = new HashSet<>();
+
+    // class -> is the class or any supertype redefined
+    private final Map<Class<?>, Boolean> affectedClasses = new HashMap<>();
+
+    // names of redefined classes and of affected subtypes resolved so far
+    private final Set<String> affectedClassNames;
+
+    // key type -> fields referencing classes
+    private final Map<Class<?>, List<Field>> keyFields = new HashMap<>();
+
+    /**
+     * @param classNames names of redefined classes
+     */
+    public ClassCacheEvictor(Collection<String> classNames) {
+        this.classNames = new HashSet<>(classNames);
+        this.affectedClassNames = new HashSet<>(classNames);
+        for (String className : classNames) {
+            packageNames.add(getPackageName(className));
+        }
+    }
+
+    /**
+     * Evict entries of all static caches (Map fields) declared by a class.
+     *
+     * @param cacheHolder class with static caches, e.g. ReflectionUtils
+     */
+    public void evictStaticCaches(Class<?> cacheHolder) {
+        for (Field field : cacheHolder.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && Map.class.isAssignableFrom(field.getType())) {
+                try {
+                    field.setAccessible(true);
+                    Map<?, ?> cache = (Map<?, ?>) field.get(null);
+                    if (cache != null) {
+                        evict(cache, cacheHolder.getSimpleName() + "." + field.getName());
+                    }
+                } catch (Exception e) {
+                    LOGGER.debug("Unable to evict {}.{} cache.", e, cacheHolder.getName(), field.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Evict entries keyed by redefined classes, clear the cache if a key cannot be resolved.
+     *
+     * @param cache the cache
+     * @param name  cache name for logging
+     */
+    public void evict(Map<?, ?> cache, String name) {
+        if (cache instanceof ConcurrentMap) {
+            doEvict(cache, name);
+        } else {
+            // e.g. synchronized WeakHashMap in older versions
+            synchronized (cache) {
+                doEvict(cache, name);
+            }
+        }
+    }
+
+    private void doEvict(Map<?, ?> cache, String name) {
+        List<Object> evicted = new ArrayList<>();
+        for (Object key : cache.keySet()) {
+            Boolean affected = isAffectedKey(key, 0);
+            if (affected == null) {
+                cache.clear();
+                LOGGER.trace("Cache cleared: {} (unresolved key type {})", name, key.getClass().getName());
+                return;
+            }
+            if (affected) {
+                evicted.add(key);
+            }
+        }
+        for (Object key : evicted) {
+            cache.remove(key);
+        }
+        if (!evicted.isEmpty()) {
+            LOGGER.trace("Cache evicted: {} ({} entries)", name, evicted.size());
+        }
+    }
+
+    /**
+     * Check whether the class or any of its supertypes is redefined.
+     *
+     * @param clazz the class
+     * @return true if affected
+     */
+    public boolean isAffected(Class<?> clazz) {
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        if (clazz.isPrimitive()) {
+            return false;
+        }
+        Boolean ret = affectedClasses.get(clazz);
+        if (ret == null) {
+            ret = classNames.contains(clazz.getName());
+            if (!ret && clazz.getSuperclass() != null) {
+                ret = isAffected(clazz.getSuperclass());
+            }
+            for (Class<?> iface : clazz.getInterfaces()) {
+                if (ret) {
+                    break;
+                }
+                ret = isAffected(iface);
+            }
+            affectedClasses.put(clazz, ret);
+            if (ret) {
+                affectedClassNames.add(clazz.getName());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Check whether the class is redefined (supertypes are not known by name).
+     *
+     * @param className class name
+     * @return true if redefined
+     */
+    public boolean isAffected(String className) {
+        return classNames.contains(className);
+    }
+
+    /**
+     * Check whether the class is redefined or an affected subtype already resolved by {@link #isAffected(Class)}.
+     *
+     * @param className class name
+     * @return true if known to be affected
+     */
+    public boolean isKnownAffected(String className) {
+        return affectedClassNames.contains(className);
+    }
+
+    /**
+     * Check whether the class is in a package of a redefined class.
+     *
+     * @param className class name
+     * @return true if in the same package as a redefined class
+     */
+    public boolean isInRedefinedPackage(String className) {
+        return packageNames.contains(getPackageName(className));
+    }
+
+    private static String getPackageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot > 0 ? className.substring(0, lastDot) : "";
+    }
+
+    /**
+     * Check whether an object (e.g. cache key or cached metadata) references an affected class,
+     * see the class description.
+     *
+     * @param object the object
+     * @return true if affected or if the object cannot be resolved
+     */
+    public boolean isAffectedObject(Object object) {
+        Boolean affected = isAffectedKey(object, 0);
+        return affected == null || affected;
+    }
+
+    /**
+     * @return true/false if the key references an affected class, null if the key cannot be resolved
+     */
+    Boolean isAffectedKey(Object key, int depth) {
+        if (key == null) {
+            return false;
+        }
+        if (key instanceof Type || key instanceof AnnotatedElement) {
+            return isAffectedElement(key, depth);
+        }
+        if (depth >= MAX_DEPTH || key.getClass().getName().startsWith("java.")) {
+            return null;
+        }
+
+        List<Field> fields = getKeyFields(key.getClass());
+        if (fields.isEmpty()) {
+            return null;
+        }
+        try {
+            for (Field field : fields) {
+                Object value = field.get(key);
+                Boolean affected = field.getType() == key.getClass() ? isAffectedKey(value, depth + 1)
+                        : isAffectedElement(value, depth);
+                if (affected == null || affected) {
+                    return affected;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        return false;
+    }
+
+    private Boolean isAffectedElement(Object element, int depth) {
+        if (element == null) {
+            return false;
+        }
+        if (element instanceof Class) {
+            return isAffected((Class<?>) element);
+        }
+        if (element instanceof Member) {
+            return isAffected(((Member) element).getDeclaringClass());
+        }
+        if (element instanceof Parameter) {
+            return isAffected(((Parameter) element).getDeclaringExecutable().getDeclaringClass());
+        }
+        if (element instanceof Package) {
+            return false;
+        }
+        if (depth >= MAX_DEPTH) {
+            return null;
+        }
+        if (element instanceof ParameterizedType) {
+            ParameterizedType type = (ParameterizedType) element;
+            return anyAffected(depth, type.getRawType(), type.getOwnerType(), type.getActualTypeArguments());
+        }
+        if (element instanceof GenericArrayType) {
+            return isAffectedElement(((GenericArrayType) element).getGenericComponentType(), depth + 1);
+        }
+        if (element instanceof WildcardType) {
+            WildcardType type = (WildcardType) element;
+            return anyAffected(depth, null, null, type.getUpperBounds(), type.getLowerBounds());
+        }
+        if (element instanceof TypeVariable) {
+            Object declaration = ((TypeVariable<?>) element).getGenericDeclaration();
+            // do not resolve bounds - a bound may reference the variable itself (T extends Comparable<T>)
+            return isAffectedElement(declaration, depth + 1);
+        }
+        if (element instanceof Type[]) {
+            return anyAffected(depth, null, null, (Type[]) element);
+        }
+        return null;
+    }
+
+    private Boolean anyAffected(int depth, Type first, Type second, Type[]... others) {
+        Boolean ret = isAffectedElement(first, depth + 1);
+        if (ret == null || ret) {
+            return ret;
+        }
+        ret = isAffectedElement(second, depth + 1);
+        if (ret == null || ret) {
+            return ret;
+        }
+        for (Type[] types : others) {
+            for (Type type : types) {
+                ret = isAffectedElement(type, depth + 1);
+                if (ret == null || ret) {
+                    return ret;
+                }
+            }
+        }
+        return false;
+    }
+
+    // instance fields of the key type holding a Class, Type, AnnotatedElement or a nested key of the same type
+    private List<Field> getKeyFields(Class<?> keyType) {
+        List<Field> ret = keyFields.get(keyType);
+        if (ret == null) {
+            ret = new ArrayList<>();
+            for (Class<?> c = keyType; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    Class<?> type = field.getType();
+                    if (!Modifier.isStatic(field.getModifiers()) && (Type.class.isAssignableFrom(type)
+                            || AnnotatedElement.class.isAssignableFrom(type) || type == Type[].class || type == keyType)) {
+                        try {
+                            field.setAccessible(true);
+                            ret.add(field);
+                        } catch (RuntimeException e) {
+                            // inaccessible field, the key cannot be resolved
+                            ret.clear();
+                            keyFields.put(keyType, ret);
+                            return ret;
+                        }
+                    }
+                }
+            }
+            keyFields.put(keyType, ret);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.spring;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ReflectionHelper;
+import org.springframework.beans.factory.support.AbstractBeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * Evict bean metadata of redefined classes if bean metadata caching is kept enabled
+ * ({@link SpringPlugin#CACHE_METADATA_PROPERTY}).
+ * <p/>
+ * Bean factories register in constructor, on class redefinition merged bean definitions of the class
+ * (and its subtypes) are removed from all registered factories. CGLIB caches are evicted as well,
+ * see {@link ResetCglibCaches}.
+ */
+public class ResetBeanMetadataCaches {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ResetBeanMetadataCaches.class);
+
+    private static final Set<DefaultListableBeanFactory> beanFactories =
+            Collections.newSetFromMap(new WeakHashMap<DefaultListableBeanFactory, Boolean>());
+
+    /**
+     * Register bean factory with metadata caching enabled (called from DefaultListableBeanFactory constructor).
+     *
+     * @param beanFactory the bean factory
+     */
+    public static void register(DefaultListableBeanFactory beanFactory) {
+        synchronized (beanFactories) {
+            beanFactories.add(beanFactory);
+        }
+    }
+
+    /**
+     * Evict metadata of a redefined class (called by a reflection command after redefinition).
+     *
+     * @param className name of the redefined class
+     */
+    public static void evict(String className) {
+        evict(Collections.singleton(className));
+    }
+
+    /**
+     * Evict metadata of redefined classes.
+     *
+     * @param classNames names of redefined classes
+     */
+    public static void evict(Collection<String> classNames) {
+        List<DefaultListableBeanFactory> factories;
+        synchronized (beanFactories) {
+            if (beanFactories.isEmpty()) {
+                // metadata caching disabled
+                return;
+            }
+            factories = new ArrayList<>(beanFactories);
+        }
+
+        ClassCacheEvictor evictor = new ClassCacheEvictor(classNames);
+        for (DefaultListableBeanFactory beanFactory : factories) {
+            evictMergedBeanDefinitions(beanFactory, evictor);
+        }
+        ResetCglibCaches.evict(evictor, ResetBeanMetadataCaches.class.getClassLoader());
+    }
+
+    private static void evictMergedBeanDefinitions(DefaultListableBeanFactory beanFactory, ClassCacheEvictor evictor) {
+        // noinspection unchecked
+        Map<String, RootBeanDefinition> mergedBeanDefinitions = (Map<String, RootBeanDefinition>)
+                ReflectionHelper.getNoException(beanFactory, AbstractBeanFactory.class, "mergedBeanDefinitions");
+        if (mergedBeanDefinitions == null) {
+            LOGGER.debug("AbstractBeanFactory.mergedBeanDefinitions not found, clearing all bean metadata.");
+            beanFactory.clearMetadataCache();
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        for (Map.Entry<String, RootBeanDefinition> entry : mergedBeanDefinitions.entrySet()) {
+            if (isAffected(entry.getValue(), evictor)) {
+                evicted.add(entry.getKey());
+            }
+        }
+        for (String beanName : evicted) {
+            mergedBeanDefinitions.remove(beanName);
+        }
+        if (!evicted.isEmpty()) {
+            LOGGER.debug("Merged bean definitions evicted: {}", evicted);
+        }
+    }
+
+    private static boolean isAffected(RootBeanDefinition beanDefinition, ClassCacheEvictor evictor) {
+        if (beanDefinition.hasBeanClass() ? evictor.isAffected(beanDefinition.getBeanClass())
+                : beanDefinition.getBeanClassName() != null && evictor.isAffected(beanDefinition.getBeanClassName())) {
+            return true;
+        }
+        // constructor or factory method (e.g. @Bean method of a redefined configuration)
+        Object resolved = ReflectionHelper.getNoException(beanDefinition, RootBeanDefinition.class, "resolvedConstructorOrFactoryMethod");
+        if (resolved instanceof Member && evictor.isAffected(((Member) resolved).getDeclaringClass())) {
+            return true;
+        }
+        // resolved target type, qualified element ...
+        return evictor.isAffectedObject(beanDefinition);
+    }
+}
@@ -28,6 +28,7 @@ import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -54,8 +55,22 @@ public class ResetBeanPostProcessorCaches {
      * @param beanFactory beanFactory to use
      */
     public static void reset(DefaultListableBeanFactory beanFactory) {
+        reset(beanFactory, null);
+    }
+
+    /**
+     * Evict cache entries of redefined classes (and their subtypes) from post processors associated with a bean
+     * factory. If the classes are unknown, reset all caches.
+     *
+     * @param beanFactory beanFactory to use
+     * @param classNames  names of redefined classes or null
+     */
+    public static void reset(DefaultListableBeanFactory beanFactory, Collection<String> classNames) {
         Class<?> c = getReflectionUtilsClassOrNull();
-        if (c != null) {
+        ClassCacheEvictor evictor = classNames != null && !classNames.isEmpty() ? new ClassCacheEvictor(classNames) : null;
+        if (c != null && evictor != null) {
+            evictor.evictStaticCaches(c);
+        } else if (c != null) {
             try {
                 Method m = c.getDeclaredMethod("clearCache");
                 m.invoke(c);
@@ -78,20 +93,23 @@ public class ResetBeanPostProcessorCaches {
         }
         for (BeanPostProcessor bpp : beanFactory.getBeanPostProcessors()) {
             if (bpp instanceof AutowiredAnnotationBeanPostProcessor) {
-                resetAutowiredAnnotationBeanPostProcessorCache((AutowiredAnnotationBeanPostProcessor)bpp);
+                resetAutowiredAnnotationBeanPostProcessorCache((AutowiredAnnotationBeanPostProcessor)bpp, evictor);
             } else if (bpp instanceof InitDestroyAnnotationBeanPostProcessor) {
-                resetInitDestroyAnnotationBeanPostProcessorCache((InitDestroyAnnotationBeanPostProcessor)bpp);
+                resetInitDestroyAnnotationBeanPostProcessorCache((InitDestroyAnnotationBeanPostProcessor)bpp, evictor);
             }
         }
     }
 
     public static void resetInitDestroyAnnotationBeanPostProcessorCache(InitDestroyAnnotationBeanPostProcessor bpp) {
+        resetInitDestroyAnnotationBeanPostProcessorCache(bpp, null);
+    }
+
+    private static void resetInitDestroyAnnotationBeanPostProcessorCache(InitDestroyAnnotationBeanPostProcessor bpp, ClassCacheEvictor evictor) {
         try {
             Field field = InitDestroyAnnotationBeanPostProcessor.class.getDeclaredField("lifecycleMetadataCache");
             field.setAccessible(true);
             Map lifecycleMetadataCache = (Map) field.get(bpp);
-            lifecycleMetadataCache.clear();
-            LOGGER.trace("Cache cleared: InitDestroyAnnotationBeanPostProcessor.lifecycleMetadataCache");
+            clear(lifecycleMetadataCache, "InitDestroyAnnotationBeanPostProcessor.lifecycleMetadataCache", evictor);
         } catch (Exception e) {
             throw new IllegalStateException("Unable to clear InitDestroyAnnotationBeanPostProcessor.lifecycleMetadataCache", e);
         }
@@ -99,13 +117,16 @@ public class ResetBeanPostProcessorCaches {
 
     // @Autowired cache
     public static void resetAutowiredAnnotationBeanPostProcessorCache(AutowiredAnnotationBeanPostProcessor bpp) {
+        resetAutowiredAnnotationBeanPostProcessorCache(bpp, null);
+    }
+
+    private static void resetAutowiredAnnotationBeanPostProcessorCache(AutowiredAnnotationBeanPostProcessor bpp, ClassCacheEvictor evictor) {
         try {
             Field field = AutowiredAnnotationBeanPostProcessor.class.getDeclaredField("candidateConstructorsCache");
             field.setAccessible(true);
             // noinspection unchecked
             Map<Class<?>, Constructor<?>[]> candidateConstructorsCache = (Map<Class<?>, Constructor<?>[]>) field.get(bpp);
-            candidateConstructorsCache.clear();
-            LOGGER.debug("Cache cleared: AutowiredAnnotationBeanPostProcessor.candidateConstructorsCache");
+            clear(candidateConstructorsCache, "AutowiredAnnotationBeanPostProcessor.candidateConstructorsCache", evictor);
         } catch (Exception e) {
             throw new IllegalStateException("Unable to clear AutowiredAnnotationBeanPostProcessor.candidateConstructorsCache", e);
         }
@@ -115,12 +136,20 @@ public class ResetBeanPostProcessorCaches {
             field.setAccessible(true);
             //noinspection unchecked
             Map<Class<?>, InjectionMetadata> injectionMetadataCache = (Map<Class<?>, InjectionMetadata>) field.get(bpp);
-            injectionMetadataCache.clear();
-            // noinspection unchecked
-            LOGGER.debug("Cache cleared: AutowiredAnnotationBeanPostProcessor.injectionMetadataCache");
+            clear(injectionMetadataCache, "AutowiredAnnotationBeanPostProcessor.injectionMetadataCache", evictor);
         } catch (Exception e) {
             throw new IllegalStateException("Unable to clear AutowiredAnnotationBeanPostProcessor.injectionMetadataCache", e);
         }
 
     }
+
+    // evict entries of redefined classes, or clear the whole cache if the classes are not known
+    private static void clear(Map cache, String name, ClassCacheEvictor evictor) {
+        if (evictor != null) {
+            evictor.evict(cache, name);
+        } else {
+            cache.clear();
+            LOGGER.trace("Cache cleared: {}", name);
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.spring;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.util.ReflectionHelper;
+
+/**
+ * Evict CGLIB generated classes of redefined classes, used if CGLIB cache is kept enabled
+ * ({@link SpringPlugin#CACHE_METADATA_PROPERTY}).
+ * <p/>
+ * CGLIB (3.2+) caches generated classes per classloader in AbstractClassGenerator.CACHE, the cache key is generated
+ * by KeyFactory and contains names of the superclass, interfaces and callback types. An entry is evicted if any
+ * class named in the key is a redefined class or its subtype. Names are checked against redefined classes and their
+ * subtypes resolved by the evictor (e.g. bean classes), other classes are loaded to check supertypes only if
+ * in a package of a redefined class. Spring AOP validated classes are evicted as well.
+ */
+public class ResetCglibCaches {
+    private static AgentLogger LOGGER = AgentLogger.getLogger(ResetCglibCaches.class);
+
+    private static final String[] GENERATOR_CLASSES = {
+            "org.springframework.cglib.core.AbstractClassGenerator",
+            "net.sf.cglib.core.AbstractClassGenerator"
+    };
+
+    private static final Pattern CLASS_NAME = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)+");
+
+    /**
+     * Evict generated classes of redefined classes.
+     *
+     * @param evictor     the evictor of redefined classes
+     * @param classLoader classloader to resolve CGLIB
+     */
+    public static void evict(ClassCacheEvictor evictor, ClassLoader classLoader) {
+        for (String generatorClass : GENERATOR_CLASSES) {
+            try {
+                evictGeneratedClasses(classLoader.loadClass(generatorClass), evictor);
+            } catch (ClassNotFoundException e) {
+                LOGGER.trace("CGLIB {} not found", generatorClass);
+            }
+        }
+        try {
+            evictor.evictStaticCaches(classLoader.loadClass("org.springframework.aop.framework.CglibAopProxy"));
+        } catch (ClassNotFoundException e) {
+            LOGGER.trace("Spring AOP not found");
+        }
+    }
+
+    private static void evictGeneratedClasses(Class<?> generatorClass, ClassCacheEvictor evictor) {
+        Map<?, ?> cache = (Map<?, ?>) ReflectionHelper.getNoException(null, generatorClass, "CACHE");
+        if (cache == null) {
+            LOGGER.debug("{}.CACHE not found (CGLIB version before 3.2), generated classes are not evicted.", generatorClass.getName());
+            return;
+        }
+        for (Object classLoaderData : cache.values()) {
+            Object generatedClasses = ReflectionHelper.getNoException(classLoaderData, classLoaderData.getClass(), "generatedClasses");
+            Map<?, ?> generated = generatedClasses != null ?
+                    (Map<?, ?>) ReflectionHelper.getNoException(generatedClasses, generatedClasses.getClass(), "map") : null;
+            Reference<?> classLoaderRef = (Reference<?>) ReflectionHelper.getNoException(classLoaderData, classLoaderData.getClass(), "classLoader");
+            ClassLoader classLoader = classLoaderRef != null ? (ClassLoader) classLoaderRef.get() : null;
+            if (generated == null || classLoader == null) {
+                continue;
+            }
+
+            List<Object> evicted = new ArrayList<>();
+            for (Object key : generated.keySet()) {
+                if (isAffectedKey(key, classLoader, evictor)) {
+                    evicted.add(key);
+                }
+            }
+            for (Object key : evicted) {
+                generated.remove(key);
+            }
+            if (!evicted.isEmpty()) {
+                LOGGER.debug("CGLIB generated classes evicted: {}", evicted);
+            }
+        }
+    }
+
+    // key generated by KeyFactory - toString() lists key values including class names
+    static boolean isAffectedKey(Object key, ClassLoader classLoader, ClassCacheEvictor evictor) {
+        Matcher matcher = CLASS_NAME.matcher(String.valueOf(key));
+        while (matcher.find()) {
+            String className = matcher.group();
+            if (evictor.isKnownAffected(className)) {
+                return true;
+            }
+            if (!evictor.isInRedefinedPackage(className)) {
+                continue;
+            }
+            try {
+                if (evictor.isAffected(Class.forName(className, false, classLoader))) {
+                    return true;
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                // not a class name
+            }
+        }
+        return false;
+    }
+}
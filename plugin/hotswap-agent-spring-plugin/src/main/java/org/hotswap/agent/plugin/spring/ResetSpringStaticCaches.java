@@ -19,6 +19,7 @@
 package org.hotswap.agent.plugin.spring;
 
 import java.lang.reflect.Field;
+import java.util.Collection;
 import java.util.Map;
 
 import org.hotswap.agent.logging.AgentLogger;
@@ -38,6 +39,18 @@ import org.springframework.util.ReflectionUtils;
 public class ResetSpringStaticCaches {
     private static AgentLogger LOGGER = AgentLogger.getLogger(ResetSpringStaticCaches.class);
 
+    // classes holding static caches (cache names change between versions, all static maps are evicted)
+    private static final String[] CACHE_HOLDERS = {
+            "org.springframework.core.GenericTypeResolver",
+            "org.springframework.core.ResolvableType",
+            "org.springframework.core.annotation.AnnotationUtils",
+            "org.springframework.core.annotation.AnnotationsScanner",
+            "org.springframework.core.annotation.AnnotationTypeMappings",
+            "org.springframework.core.convert.Property",
+            "org.springframework.util.ReflectionUtils",
+            "org.springframework.beans.CachedIntrospectionResults"
+    };
+
     /**
      * Spring bean by type cache.
      *
@@ -88,6 +101,29 @@ public class ResetSpringStaticCaches {
         CachedIntrospectionResults.clearClassLoader(ResetSpringStaticCaches.class.getClassLoader());
     }
 
+    /**
+     * Evict cache entries of redefined classes and their subtypes, other entries are kept. If the classes are
+     * unknown, reset all caches.
+     *
+     * @param classNames names of redefined classes
+     */
+    public static void reset(Collection<String> classNames) {
+        if (classNames == null || classNames.isEmpty()) {
+            reset();
+            return;
+        }
+        ClassCacheEvictor evictor = new ClassCacheEvictor(classNames);
+        ClassLoader classLoader = ResetSpringStaticCaches.class.getClassLoader();
+        for (String cacheHolder : CACHE_HOLDERS) {
+            try {
+                evictor.evictStaticCaches(classLoader.loadClass(cacheHolder));
+            } catch (ClassNotFoundException e) {
+                LOGGER.trace("Cache holder {} not found (is Ok for other Spring versions)", cacheHolder);
+            }
+        }
+        LOGGER.debug("Spring static caches evicted for classes {}", classNames);
+    }
+
     private static void resetResolvableTypeCache() {
         ReflectionHelper.invokeNoException(null, "org.springframework.core.ResolvableType",
                 ResetSpringStaticCaches.class.getClassLoader(), "clearCache", new Class<?>[] {});
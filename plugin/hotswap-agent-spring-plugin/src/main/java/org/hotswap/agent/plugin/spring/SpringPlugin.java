@@ -29,11 +29,14 @@ import java.util.List;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.annotation.Init;
+import org.hotswap.agent.annotation.LoadEvent;
 import org.hotswap.agent.annotation.OnClassLoadEvent;
 import org.hotswap.agent.annotation.OnResourceFileEvent;
 import org.hotswap.agent.annotation.Plugin;
+import org.hotswap.agent.command.ReflectionCommand;
 import org.hotswap.agent.command.Scheduler;
 import org.hotswap.agent.config.PluginConfiguration;
+import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.javassist.CannotCompileException;
 import org.hotswap.agent.javassist.CtClass;
 import org.hotswap.agent.javassist.CtConstructor;
@@ -73,6 +76,12 @@ public class SpringPlugin {
      */
     private static final int WAIT_ON_CREATE = 600;
 
+    /**
+     * Keep bean metadata and CGLIB caches enabled, evict only entries of redefined classes
+     * (by default both caches are disabled).
+     */
+    public static final String CACHE_METADATA_PROPERTY = "spring.cacheMetadata";
+
     public static String[] basePackagePrefixes;
 
     @Init
@@ -87,6 +96,9 @@ public class SpringPlugin {
     @Init
     ClassLoader appClassLoader;
 
+    // CACHE_METADATA_PROPERTY of appClassLoader, resolved on first redefinition
+    private Boolean cacheMetadata;
+
     public void init() {
         LOGGER.info("Spring plugin initialized");
         this.registerBasePackageFromConfiguration();
@@ -151,6 +163,21 @@ public class SpringPlugin {
         });
     }
 
+    /**
+     * With {@link #CACHE_METADATA_PROPERTY} set evict cached bean metadata and CGLIB classes of any redefined class.
+     * Not limited to base packages - XML and @Bean defined beans, their superclasses or aspects may be anywhere.
+     */
+    @OnClassLoadEvent(classNameRegexp = ".*", events = LoadEvent.REDEFINE)
+    public void evictMetadataCaches(Class<?> original) {
+        if (cacheMetadata == null) {
+            cacheMetadata = isCacheMetadata(appClassLoader);
+        }
+        if (cacheMetadata) {
+            scheduler.scheduleCommand(new ReflectionCommand(this, ResetBeanMetadataCaches.class.getName(),
+                    "evict", appClassLoader, original.getName()));
+        }
+    }
+
     /**
      * Register both hotswap transformer AND watcher - in case of new file the file is not known
      * to JVM and hence no hotswap is called. The file may even exist, but until is loaded by Spring
@@ -237,9 +264,14 @@ public class SpringPlugin {
      * remains unfrozen, so bean (re)definition may be done by the plugin.
      */
     @OnClassLoadEvent(classNameRegexp = "org.springframework.beans.factory.support.DefaultListableBeanFactory")
-    public static void register(CtClass clazz) throws NotFoundException, CannotCompileException {
+    public static void register(CtClass clazz, ClassLoader classLoader) throws NotFoundException, CannotCompileException {
         StringBuilder src = new StringBuilder("{");
-        src.append("setCacheBeanMetadata(false);");
+        if (isCacheMetadata(classLoader)) {
+            // keep metadata cache, merged bean definitions of redefined classes are evicted
+            src.append(ResetBeanMetadataCaches.class.getName() + ".register(this);");
+        } else {
+            src.append("setCacheBeanMetadata(false);");
+        }
         // init a spring plugin with every appclassloader
         src.append(PluginManagerInvoker.buildInitializePlugin(SpringPlugin.class));
         src.append(PluginManagerInvoker.buildCallPluginMethod(SpringPlugin.class, "init",
@@ -268,7 +300,11 @@ public class SpringPlugin {
     }
 
     @OnClassLoadEvent(classNameRegexp = "org.springframework.aop.framework.CglibAopProxy")
-    public static void cglibAopProxyDisableCache(CtClass ctClass) throws NotFoundException, CannotCompileException {
+    public static void cglibAopProxyDisableCache(CtClass ctClass, ClassLoader classLoader) throws NotFoundException, CannotCompileException {
+        if (isCacheMetadata(classLoader)) {
+            LOGGER.debug("org.springframework.aop.framework.CglibAopProxy - cglib Enhancer cache kept, redefined classes are evicted");
+            return;
+        }
         CtMethod method = ctClass.getDeclaredMethod("createEnhancer");
         method.setBody("{" +
                 "org.springframework.cglib.proxy.Enhancer enhancer = new org.springframework.cglib.proxy.Enhancer();" +
@@ -278,4 +314,9 @@ public class SpringPlugin {
 
         LOGGER.debug("org.springframework.aop.framework.CglibAopProxy - cglib Enhancer cache disabled");
     }
+
+    private static boolean isCacheMetadata(ClassLoader classLoader) {
+        return Boolean.parseBoolean(PluginManager.getInstance().getPluginConfiguration(classLoader)
+                .getProperty(CACHE_METADATA_PROPERTY, "false").trim());
+    }
 }
@@ -19,19 +19,28 @@
 package org.hotswap.agent.plugin.spring.scanner;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.plugin.spring.ResetBeanMetadataCaches;
 import org.hotswap.agent.plugin.spring.ResetBeanPostProcessorCaches;
 import org.hotswap.agent.plugin.spring.ResetRequestMappingCaches;
 import org.hotswap.agent.plugin.spring.ResetSpringStaticCaches;
 import org.hotswap.agent.plugin.spring.SpringPlugin;
 import org.hotswap.agent.plugin.spring.getbean.ProxyReplacer;
+import org.hotswap.agent.util.ClassFileHeader;
 import org.hotswap.agent.util.PluginManagerInvoker;
 import org.hotswap.agent.util.ReflectionHelper;
+import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinitionHolder;
@@ -142,17 +151,68 @@ public class ClassPathBeanDefinitionScannerAgent {
      * @throws IOException error working with classDefinition
      */
     public static void refreshClass(String basePackage, byte[] classDefinition) throws IOException {
-        ResetSpringStaticCaches.reset();
+        refreshClasses(new String[]{basePackage}, new byte[][]{classDefinition});
+    }
 
-        ClassPathBeanDefinitionScannerAgent scannerAgent = getInstance(basePackage);
-        if (scannerAgent == null) {
-            LOGGER.error("basePackage '{}' not associated with any scannerAgent", basePackage);
-            return;
+    /**
+     * Refresh a change set of classes. Called by ClassPathBeanRefreshCommand with all classes merged into the command.
+     * <p/>
+     * All bean definitions are resolved first, then the beans are redefined in one step per scanner - Spring caches
+     * are reset and the configuration is frozen only once for the whole change set. A class that cannot be resolved
+     * is reported and skipped, other classes of the change set are still redefined.
+     *
+     * @param basePackages     base package of each class definition, used to obtain associated scanner.
+     * @param classDefinitions new class definitions
+     * @throws IOException error working with classDefinition
+     */
+    public static void refreshClasses(String[] basePackages, byte[][] classDefinitions) throws IOException {
+        Set<String> classNames = new HashSet<>();
+        for (byte[] classDefinition : classDefinitions) {
+            Set<String> names = getClassNames(classDefinition);
+            if (names == null) {
+                classNames = null;
+                break;
+            }
+            classNames.addAll(names);
+        }
+        ResetSpringStaticCaches.reset(classNames);
+        if (classNames != null) {
+            // proxies of the new beans must not be created from stale CGLIB classes
+            ResetBeanMetadataCaches.evict(classNames);
         }
 
-        BeanDefinition beanDefinition = scannerAgent.resolveBeanDefinition(classDefinition);
-        if (beanDefinition != null) {
-            scannerAgent.defineBean(beanDefinition);
+        Map<ClassPathBeanDefinitionScannerAgent, List<BeanDefinition>> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < classDefinitions.length; i++) {
+            ClassPathBeanDefinitionScannerAgent scannerAgent = getInstance(basePackages[i]);
+            if (scannerAgent == null) {
+                LOGGER.error("basePackage '{}' not associated with any scannerAgent", basePackages[i]);
+                continue;
+            }
+
+            BeanDefinition beanDefinition;
+            try {
+                beanDefinition = scannerAgent.resolveBeanDefinition(classDefinitions[i]);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Unable to resolve Spring bean definition of a class in package '{}', the class is not reloaded.",
+                        e, basePackages[i]);
+                continue;
+            }
+            if (beanDefinition != null) {
+                List<BeanDefinition> agentCandidates = candidates.get(scannerAgent);
+                if (agentCandidates == null) {
+                    agentCandidates = new ArrayList<>();
+                    candidates.put(scannerAgent, agentCandidates);
+                }
+                agentCandidates.add(beanDefinition);
+            }
+        }
+
+        for (Map.Entry<ClassPathBeanDefinitionScannerAgent, List<BeanDefinition>> entry : candidates.entrySet()) {
+            try {
+                entry.getKey().defineBeans(entry.getValue());
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to redefine Spring beans of scanner with base packages {}.", e, entry.getKey().basePackages);
+            }
         }
 
         reloadFlag = false;
@@ -161,41 +221,89 @@ public class ClassPathBeanDefinitionScannerAgent {
 
     /**
      * Resolve candidate to a bean definition and (re)load in Spring.
-     * Synchronize to avoid parallel bean definition - usually on reload the beans are interrelated
-     * and parallel load will cause concurrent modification exception.
      *
      * @param candidate the candidate to reload
      */
     public void defineBean(BeanDefinition candidate) {
-        synchronized (getClass()) { // TODO sychronize on DefaultListableFactory.beanDefinitionMap?
+        defineBeans(Collections.singletonList(candidate));
+    }
 
-            ScopeMetadata scopeMetadata = this.scopeMetadataResolver.resolveScopeMetadata(candidate);
-            candidate.setScope(scopeMetadata.getScopeName());
-            String beanName = this.beanNameGenerator.generateBeanName(candidate, registry);
+    /**
+     * Resolve candidates to bean definitions and (re)load them in Spring.
+     * Synchronize to avoid parallel bean definition - usually on reload the beans are interrelated
+     * and parallel load will cause concurrent modification exception.
+     * <p/>
+     * Existing definitions are removed first (destroying existing singletons and their dependents), then all candidates
+     * are registered, caches are reset and the configuration is frozen once. Singletons destroyed by the removal
+     * are created again in dependency order.
+     * <p/>
+     * Failure of a candidate does not affect the others - if its definition cannot be registered, the removed
+     * definition is registered again.
+     *
+     * @param candidates the candidates to reload
+     */
+    public void defineBeans(List<BeanDefinition> candidates) {
+        synchronized (getClass()) { // TODO sychronize on DefaultListableFactory.beanDefinitionMap?
 
-            if (candidate instanceof AbstractBeanDefinition) {
-                postProcessBeanDefinition((AbstractBeanDefinition) candidate, beanName);
+            Map<String, BeanDefinition> beanDefinitions = new LinkedHashMap<>();
+            Map<String, ScopeMetadata> scopeMetadatas = new HashMap<>();
+            for (BeanDefinition candidate : candidates) {
+                try {
+                    ScopeMetadata scopeMetadata = this.scopeMetadataResolver.resolveScopeMetadata(candidate);
+                    candidate.setScope(scopeMetadata.getScopeName());
+                    String beanName = this.beanNameGenerator.generateBeanName(candidate, registry);
+
+                    if (candidate instanceof AbstractBeanDefinition) {
+                        postProcessBeanDefinition((AbstractBeanDefinition) candidate, beanName);
+                    }
+                    if (candidate instanceof AnnotatedBeanDefinition) {
+                        processCommonDefinitionAnnotations((AnnotatedBeanDefinition) candidate);
+                    }
+                    beanDefinitions.put(beanName, candidate);
+                    scopeMetadatas.put(beanName, scopeMetadata);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to prepare Spring bean definition of class '{}', the bean is not reloaded.",
+                            e, candidate.getBeanClassName());
+                }
             }
-            if (candidate instanceof AnnotatedBeanDefinition) {
-                processCommonDefinitionAnnotations((AnnotatedBeanDefinition) candidate);
-            }
-
-            removeIfExists(beanName);
-            if (checkCandidate(beanName, candidate)) {
 
-                BeanDefinitionHolder definitionHolder = new BeanDefinitionHolder(candidate, beanName);
-                definitionHolder = applyScopedProxyMode(scopeMetadata, definitionHolder, registry);
-
-                LOGGER.reload("Registering Spring bean '{}'", beanName);
-                LOGGER.debug("Bean definition '{}'", beanName, candidate);
-                registerBeanDefinition(definitionHolder, registry);
+            DefaultListableBeanFactory bf = maybeRegistryToBeanFactory();
+            List<String> destroyedSingletons = bf != null ? getSingletonsInDependencyOrder(bf, beanDefinitions.keySet())
+                    : Collections.<String>emptyList();
+
+            Map<String, BeanDefinition> removedDefinitions = removeIfExists(beanDefinitions.keySet());
+
+            boolean registered = false;
+            for (Map.Entry<String, BeanDefinition> entry : beanDefinitions.entrySet()) {
+                String beanName = entry.getKey();
+                BeanDefinition candidate = entry.getValue();
+                try {
+                    if (checkCandidate(beanName, candidate)) {
+                        BeanDefinitionHolder definitionHolder = new BeanDefinitionHolder(candidate, beanName);
+                        definitionHolder = applyScopedProxyMode(scopeMetadatas.get(beanName), definitionHolder, registry);
+
+                        LOGGER.reload("Registering Spring bean '{}'", beanName);
+                        LOGGER.debug("Bean definition '{}'", beanName, candidate);
+                        registerBeanDefinition(definitionHolder, registry);
+                        registered = true;
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to register Spring bean '{}'.", e, beanName);
+                }
+                if (!registry.containsBeanDefinition(beanName) && restoreBeanDefinition(beanName, removedDefinitions.get(beanName))) {
+                    registered = true;
+                }
+            }
 
-                DefaultListableBeanFactory bf = maybeRegistryToBeanFactory();
+            if (registered) {
                 if (bf != null)
                     ResetRequestMappingCaches.reset(bf);
 
                 ProxyReplacer.clearAllProxies();
                 freezeConfiguration();
+
+                if (bf != null)
+                    recreateSingletons(bf, destroyedSingletons);
             }
         }
 
@@ -203,23 +311,103 @@ public class ClassPathBeanDefinitionScannerAgent {
     }
 
     /**
-     * If registry contains the bean, remove it first (destroying existing singletons).
+     * If registry contains the beans, remove them first (destroying existing singletons).
      *
-     * @param beanName name of the bean
+     * @param beanNames names of the beans
+     * @return removed definitions by bean name
      */
-    private void removeIfExists(String beanName) {
-        if (registry.containsBeanDefinition(beanName)) {
-            LOGGER.debug("Removing bean definition '{}'", beanName);
-            DefaultListableBeanFactory bf = maybeRegistryToBeanFactory();
-            if (bf != null) {
-                ResetRequestMappingCaches.reset(bf);
+    private Map<String, BeanDefinition> removeIfExists(Collection<String> beanNames) {
+        Map<String, BeanDefinition> existing = new LinkedHashMap<>();
+        Set<String> classNames = new HashSet<>();
+        for (String beanName : beanNames) {
+            if (registry.containsBeanDefinition(beanName)) {
+                BeanDefinition beanDefinition = registry.getBeanDefinition(beanName);
+                existing.put(beanName, beanDefinition);
+                String beanClassName = beanDefinition.getBeanClassName();
+                if (beanClassName == null) {
+                    classNames = null;
+                } else if (classNames != null) {
+                    classNames.add(beanClassName);
+                }
             }
+        }
+        if (existing.isEmpty()) {
+            return existing;
+        }
+
+        DefaultListableBeanFactory bf = maybeRegistryToBeanFactory();
+        if (bf != null) {
+            ResetRequestMappingCaches.reset(bf);
+        }
+        for (String beanName : existing.keySet()) {
+            LOGGER.debug("Removing bean definition '{}'", beanName);
             registry.removeBeanDefinition(beanName);
+        }
+
+        ResetSpringStaticCaches.reset(classNames);
+        if (bf != null) {
+            ResetBeanPostProcessorCaches.reset(bf, classNames);
+        }
+        return existing;
+    }
+
+    // register again definition removed for a bean that failed to reload
+    private boolean restoreBeanDefinition(String beanName, BeanDefinition removedDefinition) {
+        if (removedDefinition == null) {
+            return false;
+        }
+        try {
+            registry.registerBeanDefinition(beanName, removedDefinition);
+            LOGGER.warning("Spring bean '{}' not reloaded, previous definition restored.", beanName);
+            return true;
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to restore definition of Spring bean '{}'.", e, beanName);
+            return false;
+        }
+    }
+
+    // instantiated singletons of the beans and their dependents, each bean precedes beans depending on it
+    private static List<String> getSingletonsInDependencyOrder(DefaultListableBeanFactory bf, Collection<String> beanNames) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String beanName : beanNames) {
+            addSingletonAndDependents(bf, beanName, result);
+        }
+        return new ArrayList<>(result);
+    }
 
-            ResetSpringStaticCaches.reset();
-            if (bf != null) {
-                ResetBeanPostProcessorCaches.reset(bf);
+    private static void addSingletonAndDependents(DefaultListableBeanFactory bf, String beanName, Set<String> result) {
+        if (!bf.containsSingleton(beanName) || !result.add(beanName)) {
+            return;
+        }
+        for (String dependentBean : bf.getDependentBeans(beanName)) {
+            addSingletonAndDependents(bf, dependentBean, result);
+        }
+    }
+
+    // create again singletons destroyed by bean redefinition (getBean() resolves dependencies first)
+    private static void recreateSingletons(DefaultListableBeanFactory bf, List<String> beanNames) {
+        for (String beanName : beanNames) {
+            if (!bf.containsBeanDefinition(beanName) || bf.containsSingleton(beanName)) {
+                continue;
             }
+            try {
+                BeanDefinition beanDefinition = bf.getMergedBeanDefinition(beanName);
+                if (beanDefinition.isSingleton() && !beanDefinition.isAbstract() && !beanDefinition.isLazyInit()) {
+                    bf.getBean(beanName);
+                }
+            } catch (BeansException e) {
+                LOGGER.warning("Unable to recreate Spring singleton '{}', it will be created on next use.", e, beanName);
+            }
+        }
+    }
+
+    // name of the redefined class, null if the class definition cannot be read (caches are reset completely)
+    private static Set<String> getClassNames(byte[] classDefinition) {
+        try {
+            return Collections.singleton(ClassFileHeader.read(classDefinition).getClassName());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read class name, all Spring caches will be reset.", e);
+            return null;
         }
     }
 
@@ -20,22 +20,29 @@ package org.hotswap.agent.plugin.spring.scanner;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.CommandOrderingKey;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.OrderedCommand;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.plugin.spring.SpringPlugin;
 import org.hotswap.agent.util.IOUtils;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Do refresh Spring class (scanned by classpath scanner) based on URI or byte[] definition.
  *
  * This commands merges events of watcher.event(CREATE) and transformer hotswap reload to a single refresh command.
+ * Commands of all classes of the application classloader are equal - a change set of many classes (e.g. a refactoring)
+ * is merged into a single command, which refreshes all beans and resets Spring caches only once.
  */
-public class ClassPathBeanRefreshCommand extends MergeableCommand {
+public class ClassPathBeanRefreshCommand extends MergeableCommand implements OrderedCommand {
     private static AgentLogger LOGGER = AgentLogger.getLogger(ClassPathBeanRefreshCommand.class);
 
     ClassLoader appClassLoader;
@@ -68,31 +75,53 @@ public class ClassPathBeanRefreshCommand extends MergeableCommand {
 
     @Override
     public void executeCommand() {
-        if (isDeleteEvent()) {
-            LOGGER.trace("Skip Spring reload for delete event on class '{}'", className);
-            return;
+        // all classes of the change set, merged commands are grouped by class name
+        Map<String, List<ClassPathBeanRefreshCommand>> changes = new LinkedHashMap<>();
+        List<ClassPathBeanRefreshCommand> mergedCommands = new ArrayList<>();
+        mergedCommands.add(this);
+        for (Command command : getMergedCommands()) {
+            mergedCommands.add((ClassPathBeanRefreshCommand) command);
+        }
+        for (ClassPathBeanRefreshCommand command : mergedCommands) {
+            List<ClassPathBeanRefreshCommand> classCommands = changes.get(command.className);
+            if (classCommands == null) {
+                classCommands = new ArrayList<>();
+                changes.put(command.className, classCommands);
+            }
+            classCommands.add(command);
         }
 
-        try {
-            if (classDefinition == null) {
-                try {
-                    this.classDefinition = IOUtils.toByteArray(event.getURI());
-                } catch (IllegalArgumentException e) {
-                    LOGGER.debug("File {} not found on filesystem (deleted?). Unable to refresh associated Spring bean.", event.getURI());
-                    return;
-                }
+        List<String> basePackages = new ArrayList<>();
+        List<byte[]> classDefinitions = new ArrayList<>();
+        for (Map.Entry<String, List<ClassPathBeanRefreshCommand>> change : changes.entrySet()) {
+            if (isDeleteEvent(change.getValue())) {
+                LOGGER.trace("Skip Spring reload for delete event on class '{}'", change.getKey());
+                continue;
+            }
+            // the latest definition of the class
+            ClassPathBeanRefreshCommand command = change.getValue().get(change.getValue().size() - 1);
+            byte[] classDefinition = command.getClassDefinition();
+            if (classDefinition != null) {
+                basePackages.add(command.basePackage);
+                classDefinitions.add(classDefinition);
             }
+        }
+        if (classDefinitions.isEmpty()) {
+            return;
+        }
 
-            LOGGER.debug("Executing ClassPathBeanDefinitionScannerAgent.refreshClass('{}')", className);
+        try {
+            LOGGER.debug("Executing ClassPathBeanDefinitionScannerAgent.refreshClasses({})", changes.keySet());
 
             Class<?> clazz = Class.forName("org.hotswap.agent.plugin.spring.scanner.ClassPathBeanDefinitionScannerAgent", true, appClassLoader);
             Method method  = clazz.getDeclaredMethod(
-                    "refreshClass", new Class[] {String.class, byte[].class});
-            method.invoke(null, basePackage, classDefinition);
+                    "refreshClasses", new Class[] {String[].class, byte[][].class});
+            method.invoke(null, basePackages.toArray(new String[basePackages.size()]),
+                    classDefinitions.toArray(new byte[classDefinitions.size()][]));
         } catch (NoSuchMethodException e) {
             throw new IllegalStateException("Plugin error, method not found", e);
         } catch (InvocationTargetException e) {
-            LOGGER.error("Error refreshing class {} in classLoader {}", e, className, appClassLoader);
+            LOGGER.error("Error refreshing classes {} in classLoader {}", e, changes.keySet(), appClassLoader);
         } catch (IllegalAccessException e) {
             throw new IllegalStateException("Plugin error, illegal access", e);
         } catch (ClassNotFoundException e) {
@@ -101,18 +130,23 @@ public class ClassPathBeanRefreshCommand extends MergeableCommand {
 
     }
 
+    // class definition from the transformer or the class file of the watcher event
+    private byte[] getClassDefinition() {
+        if (classDefinition == null) {
+            try {
+                this.classDefinition = IOUtils.toByteArray(event.getURI());
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("File {} not found on filesystem (deleted?). Unable to refresh associated Spring bean.", event.getURI());
+            }
+        }
+        return classDefinition;
+    }
+
     /**
-     * Check all merged events for delete and create events. If delete without create is found, than assume
+     * Check all merged events of a class for delete and create events. If delete without create is found, than assume
      * file was deleted.
      */
-    private boolean isDeleteEvent() {
-        // for all merged commands including this command
-        List<ClassPathBeanRefreshCommand> mergedCommands = new ArrayList<>();
-        for (Command command : getMergedCommands()) {
-            mergedCommands.add((ClassPathBeanRefreshCommand) command);
-        }
-        mergedCommands.add(this);
-
+    private static boolean isDeleteEvent(List<ClassPathBeanRefreshCommand> mergedCommands) {
         boolean createFound = false;
         boolean deleteFound = false;
         for (ClassPathBeanRefreshCommand command : mergedCommands) {
@@ -128,6 +162,14 @@ public class ClassPathBeanRefreshCommand extends MergeableCommand {
         return !createFound && deleteFound;
     }
 
+    /**
+     * Bean refreshes of the application classloader are executed one after another.
+     */
+    @Override
+    public Object getOrderingKey() {
+        return new CommandOrderingKey(appClassLoader, SpringPlugin.class);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -135,17 +177,12 @@ public class ClassPathBeanRefreshCommand extends MergeableCommand {
 
         ClassPathBeanRefreshCommand that = (ClassPathBeanRefreshCommand) o;
 
-        if (!appClassLoader.equals(that.appClassLoader)) return false;
-        if (!className.equals(that.className)) return false;
-
-        return true;
+        return appClassLoader.equals(that.appClassLoader);
     }
 
     @Override
     public int hashCode() {
-        int result = appClassLoader.hashCode();
-        result = 31 * result + className.hashCode();
-        return result;
+        return appClassLoader.hashCode();
     }
 
     @Override
@@ -154,6 +191,7 @@ public class ClassPathBeanRefreshCommand extends MergeableCommand {
                 "appClassLoader=" + appClassLoader +
                 ", basePackage='" + basePackage + '\'' +
                 ", className='" + className + '\'' +
+                ", mergedCommands=" + getMergedCommands().size() +
                 '}';
     }
 }
@@ -23,15 +23,18 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 
+import org.hotswap.agent.command.CommandOrderingKey;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.OrderedCommand;
 import org.hotswap.agent.logging.AgentLogger;
+import org.hotswap.agent.plugin.spring.SpringPlugin;
 
 /**
  * Do refresh Spring class (scanned by xml) based on xml files.
  *
  * This commands merges events of watcher.event(CREATE) and transformer hotswap reload to a single refresh command.
  */
-public class XmlBeanRefreshCommand extends MergeableCommand {
+public class XmlBeanRefreshCommand extends MergeableCommand implements OrderedCommand {
     private static AgentLogger LOGGER = AgentLogger.getLogger(XmlBeanRefreshCommand.class);
 
     /**
@@ -74,6 +77,14 @@ public class XmlBeanRefreshCommand extends MergeableCommand {
         }
     }
 
+    /**
+     * XML reload shares the lane with class refreshes of the same application.
+     */
+    @Override
+    public Object getOrderingKey() {
+        return new CommandOrderingKey(appClassLoader, SpringPlugin.class);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
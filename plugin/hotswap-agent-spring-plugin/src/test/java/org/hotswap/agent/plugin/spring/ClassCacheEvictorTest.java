@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class ClassCacheEvictorTest {
+
+    public static class Redefined {
+        public void method() {
+        }
+    }
+
+    public static class Subclass extends Redefined {
+    }
+
+    public static class Other {
+        public List<Redefined> list;
+        public List<Other> others;
+    }
+
+    // similar to AnnotationUtils.AnnotationCacheKey
+    static class CompositeKey {
+        final AnnotatedElement element;
+        final Class<?> annotationType;
+
+        CompositeKey(AnnotatedElement element, Class<?> annotationType) {
+            this.element = element;
+            this.annotationType = annotationType;
+        }
+    }
+
+    private final ClassCacheEvictor evictor = new ClassCacheEvictor(Collections.singleton(Redefined.class.getName()));
+
+    @Test
+    public void testIsAffected() {
+        assertTrue(evictor.isAffected(Redefined.class));
+        assertTrue(evictor.isAffected(Subclass.class));
+        assertTrue(evictor.isAffected(Subclass[].class));
+        assertFalse(evictor.isAffected(Other.class));
+        assertFalse(evictor.isAffected(int.class));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        Type redefinedList = Other.class.getField("list").getGenericType();
+        Type otherList = Other.class.getField("others").getGenericType();
+
+        Map<Object, Object> cache = new ConcurrentHashMap<>();
+        cache.put(Redefined.class, "");
+        cache.put(Subclass.class, "");
+        cache.put(Other.class, "");
+        cache.put(Redefined.class.getMethod("method"), "");
+        cache.put(Other.class.getField("list"), "");
+        cache.put(redefinedList, "");
+        cache.put(otherList, "");
+        cache.put(new CompositeKey(Subclass.class, Deprecated.class), "");
+        CompositeKey otherKey = new CompositeKey(Other.class, Deprecated.class);
+        cache.put(otherKey, "");
+
+        evictor.evict(cache, "test");
+
+        assertEquals(4, cache.size());
+        assertTrue(cache.containsKey(Other.class));
+        assertTrue(cache.containsKey(Other.class.getField("list")));
+        assertTrue(cache.containsKey(otherList));
+        assertTrue(cache.containsKey(otherKey));
+    }
+
+    @Test
+    public void testIsAffectedObject() throws Exception {
+        assertTrue(evictor.isAffectedObject(new CompositeKey(Redefined.class.getMethod("method"), Deprecated.class)));
+        assertFalse(evictor.isAffectedObject(new CompositeKey(Other.class, Deprecated.class)));
+        assertTrue(evictor.isAffectedObject("unresolved"));
+        assertTrue(evictor.isAffected(Redefined.class.getName()));
+        assertFalse(evictor.isAffected(Subclass.class.getName()));
+    }
+
+    @Test
+    public void testKnownAffectedNames() {
+        assertTrue(evictor.isKnownAffected(Redefined.class.getName()));
+        assertFalse(evictor.isKnownAffected(Subclass.class.getName()));
+        evictor.isAffected(Subclass.class);
+        assertTrue("Resolved subtype", evictor.isKnownAffected(Subclass.class.getName()));
+
+        assertTrue(evictor.isInRedefinedPackage(Other.class.getName()));
+        assertFalse(evictor.isInRedefinedPackage("org.example.Other"));
+    }
+
+    @Test
+    public void testClearUnresolvedKeys() {
+        Map<Object, Object> cache = new ConcurrentHashMap<>();
+        cache.put(Other.class, "");
+        cache.put("beanName", "");
+
+        evictor.evict(cache, "test");
+
+        assertTrue(cache.isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.spring;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.hotswap.agent.util.ReflectionHelper;
+import org.junit.Test;
+import org.springframework.beans.factory.support.AbstractBeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+public class ResetBeanMetadataCachesTest {
+
+    public static class Redefined {
+    }
+
+    public static class Subclass extends Redefined {
+    }
+
+    public static class Other {
+    }
+
+    public static class Factory {
+        public Other create() {
+            return new Other();
+        }
+    }
+
+    @Test
+    public void testEvictMergedBeanDefinitions() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("redefined", new RootBeanDefinition(Redefined.class));
+        beanFactory.registerBeanDefinition("subclass", new RootBeanDefinition(Subclass.class));
+        beanFactory.registerBeanDefinition("other", new RootBeanDefinition(Other.class));
+        beanFactory.registerBeanDefinition("factory", new RootBeanDefinition(Factory.class));
+        RootBeanDefinition created = new RootBeanDefinition();
+        created.setFactoryBeanName("factory");
+        created.setFactoryMethodName("create");
+        beanFactory.registerBeanDefinition("created", created);
+        ResetBeanMetadataCaches.register(beanFactory);
+
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            beanFactory.getBean(beanName);
+        }
+
+        ResetBeanMetadataCaches.evict(Redefined.class.getName());
+
+        Map<?, ?> merged = mergedBeanDefinitions(beanFactory);
+        assertFalse(merged.containsKey("redefined"));
+        assertFalse("Subclass evicted", merged.containsKey("subclass"));
+        assertTrue(merged.containsKey("other"));
+        assertTrue(merged.containsKey("created"));
+
+        ResetBeanMetadataCaches.evict(Factory.class.getName());
+
+        assertFalse("Bean created by factory method of redefined class evicted", merged.containsKey("created"));
+        assertTrue(merged.containsKey("other"));
+    }
+
+    private static Map<?, ?> mergedBeanDefinitions(DefaultListableBeanFactory beanFactory) {
+        return (Map<?, ?>) ReflectionHelper.get(beanFactory, AbstractBeanFactory.class, "mergedBeanDefinitions");
+    }
+}
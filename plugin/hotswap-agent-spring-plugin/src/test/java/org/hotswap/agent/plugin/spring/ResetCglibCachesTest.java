@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2019 the HotswapAgent authors.
+ *
+ * This file is part of HotswapAgent.
+ *
+ * HotswapAgent is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * HotswapAgent is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with HotswapAgent. If not, see http://www.gnu.org/licenses/.
+ */
+package org.hotswap.agent.plugin.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.cglib.proxy.Enhancer;
+import org.springframework.cglib.proxy.NoOp;
+
+public class ResetCglibCachesTest {
+
+    public static class Redefined {
+    }
+
+    public static class Subclass extends Redefined {
+    }
+
+    public static class Other {
+    }
+
+    // similar to toString() of a key generated by KeyFactory
+    static class Key {
+        final String value;
+
+        Key(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    // records classes resolved through the loader
+    static class RecordingClassLoader extends ClassLoader {
+        final List<String> loaded = new ArrayList<>();
+
+        RecordingClassLoader() {
+            super(ResetCglibCachesTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            loaded.add(name);
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    private final ClassCacheEvictor evictor = new ClassCacheEvictor(Collections.singleton(Redefined.class.getName()));
+
+    @Test
+    public void testRedefinedName() {
+        RecordingClassLoader classLoader = new RecordingClassLoader();
+        assertTrue(ResetCglibCaches.isAffectedKey(new Key("Key{" + Redefined.class.getName() + ", null, false}"), classLoader, evictor));
+        assertTrue(classLoader.loaded.isEmpty());
+    }
+
+    @Test
+    public void testKnownSubtype() {
+        evictor.isAffected(Subclass.class);
+        RecordingClassLoader classLoader = new RecordingClassLoader();
+        assertTrue(ResetCglibCaches.isAffectedKey(new Key("Key{" + Subclass.class.getName() + "}"), classLoader, evictor));
+        assertTrue(classLoader.loaded.isEmpty());
+    }
+
+    @Test
+    public void testSubtypeInRedefinedPackage() {
+        RecordingClassLoader classLoader = new RecordingClassLoader();
+        assertTrue(ResetCglibCaches.isAffectedKey(new Key("Key{" + Subclass.class.getName() + "}"), classLoader, evictor));
+        assertFalse(ResetCglibCaches.isAffectedKey(new Key("Key{" + Other.class.getName() + "}"), classLoader, evictor));
+        assertEquals(2, classLoader.loaded.size());
+    }
+
+    @Test
+    public void testOtherPackagesNotLoaded() {
+        RecordingClassLoader classLoader = new RecordingClassLoader();
+        assertFalse(ResetCglibCaches.isAffectedKey(new Key("Key{java.lang.Object, [java.io.Serializable], "
+                + "org.example.Callback, 1.5}"), classLoader, evictor));
+        assertTrue("Classes loaded: " + classLoader.loaded, classLoader.loaded.isEmpty());
+    }
+
+    @Test
+    public void testEvictGeneratedClasses() {
+        Class<?> redefinedProxy = createProxyClass(Redefined.class);
+        Class<?> otherProxy = createProxyClass(Other.class);
+        assertSame("Generated class cached", redefinedProxy, createProxyClass(Redefined.class));
+
+        ResetCglibCaches.evict(evictor, getClass().getClassLoader());
+
+        assertNotSame("Generated class of redefined class evicted", redefinedProxy, createProxyClass(Redefined.class));
+        assertSame("Other generated class kept", otherProxy, createProxyClass(Other.class));
+    }
+
+    private static Class<?> createProxyClass(Class<?> superclass) {
+        Enhancer enhancer = new Enhancer();
+        enhancer.setSuperclass(superclass);
+        enhancer.setCallbackType(NoOp.class);
+        enhancer.setUseCache(true);
+        return enhancer.createClass();
+    }
+}
@@ -19,14 +19,18 @@
 package org.hotswap.agent.plugin.spring;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 
 import javax.inject.Inject;
 
+import org.hotswap.agent.plugin.spring.scanner.ClassPathBeanDefinitionScannerAgent;
 import org.hotswap.agent.plugin.spring.scanner.XmlBeanDefinitionScannerAgent;
 import org.hotswap.agent.plugin.spring.testBeans.BeanPrototype;
 import org.hotswap.agent.plugin.spring.testBeans.BeanRepository;
@@ -37,6 +41,7 @@ import org.hotswap.agent.plugin.spring.testBeansHotswap.BeanPrototype2;
 import org.hotswap.agent.plugin.spring.testBeansHotswap.BeanRepository2;
 import org.hotswap.agent.plugin.spring.testBeansHotswap.BeanServiceImpl2;
 import org.hotswap.agent.plugin.spring.testBeansHotswap.Pojo2;
+import org.hotswap.agent.util.IOUtils;
 import org.hotswap.agent.util.ReflectionHelper;
 import org.hotswap.agent.util.spring.io.resource.ClassPathResource;
 import org.hotswap.agent.util.spring.io.resource.Resource;
@@ -47,7 +52,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.LookupOverride;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -176,6 +186,54 @@ public class SpringPluginTest {
         assertEquals(0, applicationContext.getBeanNamesForType(Pojo.class).length);
     }
 
+    /**
+     * Reload several beans at once, a bean failing to register keeps its previous definition and the other beans
+     * are redefined.
+     */
+    @Test
+    public void reloadBeansWithFailingBeanTest() throws Exception {
+        ConfigurableListableBeanFactory beanFactory = ((ConfigurableApplicationContext) applicationContext).getBeanFactory();
+        String basePackage = BeanRepository.class.getPackage().getName();
+        ClassPathBeanDefinitionScannerAgent scannerAgent = ClassPathBeanDefinitionScannerAgent.getInstance(basePackage);
+        BeanDefinition repositoryDefinition = beanFactory.getBeanDefinition("beanRepository");
+
+        // invalid definition - registration fails on validation
+        AbstractBeanDefinition failing = (AbstractBeanDefinition) scannerAgent.resolveBeanDefinition(getClassDefinition(BeanRepository.class));
+        failing.setFactoryMethodName("create");
+        failing.getMethodOverrides().addOverride(new LookupOverride("hello", (String) null));
+        BeanDefinition prototype = scannerAgent.resolveBeanDefinition(getClassDefinition(BeanPrototype.class));
+        BeanDefinition service = scannerAgent.resolveBeanDefinition(getClassDefinition(BeanServiceImpl.class));
+
+        scannerAgent.defineBeans(Arrays.asList(prototype, failing, service));
+
+        assertSame("Previous definition restored", repositoryDefinition, beanFactory.getBeanDefinition("beanRepository"));
+        assertSame(prototype, beanFactory.getBeanDefinition("beanPrototype"));
+        assertSame(service, beanFactory.getBeanDefinition("beanServiceImpl"));
+        assertEquals("Hello from Repository ServiceWithAspect Prototype",
+                applicationContext.getBean(BeanPrototype.class).hello());
+    }
+
+    /**
+     * A class of the change set that cannot be resolved does not prevent reload of other classes.
+     */
+    @Test
+    public void refreshClassesWithInvalidClassTest() throws Exception {
+        ConfigurableListableBeanFactory beanFactory = ((ConfigurableApplicationContext) applicationContext).getBeanFactory();
+        String basePackage = BeanRepository.class.getPackage().getName();
+        BeanDefinition prototypeDefinition = beanFactory.getBeanDefinition("beanPrototype");
+
+        ClassPathBeanDefinitionScannerAgent.refreshClasses(new String[]{basePackage, basePackage},
+                new byte[][]{new byte[]{1, 2, 3}, getClassDefinition(BeanPrototype.class)});
+
+        assertNotSame("Bean redefined", prototypeDefinition, beanFactory.getBeanDefinition("beanPrototype"));
+        assertEquals("Hello from Repository ServiceWithAspect Prototype",
+                applicationContext.getBean(BeanPrototype.class).hello());
+    }
+
+    private static byte[] getClassDefinition(Class<?> clazz) throws Exception {
+        return IOUtils.toByteArray(clazz.getResource(clazz.getSimpleName() + ".class").toURI());
+    }
+
     private void swapClasses(Class<?> original, Class<?> swap) throws Exception {
         swappingRule.swapClasses(original, swap);
     }
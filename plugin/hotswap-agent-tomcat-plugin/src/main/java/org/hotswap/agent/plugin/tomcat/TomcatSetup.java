@@ -26,6 +26,7 @@ import java.util.Arrays;
 import org.hotswap.agent.config.PluginManager;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.util.PluginManagerInvoker;
+import org.hotswap.agent.versions.DeploymentInfo;
 
 /**
  * Created by bubnik on 5.6.2014.
@@ -60,6 +61,7 @@ public class TomcatSetup {
                 }
 
             }
+            DeploymentInfo.evictClassLoader(originalClassLoader);
         }
     }
 
@@ -26,9 +26,12 @@ import java.util.Map;
 
 import org.hotswap.agent.annotation.FileEvent;
 import org.hotswap.agent.command.Command;
+import org.hotswap.agent.command.CommandOrderingKey;
 import org.hotswap.agent.command.MergeableCommand;
+import org.hotswap.agent.command.OrderedCommand;
 import org.hotswap.agent.logging.AgentLogger;
 import org.hotswap.agent.plugin.weld.BeanReloadStrategy;
+import org.hotswap.agent.plugin.weld.WeldPlugin;
 import org.hotswap.agent.watch.WatchFileEvent;
 
 /**
@@ -40,7 +43,7 @@ import org.hotswap.agent.watch.WatchFileEvent;
  *
  * @author Vladimir Dvorak
  */
-public class BeanClassRefreshCommand extends MergeableCommand {
+public class BeanClassRefreshCommand extends MergeableCommand implements OrderedCommand {
     private static AgentLogger LOGGER = AgentLogger.getLogger(BeanClassRefreshCommand.class);
 
     ClassLoader classLoader;
@@ -245,6 +248,14 @@ public class BeanClassRefreshCommand extends MergeableCommand {
         return !createFound && deleteFound;
     }
 
+    /**
+     * Archive refreshes in the classloader must not overlap - proxy recreation and bean reload share Weld state.
+     */
+    @Override
+    public Object getOrderingKey() {
+        return new CommandOrderingKey(classLoader, WeldPlugin.class);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;